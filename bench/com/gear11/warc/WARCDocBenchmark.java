@@ -0,0 +1,144 @@
+package com.gear11.warc;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.CharacterCodingException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.commoncrawl.warc.BenchPayloads;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the GeoRSS job's per record work: HTTP header parsing, feed
+ * extraction, date parsing and the URL sort comparator. The baseline*
+ * methods measure the implementations these replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WARCDocBenchmark {
+    @Param({"20", "200"})
+    public int items;
+
+    private byte[] feed;
+    // More distinct dates than the parser caches, so most calls parse
+    private String[] dates;
+    private byte[][] urls;
+    private final GeoRSSCounter.ShortestTextComparator comparator = new GeoRSSCounter.ShortestTextComparator();
+    private final SimpleDateFormat rssFormat = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss Z");
+    private final SimpleDateFormat atomFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssX");
+
+    @Setup
+    public void setup() {
+        feed = BenchPayloads.geoRssResponse(items);
+        dates = BenchPayloads.dates(1024);
+        urls = BenchPayloads.serializedUrls(1024);
+        WARCDoc.setDefaultPrefilter(true);
+    }
+
+    @Benchmark
+    public String headerParse() throws IOException {
+        return new WARCDoc(new ByteArrayInputStream(feed)).getMimeType();
+    }
+
+    @Benchmark
+    public Set<String> namespaces() throws IOException, XMLStreamException {
+        return new WARCDoc(new ByteArrayInputStream(feed)).getNamespaces();
+    }
+
+    @Benchmark
+    public void geoRss(Blackhole bh) throws IOException {
+        WARCDoc doc = new WARCDoc(new ByteArrayInputStream(feed));
+        bh.consume(doc.isGeoRss());
+        bh.consume(doc.getUpdatedAt());
+        bh.consume(doc.countGeoTags());
+        bh.consume(doc.countLocations());
+    }
+
+    @Benchmark
+    public void toEpochSec(Blackhole bh) {
+        for (String date : dates) {
+            bh.consume(WARCDoc.DateHelper.toEpochSec(date));
+        }
+    }
+
+    @Benchmark
+    public void toEpochSecCached(Blackhole bh) {
+        for (int i = 0; i < dates.length; ++i) {
+            bh.consume(WARCDoc.DateHelper.toEpochSec(dates[i & 63]));
+        }
+    }
+
+    @Benchmark
+    public void baselineSimpleDateFormat(Blackhole bh) {
+        for (String date : dates) {
+            bh.consume(simpleDateFormatEpochSec(date));
+        }
+    }
+
+    @Benchmark
+    public void shortestTextCompare(Blackhole bh) {
+        for (int i = 1; i < urls.length; ++i) {
+            bh.consume(comparator.compare(urls[i - 1], 0, urls[i - 1].length, urls[i], 0, urls[i].length));
+        }
+    }
+
+    @Benchmark
+    public void baselineShortestStringCompare(Blackhole bh) throws CharacterCodingException {
+        for (int i = 1; i < urls.length; ++i) {
+            String s1 = decode(urls[i - 1]);
+            String s2 = decode(urls[i]);
+            int c = s1.length() - s2.length();
+            bh.consume(c != 0 ? c : s1.compareTo(s2));
+        }
+    }
+
+    private static String decode(byte[] serialized) throws CharacterCodingException {
+        int n = WritableUtils.decodeVIntSize(serialized[0]);
+        return Text.decode(serialized, n, serialized.length - n);
+    }
+
+    /**
+     * The SimpleDateFormat parsing DateHelper used before, without its
+     * handling of date only values.
+     */
+    private long simpleDateFormatEpochSec(String date) {
+        try {
+            if (date.length() > 10 && date.charAt(10) == 'T') {
+                int dot = date.indexOf('.');
+                if (dot > 0) {
+                    int end = dot + 1;
+                    while (end < date.length() && Character.isDigit(date.charAt(end))) {
+                        ++end;
+                    }
+                    date = date.substring(0, dot) + date.substring(end);
+                }
+                return atomFormat.parse(date).getTime() / 1000;
+            }
+            return rssFormat.parse(date.replace("GMT", "+0000")).getTime() / 1000;
+        } catch (ParseException ex) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.commoncrawl.examples.mapreduce;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.StringTokenizer;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.io.Text;
+import org.commoncrawl.warc.BenchPayloads;
+import org.commoncrawl.warc.HtmlTagScanner;
+import org.commoncrawl.warc.HttpResponseHeader;
+import org.commoncrawl.warc.JsonPathExtractor;
+import org.commoncrawl.warc.LongCountAggregator;
+import org.commoncrawl.warc.Utf8Tokenizer;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the per record work of the tag, word and server type mappers
+ * on synthetic payloads. Each baseline* method measures the String based
+ * implementation the mapper used before.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MapperBenchmark {
+	private static final String SERVER_PATH = "Envelope.Payload-Metadata.HTTP-Response-Metadata.Headers.Server";
+	private static final Pattern HTML_TAG = Pattern.compile("(?i)<(?!/)([^\\s>]+)([^>]*)>");
+
+	private byte[] html;
+	private byte[] text;
+	private byte[] json;
+
+	private final HtmlTagScanner scanner = new HtmlTagScanner();
+	private final Utf8Tokenizer whitespace = new Utf8Tokenizer(Utf8Tokenizer.Mode.WHITESPACE, false);
+	private final Utf8Tokenizer unicode = new Utf8Tokenizer(Utf8Tokenizer.Mode.UNICODE, true);
+	private final JsonPathExtractor extractor = new JsonPathExtractor(SERVER_PATH);
+	// Large enough never to ask for a flush; the benchmarks only add
+	private final LongCountAggregator counts = new LongCountAggregator(Long.MAX_VALUE);
+	private final Text key = new Text();
+
+	@Setup
+	public void setup() {
+		html = BenchPayloads.htmlResponse(500);
+		text = BenchPayloads.wetText(20000);
+		json = BenchPayloads.watJson(300);
+	}
+
+	@Benchmark
+	public int tagScan() throws IOException {
+		HttpResponseHeader http = HttpResponseHeader.forThread();
+		ByteArrayInputStream in = new ByteArrayInputStream(html);
+		http.parse(in);
+		scanner.reset(http.getBody(in));
+		while (scanner.next()) {
+			counts.add(scanner.getName(), scanner.getNameOffset(), scanner.getNameLength(), 1);
+		}
+		return counts.size();
+	}
+
+	@Benchmark
+	public int baselineTagRegex() {
+		String content = new String(html);
+		String body = content.substring(content.indexOf("\r\n\r\n") + 4);
+		Matcher matcher = HTML_TAG.matcher(body);
+		while (matcher.find()) {
+			key.set(matcher.group(1).toLowerCase());
+			counts.add(key, 1);
+		}
+		return counts.size();
+	}
+
+	@Benchmark
+	public int tokenizeWhitespace() throws IOException {
+		return tokenize(whitespace);
+	}
+
+	@Benchmark
+	public int tokenizeUnicodeLowercase() throws IOException {
+		return tokenize(unicode);
+	}
+
+	private int tokenize(Utf8Tokenizer tokenizer) throws IOException {
+		tokenizer.reset(new ByteArrayInputStream(text));
+		while (tokenizer.next()) {
+			counts.add(tokenizer.getBytes(), tokenizer.getOffset(), tokenizer.getLength(), 1);
+		}
+		return counts.size();
+	}
+
+	@Benchmark
+	public int baselineStringTokenizer() {
+		StringTokenizer tokenizer = new StringTokenizer(new String(text));
+		while (tokenizer.hasMoreTokens()) {
+			key.set(tokenizer.nextToken());
+			counts.add(key, 1);
+		}
+		return counts.size();
+	}
+
+	@Benchmark
+	public int jsonPath() throws IOException {
+		extractor.extract(new ByteArrayInputStream(json));
+		return extractor.getLength(0);
+	}
+
+	@Benchmark
+	public int baselineJsonObject() throws JSONException {
+		JSONObject envelope = new JSONObject(new String(json));
+		key.set(envelope.getJSONObject("Envelope").getJSONObject("Payload-Metadata")
+				.getJSONObject("HTTP-Response-Metadata").getJSONObject("Headers").getString("Server"));
+		return key.getLength();
+	}
+}
@@ -0,0 +1,202 @@
+package org.commoncrawl.warc;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Synthetic record payloads for the benchmarks. Every generator is seeded,
+ * so each run measures the same bytes.
+ */
+public class BenchPayloads {
+	private static final String[] WORDS = {
+		"the", "of", "and", "crawl", "Common", "archive", "WARC", "record", "Hadoop", "map",
+		"reduce", "feed", "location", "donn\u00e9es", "stra\u00dfe", "M\u00fcnchen", "\u65e5\u672c\u8a9e", "\u0395\u03bb\u03bb\u03b7\u03bd\u03b9\u03ba\u03ac", "a", "is"
+	};
+	private static final String[] SERVERS = {
+		"Apache", "nginx", "Microsoft-IIS/7.5", "Apache/2.2.22 (Debian)", "cloudflare-nginx", "GSE", "LiteSpeed"
+	};
+	private static final String[] MONTHS = {
+		"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"
+	};
+	private static final String[] DAYS = {"Mon", "Tue", "Wed", "Thu", "Fri", "Sat", "Sun"};
+
+	/**
+	 * An HTTP response holding an RSS 2.0 feed with the given number of
+	 * GeoRSS tagged items.
+	 */
+	public static byte[] geoRssResponse(int items) {
+		Random random = new Random(1);
+		StringBuilder sb = new StringBuilder();
+		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		sb.append("<rss version=\"2.0\" xmlns:georss=\"http://www.georss.org/georss\"");
+		sb.append(" xmlns:dc=\"http://purl.org/dc/elements/1.1/\" xmlns:atom=\"http://www.w3.org/2005/Atom\">\n");
+		sb.append("<channel><title>Synthetic feed</title><link>http://example.com/</link>\n");
+		sb.append("<lastBuildDate>").append(rfc822(random)).append("</lastBuildDate>\n");
+		for (int i = 0; i < items; ++i) {
+			sb.append("<item><title>Item ").append(i).append("</title>");
+			sb.append("<link>http://example.com/item/").append(i).append("</link>");
+			sb.append("<description><![CDATA[<p>").append(sentence(random, 30)).append("</p>]]></description>");
+			sb.append("<pubDate>").append(rfc822(random)).append("</pubDate>");
+			sb.append("<georss:point>").append(random.nextInt(180) - 90).append('.').append(random.nextInt(10000));
+			sb.append(' ').append(random.nextInt(360) - 180).append('.').append(random.nextInt(10000));
+			sb.append("</georss:point></item>\n");
+		}
+		sb.append("</channel></rss>\n");
+		return response("application/rss+xml; charset=UTF-8", sb.toString());
+	}
+
+	/**
+	 * An HTTP response holding an HTML page with head scripts and styles,
+	 * comments and the given number of paragraphs.
+	 */
+	public static byte[] htmlResponse(int paragraphs) {
+		Random random = new Random(2);
+		StringBuilder sb = new StringBuilder();
+		sb.append("<!DOCTYPE html>\n<html lang=\"en\"><head><meta charset=\"utf-8\"><title>Synthetic page</title>\n");
+		sb.append("<link rel=\"stylesheet\" href=\"/s.css\"><style>p > a { color: red }</style>\n");
+		sb.append("<script type=\"text/javascript\">var x = 1 < 2 && \"<b>\"; document.write('<div>');</script>\n");
+		sb.append("</head><BODY class=\"main\">\n<!-- header <p> -->\n");
+		for (int i = 0; i < paragraphs; ++i) {
+			sb.append("<div class=\"para\" data-x='a>b'><P>").append(sentence(random, 20));
+			sb.append(" <a href=\"/page/").append(i).append("\" title=\"Link ").append(i).append("\">link</a>");
+			sb.append("<br/><img src=\"/i/").append(i).append(".png\" alt=\"\"><span>").append(sentence(random, 5));
+			sb.append("</span></p></div>\n");
+		}
+		sb.append("</body></html>\n");
+		return response("text/html; charset=UTF-8", sb.toString());
+	}
+
+	/**
+	 * Extracted page text, as in a WET record, of about the given number of words.
+	 */
+	public static byte[] wetText(int words) {
+		Random random = new Random(3);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < words; ++i) {
+			sb.append(WORDS[random.nextInt(WORDS.length)]);
+			int sep = random.nextInt(20);
+			sb.append(sep == 0 ? ".\n" : sep == 1 ? ", " : sep == 2 ? "\t" : " ");
+		}
+		return utf8(sb.toString());
+	}
+
+	/**
+	 * A WAT metadata record for a response with the given number of links.
+	 */
+	public static byte[] watJson(int links) {
+		Random random = new Random(4);
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"Envelope\":{\"Format\":\"WARC\",\"WARC-Header-Length\":\"350\",");
+		sb.append("\"WARC-Header-Metadata\":{\"WARC-Type\":\"response\",\"WARC-Date\":\"2014-07-22T02:58:04Z\",");
+		sb.append("\"WARC-Target-URI\":\"http://example.com/page/").append(random.nextInt(1000)).append("\"},");
+		sb.append("\"Payload-Metadata\":{\"Actual-Content-Type\":\"application/http; msgtype=response\",");
+		sb.append("\"HTTP-Response-Metadata\":{\"Response-Message\":{\"Status\":\"200\",\"Version\":\"HTTP/1.1\"},");
+		sb.append("\"Headers-Length\":\"300\",\"Headers\":{\"Date\":\"Tue, 22 Jul 2014 02:58:04 GMT\",");
+		sb.append("\"Content-Type\":\"text/html; charset=utf-8\",\"Server\":\"");
+		sb.append(SERVERS[random.nextInt(SERVERS.length)]).append("\",\"Vary\":\"Accept-Encoding\"},");
+		sb.append("\"HTML-Metadata\":{\"Head\":{\"Title\":\"Synthetic \\\"page\\\" \\u00e9t\\u00e9\"},\"Links\":[");
+		for (int i = 0; i < links; ++i) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append("{\"path\":\"A@/href\",\"url\":\"/page/").append(random.nextInt(100000));
+			sb.append("\",\"text\":\"").append(sentence(random, 3)).append("\"}");
+		}
+		sb.append("]}}},\"Container\":{\"Compressed\":true,\"Offset\":\"12345\"}}}");
+		return utf8(sb.toString());
+	}
+
+	/**
+	 * Feed dates in the RSS and Atom forms seen in the crawl.
+	 */
+	public static String[] dates(int count) {
+		Random random = new Random(5);
+		String[] dates = new String[count];
+		for (int i = 0; i < count; ++i) {
+			switch (i % 4) {
+			case 0:
+				dates[i] = rfc822(random);
+				break;
+			case 1:
+				dates[i] = String.format(Locale.ROOT, "%04d-%02d-%02dT%02d:%02d:%02dZ", 2000 + random.nextInt(15),
+						1 + random.nextInt(12), 1 + random.nextInt(28), random.nextInt(24), random.nextInt(60), random.nextInt(60));
+				break;
+			case 2:
+				dates[i] = String.format(Locale.ROOT, "%04d-%02d-%02dT%02d:%02d:%02d.%03d+01:00", 2000 + random.nextInt(15),
+						1 + random.nextInt(12), 1 + random.nextInt(28), random.nextInt(24), random.nextInt(60), random.nextInt(60),
+						random.nextInt(1000));
+				break;
+			default:
+				dates[i] = String.format(Locale.ROOT, "%s, %d %s %04d %02d:%02d:%02d GMT", DAYS[random.nextInt(7)], 1 + random.nextInt(28),
+						MONTHS[random.nextInt(12)], 2000 + random.nextInt(15), random.nextInt(24), random.nextInt(60), random.nextInt(60));
+			}
+		}
+		return dates;
+	}
+
+	/**
+	 * Serialized Text URLs of varying length, as the GeoRSS job sorts them.
+	 */
+	public static byte[][] serializedUrls(int count) {
+		Random random = new Random(6);
+		byte[][] urls = new byte[count][];
+		DataOutputBuffer out = new DataOutputBuffer();
+		for (int i = 0; i < count; ++i) {
+			StringBuilder sb = new StringBuilder("http://");
+			sb.append("example").append(random.nextInt(50)).append(".com/");
+			for (int j = random.nextInt(6); j >= 0; --j) {
+				sb.append(WORDS[random.nextInt(WORDS.length)]).append('/');
+			}
+			out.reset();
+			try {
+				new Text(sb.toString()).write(out);
+			} catch (IOException ex) {
+				throw new IllegalStateException(ex);
+			}
+			urls[i] = Arrays.copyOf(out.getData(), out.getLength());
+		}
+		return urls;
+	}
+
+	private static String rfc822(Random random) {
+		return String.format(Locale.ROOT, "%s, %02d %s %04d %02d:%02d:%02d +%04d", DAYS[random.nextInt(7)], 1 + random.nextInt(28),
+				MONTHS[random.nextInt(12)], 2000 + random.nextInt(15), random.nextInt(24), random.nextInt(60), random.nextInt(60),
+				random.nextInt(12) * 100);
+	}
+
+	private static String sentence(Random random, int words) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < words; ++i) {
+			if (i > 0) {
+				sb.append(' ');
+			}
+			sb.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+		return sb.toString();
+	}
+
+	private static byte[] response(String contentType, String body) {
+		byte[] b = utf8(body);
+		String head = "HTTP/1.1 200 OK\r\nDate: Tue, 22 Jul 2014 02:58:04 GMT\r\nServer: Apache\r\n"
+				+ "Content-Type: " + contentType + "\r\nContent-Length: " + b.length + "\r\nConnection: close\r\n\r\n";
+		byte[] h = utf8(head);
+		byte[] all = new byte[h.length + b.length];
+		System.arraycopy(h, 0, all, 0, h.length);
+		System.arraycopy(b, 0, all, h.length, b.length);
+		return all;
+	}
+
+	private static byte[] utf8(String s) {
+		try {
+			return s.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+}
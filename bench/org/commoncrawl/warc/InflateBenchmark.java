@@ -0,0 +1,82 @@
+package org.commoncrawl.warc;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.archive.io.ArchiveReader;
+import org.archive.io.ArchiveRecord;
+import org.archive.io.warc.WARCReaderFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks reading every record of a synthetic gzipped WARC file, WAT
+ * file and WET file held in memory with each {@link WARCFileInputFormat#INFLATER}
+ * setting. "native" measures "java" where Hadoop's native zlib is not loaded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InflateBenchmark {
+	@Param({"stream", "java", "native"})
+	public String inflater;
+
+	@Param({"warc", "wat", "wet"})
+	public String format;
+
+	private final Configuration conf = new Configuration();
+	private final byte[] buffer = new byte[64 * 1024];
+	private String name;
+	private byte[] file;
+
+	@Setup
+	public void setup() throws IOException {
+		File dir = Files.createTempDirectory("inflate-bench").toFile();
+		try {
+			new SyntheticWARCGenerator(1, 1000).generate(dir, 1);
+			name = "synthetic-00000." + (format.equals("warc") ? "warc.gz" : "warc." + format + ".gz");
+			file = FileUtils.readFileToByteArray(new File(dir, name));
+		} finally {
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+
+	@Benchmark
+	public long readAll() throws IOException {
+		ArchiveReader ar;
+		if (inflater.equals("stream")) {
+			ar = WARCReaderFactory.get(name, new ByteArrayInputStream(file), true);
+		} else {
+			ar = new MemberArchiveReader(name, new SequentialMemberSource(new ByteArrayInputStream(file), RawInflater.create(inflater, conf)));
+		}
+		long bytes = 0;
+		try {
+			for (ArchiveRecord r : ar) {
+				int n;
+				while ((n = r.read(buffer)) > 0) {
+					bytes += n;
+				}
+			}
+		} finally {
+			ar.close();
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,99 @@
+package com.gear11.warc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds any of a fixed set of byte patterns in a single pass over the input
+ * (Aho-Corasick), with the automaton compiled to a full transition table so
+ * each input byte costs one array lookup.
+ *
+ * Instances are immutable and may be shared between threads.
+ */
+public class AhoCorasickMatcher {
+
+    // next[state * 256 + byte] is the following state
+    private final int[] next;
+    // Index of a pattern ending at a state, or -1
+    private final int[] match;
+
+    public AhoCorasickMatcher(String... patterns) {
+        // Build the trie
+        List<int[]> trie = new ArrayList<int[]>();
+        List<Integer> ends = new ArrayList<Integer>();
+        trie.add(newNode());
+        ends.add(-1);
+        for (int p = 0; p < patterns.length; ++p) {
+            int state = 0;
+            for (int i = 0; i < patterns[p].length(); ++i) {
+                int b = patterns[p].charAt(i) & 0xff;
+                if (trie.get(state)[b] < 0) {
+                    trie.get(state)[b] = trie.size();
+                    trie.add(newNode());
+                    ends.add(-1);
+                }
+                state = trie.get(state)[b];
+            }
+            ends.set(state, p);
+        }
+
+        // Breadth first, fill in the missing transitions from the failure links
+        int n = trie.size();
+        next = new int[n * 256];
+        match = new int[n];
+        int[] fail = new int[n];
+        int[] queue = new int[n];
+        int head = 0;
+        int tail = 0;
+        for (int b = 0; b < 256; ++b) {
+            int child = trie.get(0)[b];
+            if (child > 0) {
+                queue[tail++] = child;
+                next[b] = child;
+            }
+        }
+        for (int s = 0; s < n; ++s) {
+            match[s] = ends.get(s);
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            if (match[state] < 0) {
+                // A pattern ending at the failure state also ends here
+                match[state] = match[fail[state]];
+            }
+            for (int b = 0; b < 256; ++b) {
+                int child = trie.get(state)[b];
+                if (child > 0) {
+                    fail[child] = next[fail[state] * 256 + b];
+                    next[state * 256 + b] = child;
+                    queue[tail++] = child;
+                } else {
+                    next[state * 256 + b] = next[fail[state] * 256 + b];
+                }
+            }
+        }
+    }
+
+    private static int[] newNode() {
+        int[] node = new int[256];
+        Arrays.fill(node, -1);
+        return node;
+    }
+
+    /**
+     * Returns the offset just past the first occurrence of any of the
+     * patterns in buf[off, off+len), or -1 if there is none.
+     */
+    public int find(byte[] buf, int off, int len) {
+        int state = 0;
+        int end = off + len;
+        for (int i = off; i < end; ++i) {
+            state = next[(state << 8) | (buf[i] & 0xff)];
+            if (match[state] >= 0) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,155 @@
+package com.gear11.warc;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Checks {@link WARCDoc.DateHelper} against the SimpleDateFormat parser it
+ * replaced, on a table of RSS and Atom dates. Each date must give the same
+ * result as the old parser, unless the table gives the new result, for the
+ * inputs whose handling deliberately changed.
+ */
+public class DateHelperTest {
+
+    private static final long SAME = Long.MIN_VALUE;
+
+    // Date, and the new result where it differs from the old parser on purpose
+    private static final Object[][] DATES = {
+        // RSS
+        { "Mon, 25 Aug 2014 07:07:58 +0000", SAME },
+        { "Sat, 07 Sep 2002 0:00:01 GMT", SAME },
+        { "Sat, 07 Sep 2002 00:00:01 UTC", SAME },
+        { "Tue, 10 Jun 2003 04:00:00 GMT", SAME },
+        { "Wed, 02 Oct 2002 08:00:00 EST", SAME },
+        { "Wed, 02 Oct 2002 13:00:00 EDT", SAME },
+        { "Wed, 02 Oct 2002 15:00:00 +0200", SAME },
+        { "Wed, 02 Oct 2002 15:00:00 -0800", SAME },
+        { "Thu, 1 Jan 2015 00:00:00 PST", SAME },
+        { "Fri, 29 Feb 2008 23:59:59 +0100", SAME },
+        { "Mon, 25 aug 2014 07:07:58 +0000", SAME },
+        { "Mon, 25 Aug 2014 07:07:58 +0530", SAME },
+        { "Mon, 25 Aug 2014 07:07:58 GMT+01:00", SAME },
+        { "Mon, 25 Aug 2014 07:07:58 -0700 (PDT)", SAME },
+        { "Mon, 25 August 2014 07:07:58 +0000", SAME },
+        // Newly accepted: surrounding spaces, no day name, 2 digit years
+        // (which used to be read as years 14 and 2) and +HH:MM zones
+        { "  Mon, 25 Aug 2014 07:07:58 +0000  ", 1408950478L },
+        { "25 Aug 2014 07:07:58 +0000", 1408950478L },
+        { "Mon, 25 Aug 14 07:07:58 +0000", 1408950478L },
+        { "Sat, 07 Sep 02 00:00:01 GMT", 1031356801L },
+        { "Mon, 25 Aug 2014 07:07:58 +01:00", 1408946878L },
+        // Dates without a zone are UTC, and without a time noon UTC
+        { "Mon, 25 Aug 2014 07:07:58", 1408950478L },
+        { "Mon, 25 Aug 2014", 1408968000L },
+        // Invalid; impossible dates and times used to roll over
+        { "Mon, 30 Feb 2014 07:07:58 +0000", -1L },
+        { "Mon, 25 Foo 2014 07:07:58 +0000", SAME },
+        { "Mon, 25 Aug 2014 07:07:58 XYZ", SAME },
+        { "Mon, 25 Aug 2014 25:07:58 +0000", -1L },
+        { "Mon, 25 Aug 2014 07:61:58 +0000", -1L },
+        { "25/08/2014", SAME },
+        { "yesterday", SAME },
+        { "", SAME },
+        { null, SAME },
+
+        // Atom
+        { "2003-12-13T18:30:02Z", SAME },
+        { "2003-12-13T18:30:02.25Z", SAME },
+        { "2003-12-13T18:30:02+01:00", SAME },
+        { "2003-12-13T18:30:02.25+01:00", SAME },
+        { "2003-12-13T18:30:02-05:00", SAME },
+        { "2003-12-13T18:30:02.123456789Z", SAME },
+        { "2012-02-29T00:00:00Z", SAME },
+        { "2003-12-13T18:30:02+0100", SAME },
+        { "2003-12-13T18:30:02+01", SAME },
+        // Newly accepted: lower case t, space before the time, no seconds,
+        // no zone, and date-only values at noon UTC
+        { "2003-12-13t18:30:02Z", 1071340202L },
+        { "2003-12-13 18:30:02Z", 1071340202L },
+        { "2003-12-13T18:30Z", 1071340200L },
+        { "2003-12-13T18:30:02", 1071340202L },
+        { "2003-12-13", 1071316800L },
+        { "2003/12/13", 1071316800L },
+        // Invalid; impossible dates used to roll over
+        { "2003-02-30T18:30:02Z", -1L },
+        { "2003-13-13T18:30:02Z", -1L },
+        { "2003-12-13T18:30:02 bogus", SAME },
+        { "2003-12-13X18:30:02Z", SAME },
+        { "2003-12-1", SAME },
+    };
+
+    private static final SimpleDateFormat RSS_FORMAT = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss Z", Locale.US);
+    private static final SimpleDateFormat ATOM_FORMAT = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssX", Locale.US);
+
+    public static void main(String[] args) {
+        // The old parser read dates without a zone in the default zone
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+        int mismatches = 0;
+        for (Object[] row : DATES) {
+            String date = (String) row[0];
+            long expected = (Long) row[1];
+            if (expected == SAME) {
+                expected = oldToEpochSec(date);
+            }
+            long actual = WARCDoc.DateHelper.toEpochSec(date);
+            // Again, from the cache
+            long cached = WARCDoc.DateHelper.toEpochSec(date);
+            if (actual != expected || cached != expected) {
+                ++mismatches;
+                System.out.println("MISMATCH \"" + date + "\": expected " + expected + " got " + actual
+                        + (cached != actual ? " then " + cached : ""));
+            }
+        }
+        System.out.println(DATES.length + " dates checked, " + mismatches + " mismatches");
+        if (mismatches > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * The SimpleDateFormat based parser DateHelper replaced.
+     */
+    private static long oldToEpochSec(String dateStr) {
+        if (dateStr == null || dateStr.length() < 10) {
+            return -1;
+        } else if (dateStr.length() == 10) {
+            dateStr = dateStr.replace('/', '-');
+            dateStr += "T12:00:00";
+        }
+        if (dateStr.charAt(10) == 'T') {
+            int n = dateStr.indexOf('.');
+            if (n > 0) {
+                int m = n + 1;
+                for ( ; m < dateStr.length(); ++m) {
+                    if (!Character.isDigit(dateStr.charAt(m))) {
+                        break;
+                    }
+                }
+                if (m < dateStr.length()) {
+                    dateStr = dateStr.substring(0, n) + dateStr.substring(m);
+                } else {
+                    dateStr = dateStr.substring(0, n);
+                }
+            }
+            if (dateStr.length() < 19) {
+                return -1;
+            }
+            try {
+                Date date = ATOM_FORMAT.parse(dateStr);
+                return date.getTime() / 1000;
+            } catch (ParseException ex) {
+                return -1;
+            }
+        } else {
+            try {
+                Date date = RSS_FORMAT.parse(dateStr);
+                return date.getTime() / 1000;
+            } catch (ParseException ex) {
+                return -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.gear11.warc;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Pulls the GeoRSS facts out of a feed in a single pass of StAX events:
+ * the namespaces of the first element that declares any, whether one of
+ * them is a GeoRSS namespace, and if so the GeoRSS tags, the distinct
+ * locations and the most recent date.
+ *
+ * The parser reads the payload bytes itself and comes from a per-thread
+ * XMLInputFactory that is configured once. The factory implementation can
+ * be swapped (see {@link #FACTORY_CLASS}) to compare XML parsers.
+ */
+public class FeedExtractor {
+
+    /** Class name of the XMLInputFactory to use; the JDK default if unset. */
+    public static final String FACTORY_CLASS = "georss.xml.factory";
+
+    // Namespaces must be declared within this many events
+    private static final int NAMESPACE_EVENTS = 100;
+
+    // Elements that may contain dates
+    protected static final Set<String> DATE_ELS = new HashSet<String>(Arrays.asList(
+            "pubDate",
+            "updated",
+            "published"
+    ));
+
+    private static volatile String factoryClass;
+    private static final ThreadLocal<ConfiguredFactory> FACTORY = new ThreadLocal<ConfiguredFactory>();
+
+    protected final Set<String> namespaces = new HashSet<String>();
+    protected final Set<Integer> locHashes = new HashSet<Integer>();
+    protected String geoRssNs;
+    protected int geoTagCount;
+    protected long mostRecentEpochSec = -1;
+
+    private static class ConfiguredFactory {
+        final String className;
+        final XMLInputFactory factory;
+
+        ConfiguredFactory(String className) {
+            this.className = className;
+            this.factory = newFactory(className);
+        }
+    }
+
+    /**
+     * Sets the XMLInputFactory implementation used by threads from now on,
+     * or the JDK default if null.
+     */
+    public static void setFactoryClass(String className) {
+        factoryClass = className;
+    }
+
+    /**
+     * Returns the calling thread's XMLInputFactory.
+     */
+    public static XMLInputFactory getFactory() {
+        String className = factoryClass;
+        ConfiguredFactory configured = FACTORY.get();
+        if (configured == null
+                || (className == null ? configured.className != null : !className.equals(configured.className))) {
+            configured = new ConfiguredFactory(className);
+            FACTORY.set(configured);
+        }
+        return configured.factory;
+    }
+
+    private static XMLInputFactory newFactory(String className) {
+        XMLInputFactory factory;
+        if (className == null) {
+            factory = XMLInputFactory.newInstance();
+        } else {
+            try {
+                factory = (XMLInputFactory) Class.forName(className).getDeclaredConstructor().newInstance();
+            } catch (Exception ex) {
+                throw new IllegalArgumentException("Cannot create XMLInputFactory " + className, ex);
+            }
+        }
+        // Must prevent parser from attempting to validate external
+        // DTDs or process may halt.
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        return factory;
+    }
+
+    /**
+     * Parses the feed read from the stream. Throws if the XML is malformed
+     * before the namespaces are known; later errors end the parse, keeping
+     * what was found up to then.
+     */
+    public void extract(InputStream in) throws XMLStreamException {
+        XMLStreamReader reader = getFactory().createXMLStreamReader(in);
+        try {
+            extract(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Parses the feed from the reader's current position.
+     */
+    public void extract(XMLStreamReader reader) throws XMLStreamException {
+        // Find the namespaces declared by the first element that declares any
+        int events = 0;
+        while (events < NAMESPACE_EVENTS && reader.hasNext() && namespaces.isEmpty()) {
+            ++events;
+            if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                int count = reader.getNamespaceCount();
+                for (int i = 0; i < count; ++i) {
+                    namespaces.add(reader.getNamespaceURI(i));
+                }
+            }
+        }
+        for (String ns : namespaces) {
+            if (ns != null && ns.indexOf("georss") > 0) {
+                geoRssNs = ns;
+                break;
+            }
+        }
+        // An optimization--we only care about GeoRSS feeds.  Remove if this changes.
+        if (geoRssNs == null) {
+            return;
+        }
+        // We have a GeoRSS feed.  Look for update time and locations
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                if (geoRssNs.equals(reader.getNamespaceURI())) {
+                    String text = reader.getElementText();
+                    locHashes.add(text.hashCode());
+                    ++geoTagCount;
+                }
+                if (DATE_ELS.contains(reader.getLocalName())) {
+                    String text = reader.getElementText();
+                    long epochSec = WARCDoc.DateHelper.toEpochSec(text);
+                    mostRecentEpochSec = Math.max(mostRecentEpochSec, epochSec);
+                }
+            }
+        } catch (XMLStreamException ex) {
+            // Keep what was found before the document went bad
+        }
+    }
+
+    /**
+     * Returns the namespaces declared by the first element declaring any.
+     */
+    public Set<String> getNamespaces() {
+        return namespaces;
+    }
+
+    /**
+     * Returns true iff one of those namespaces is a GeoRSS namespace.
+     */
+    public boolean isGeoRss() {
+        return geoRssNs != null;
+    }
+
+    public int getGeoTagCount() {
+        return geoTagCount;
+    }
+
+    public Set<Integer> getLocationHashes() {
+        return locHashes;
+    }
+
+    public long getUpdatedAt() {
+        return mostRecentEpochSec;
+    }
+}
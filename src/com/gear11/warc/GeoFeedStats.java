@@ -0,0 +1,145 @@
+package com.gear11.warc;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * What GeoRSSCounter records about a feed: when it was last updated, how
+ * many GeoRSS tags it has and how many distinct locations. Serialized as
+ * three variable length longs.
+ *
+ * Several captures of the same feed merge to the latest update time and
+ * the summed counts, so merging may be applied in any order, any number of
+ * times, as a combiner requires.
+ */
+public class GeoFeedStats implements WritableComparable<GeoFeedStats> {
+
+    private long updatedAt = -1;
+    private long geoTags;
+    private long locations;
+
+    public GeoFeedStats() {
+    }
+
+    public GeoFeedStats(long updatedAt, long geoTags, long locations) {
+        set(updatedAt, geoTags, locations);
+    }
+
+    public void set(long updatedAt, long geoTags, long locations) {
+        this.updatedAt = updatedAt;
+        this.geoTags = geoTags;
+        this.locations = locations;
+    }
+
+    /**
+     * Merges other into this: the later update time, the summed counts.
+     */
+    public void merge(GeoFeedStats other) {
+        updatedAt = Math.max(updatedAt, other.updatedAt);
+        geoTags += other.geoTags;
+        locations += other.locations;
+    }
+
+    /**
+     * Returns the update time in seconds since the epoch, or -1 if unknown.
+     */
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public long getGeoTags() {
+        return geoTags;
+    }
+
+    public long getLocations() {
+        return locations;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVLong(out, updatedAt);
+        WritableUtils.writeVLong(out, geoTags);
+        WritableUtils.writeVLong(out, locations);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        updatedAt = WritableUtils.readVLong(in);
+        geoTags = WritableUtils.readVLong(in);
+        locations = WritableUtils.readVLong(in);
+    }
+
+    /**
+     * Orders by update time, then tag count, then location count.
+     */
+    @Override
+    public int compareTo(GeoFeedStats other) {
+        int c = compare(updatedAt, other.updatedAt);
+        if (c == 0) {
+            c = compare(geoTags, other.geoTags);
+        }
+        return c != 0 ? c : compare(locations, other.locations);
+    }
+
+    private static int compare(long a, long b) {
+        return a < b ? -1 : a == b ? 0 : 1;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof GeoFeedStats)) {
+            return false;
+        }
+        GeoFeedStats other = (GeoFeedStats) o;
+        return updatedAt == other.updatedAt && geoTags == other.geoTags && locations == other.locations;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (updatedAt ^ (updatedAt >>> 32)) * 961 + (int) geoTags * 31 + (int) locations;
+    }
+
+    /**
+     * Tab separated, as written by TextOutputFormat.
+     */
+    @Override
+    public String toString() {
+        return updatedAt + "\t" + geoTags + "\t" + locations;
+    }
+
+    /**
+     * Compares serialized GeoFeedStats without deserializing them.
+     */
+    public static class Comparator extends WritableComparator {
+        public Comparator() {
+            super(GeoFeedStats.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            try {
+                for (int field = 0; field < 3; ++field) {
+                    long v1 = readVLong(b1, s1);
+                    long v2 = readVLong(b2, s2);
+                    if (v1 != v2) {
+                        return v1 < v2 ? -1 : 1;
+                    }
+                    s1 += WritableUtils.decodeVIntSize(b1[s1]);
+                    s2 += WritableUtils.decodeVIntSize(b2[s2]);
+                }
+                return 0;
+            } catch (IOException ex) {
+                throw new IllegalArgumentException(ex);
+            }
+        }
+    }
+
+    static {
+        WritableComparator.define(GeoFeedStats.class, new Comparator());
+    }
+}
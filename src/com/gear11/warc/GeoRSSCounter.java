@@ -3,11 +3,10 @@ package com.gear11.warc;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.ArrayPrimitiveWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.mapreduce.Job;
-import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
@@ -16,18 +15,31 @@ import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.Logger;
-import org.archive.io.ArchiveReader;
 import org.archive.io.ArchiveRecord;
+import org.archive.io.ArchiveRecordHeader;
+import org.commoncrawl.warc.CDXIndexInputFormat;
+import org.commoncrawl.warc.ParallelArchiveMapper;
+import org.commoncrawl.warc.ParallelArchiveMapper.Output;
+import org.commoncrawl.warc.ParallelArchiveMapper.RecordProcessor;
+import org.commoncrawl.warc.StageTimer;
+import org.commoncrawl.warc.StageTimer.Stage;
 import org.commoncrawl.warc.WARCFileInputFormat;
+import org.commoncrawl.warc.WARCRecordFilter;
 
 import java.io.IOException;
-import java.nio.charset.CharacterCodingException;
+import java.io.InputStream;
 
 /**
  * A Map-Reduce job for scanning Common Crawl data for Geo RSS feeds.
  */
 public class GeoRSSCounter extends Configured implements Tool {
 	private static final Logger LOG = Logger.getLogger(GeoRSSCounter.class);
+    /** Whether feeds are scanned for GeoRSS markers before being parsed as XML; on by default. */
+    public static final String PREFILTER = "georss.prefilter";
+    /** Whether the input paths are CDX index files rather than WARC files; off by default. */
+    public static final String CDX_INPUT = "georss.input.cdx";
+    // URLs sampled per reducer to pick the total order partition boundaries
+    private static final int SAMPLES_PER_REDUCER = 1000;
 	protected static enum MAPPERCOUNTER {
 		RECORDS_IN,
         FEEDS_IN,
@@ -37,118 +49,131 @@ public class GeoRSSCounter extends Configured implements Tool {
 
     /**
      * Scans the input archives for documents that are geo-enabled RSS feeds.  For each, outputs
-     * URL as key, and an array of longs as the value:
-     * 0: Updated time in seconds since epoch
-     * 1: Number of geotagged items
-     * 2: Number of distinct locations
+     * URL as key, and as the value a {@link GeoFeedStats} holding the updated time in seconds
+     * since epoch, the number of geotagged items and the number of distinct locations.
+     *
+     * Records can be parsed on several threads; see {@link ParallelArchiveMapper#THREADS}.
      */
-	protected static class GeoRSSCounterMapper extends Mapper<Text, ArchiveReader, Text, ArrayPrimitiveWritable> {
-		private final Text outKey = new Text();
-        private final long[] vals = new long[3];
-        private final ArrayPrimitiveWritable result = new ArrayPrimitiveWritable(vals);
-
-		@Override
-		public void map(Text key, ArchiveReader value, Context context) throws IOException {
-
-			for (ArchiveRecord r : value) {
-				try {
-					// We're only interested in processing the responses, not requests or metadata
-					if ("response".equals(r.getHeader().getHeaderValue("WARC-Type"))) {
-                        context.getCounter(MAPPERCOUNTER.RECORDS_IN).increment(1);
-                        WARCDoc doc = new WARCDoc(r);
-                        if (doc.isFeed()) {
-                            context.getCounter(MAPPERCOUNTER.FEEDS_IN).increment(1);
-                            if (doc.isGeoRss()) {
-                                context.getCounter(MAPPERCOUNTER.GEO_RSS_IN).increment(1);
-                                outKey.set(r.getHeader().getUrl());
-                                vals[0] = doc.getUpdatedAt();
-                                vals[1] = doc.countGeoTags();
-                                vals[2] = doc.countLocations();
-                                //LOG.info("Writing "+outKey+"\t"+vals[0]+"\t"+vals[1]+"\t"+vals[2]);
-                                result.set(vals);
-                                context.write(outKey, result);
-                            }
-                        }
-					}
-				}
-				catch (Exception ex) {
-					LOG.error("Caught Exception", ex);
-					context.getCounter(MAPPERCOUNTER.EXCEPTIONS).increment(1);
-				}
-			}
-		}
+	protected static class GeoRSSCounterMapper extends ParallelArchiveMapper<Text, GeoFeedStats> {
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            WARCDoc.setDefaultPrefilter(context.getConfiguration().getBoolean(PREFILTER, true));
+            FeedExtractor.setFactoryClass(context.getConfiguration().get(FeedExtractor.FACTORY_CLASS));
+            super.setup(context);
+        }
+
+        @Override
+        protected boolean accept(ArchiveRecordHeader header, Output<Text, GeoFeedStats> out) {
+            // We're only interested in processing the responses, not requests or metadata
+            return "response".equals(header.getHeaderValue("WARC-Type"));
+        }
+
+        @Override
+        protected RecordProcessor<Text, GeoFeedStats> createProcessor(Context context) {
+            return new GeoRSSProcessor();
+        }
 	}
 
-    /**
-     * Reduces from an array of longs to an array of sums of those longs, formatted as a tab-delimited string.
-     */
-    public static class ArrayLongSumReducer extends Reducer<Text, ArrayPrimitiveWritable, Text, Text> {
-        private Text result = new Text();
-        StringBuilder sb = new StringBuilder();
+    protected static class GeoRSSProcessor extends RecordProcessor<Text, GeoFeedStats> {
+		private final Text outKey = new Text();
+        private final GeoFeedStats result = new GeoFeedStats();
 
         @Override
-        public void reduce(Text key, Iterable<ArrayPrimitiveWritable> values,
-                           Context context) throws IOException, InterruptedException {
-            long[] sums = null;
-            for (ArrayPrimitiveWritable val : values) {
-                long[] vals = (long[]) val.get();
-                //LOG.info("Reducing "+key+"\t"+vals[0]+"\t"+vals[1]+"\t"+vals[2]);
-                if (sums == null) {
-                    sums = vals;
-                } else {
-                    for (int i = 0; i < sums.length && i < vals.length; ++i) {
-                        sums[i] = sums[i] + vals[i];
+        public void process(ArchiveRecordHeader header, InputStream payload, Output<Text, GeoFeedStats> out) {
+            StageTimer timer = out.getTimer();
+            try {
+                out.increment(MAPPERCOUNTER.RECORDS_IN, 1);
+                long start = timer.start();
+                WARCDoc doc = new WARCDoc(payload);
+                timer.stop(Stage.HTTP_HEADER, start);
+                start = timer.start();
+                if (doc.isFeed()) {
+                    out.increment(MAPPERCOUNTER.FEEDS_IN, 1);
+                    if (doc.isGeoRss()) {
+                        out.increment(MAPPERCOUNTER.GEO_RSS_IN, 1);
+                        outKey.set(header.getUrl());
+                        result.set(doc.getUpdatedAt(), doc.countGeoTags(), doc.countLocations());
+                        timer.stop(Stage.PARSE, start);
+                        //LOG.info("Writing "+outKey+"\t"+result);
+                        start = timer.start();
+                        out.write(outKey, result);
+                        timer.stop(Stage.EMIT, start);
+                        return;
                     }
                 }
+                timer.stop(Stage.PARSE, start);
             }
-            if (sums == null) {
-                return;
+            catch (Exception ex) {
+                out.logError(LOG, header, ex);
+                out.increment(MAPPERCOUNTER.EXCEPTIONS, 1);
             }
-            sb.setLength(0);
-            for (long l: sums) {
-                sb.append(l).append('\t');
+        }
+    }
+
+    /**
+     * Merges the stats of each feed: the latest update time and the summed counts.
+     * The output type matches the input, so it serves as the combiner too.
+     */
+    public static class GeoFeedStatsReducer extends Reducer<Text, GeoFeedStats, Text, GeoFeedStats> {
+        private final GeoFeedStats result = new GeoFeedStats();
+
+        @Override
+        public void reduce(Text key, Iterable<GeoFeedStats> values,
+                           Context context) throws IOException, InterruptedException {
+            result.set(-1, 0, 0);
+            for (GeoFeedStats val : values) {
+                result.merge(val);
             }
-            sb.setLength(sb.length() - 1);
-            result.set(sb.toString());
             context.write(key, result);
         }
     }
 
+    /**
+     * Samples the URLs of feed responses for the partition boundaries: only
+     * feeds can be GeoRSS, and telling which are would mean parsing them.
+     * With CDX input, only feed-typed records are read in the first place.
+     */
+    static class FeedUrlSelector implements UrlSampler.KeySelector {
+        @Override
+        public String select(ArchiveRecord record) throws IOException {
+            ArchiveRecordHeader header = record.getHeader();
+            if (!"response".equals(header.getHeaderValue("WARC-Type"))) {
+                return null;
+            }
+            return new WARCDoc(record).isFeed() ? header.getUrl() : null;
+        }
+    }
+
     /**
      * Compares output key Text objects, first by length (shortest first), then
-     * by default String compareTo.  Used for the Map-Reduce sort phase.
+     * byte by byte.  Used for the Map-Reduce sort phase.
+     *
+     * Works on the serialized keys: the size of the vint length prefix gives
+     * each key's length, so keys are ordered without being decoded. Lengths
+     * are UTF-8 byte lengths, and bytes compare as unsigned, which orders
+     * characters by code point.
      */
     public static class ShortestTextComparator extends Text.Comparator {
         @Override
-        public int compare(byte[] b1, int i1, int l1, byte[] b2, int i2, int l2) {
-            String s1, s2;
-            try {
-                s1 = Text.decode(b1, i1, l1);
-            } catch (CharacterCodingException ex) {
-                s1 = null;
-            }
-            try {
-                s2 = Text.decode(b2, i2, l2);
-            } catch (CharacterCodingException ex) {
-                s2 = null;
-            }
-            return compareShortest(s1, s2);
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            int n1 = WritableUtils.decodeVIntSize(b1[s1]);
+            int n2 = WritableUtils.decodeVIntSize(b2[s2]);
+            return compareShortest(b1, s1 + n1, l1 - n1, b2, s2 + n2, l2 - n2);
         }
+
         @Override
         public int compare(WritableComparable a, WritableComparable b) {
-            String s1 = a.toString();
-            String s2 = b.toString();
-            return compareShortest(s1, s2);
+            Text t1 = (Text) a;
+            Text t2 = (Text) b;
+            return compareShortest(t1.getBytes(), 0, t1.getLength(), t2.getBytes(), 0, t2.getLength());
         }
 
-        public int compareShortest(String s1, String s2) {
-            if (s1 == null) {
-                return s2 == null ? 0 : -1;
-            } else if (s2 == null) {
-                return 1;
+        private static int compareShortest(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            if (l1 != l2) {
+                return l1 < l2 ? -1 : 1;
             }
-            int lc = s1.length() - s2.length();
-            return lc != 0 ? lc : s1.compareTo(s2);
+            return compareBytes(b1, s1, l1, b2, s2, l2);
         }
     }
 
@@ -160,6 +185,30 @@ public class GeoRSSCounter extends Configured implements Tool {
         System.exit(res);
     }
 
+    /**
+     * Sets up the GeoRSS count over the feeds in WARC files, or over the
+     * ranges a CDX index lists when {@link #CDX_INPUT} is set.
+     */
+    public static void configure(Job job) {
+        if (job.getConfiguration().getBoolean(CDX_INPUT, false)) {
+            job.setInputFormatClass(CDXIndexInputFormat.class);
+            CDXIndexInputFormat.setMimeTypes(job, WARCDoc.FEED_MIME_TYPES.toArray(new String[0]));
+        } else {
+            job.setInputFormatClass(WARCFileInputFormat.class);
+            // Only responses can hold feeds; skip the rest before they reach the mapper
+            WARCRecordFilter.setTypes(job, "response");
+        }
+        job.setOutputFormatClass(TextOutputFormat.class);
+
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(GeoFeedStats.class);
+
+        job.setMapperClass(GeoRSSCounterMapper.class);
+        job.setSortComparatorClass(ShortestTextComparator.class);
+        job.setCombinerClass(GeoFeedStatsReducer.class);
+        job.setReducerClass(GeoFeedStatsReducer.class);
+    }
+
     /**
      * Builds and runs the Hadoop job.
      * @return	0 if the Hadoop job completes successfully and 1 otherwise.
@@ -172,30 +221,37 @@ public class GeoRSSCounter extends Configured implements Tool {
         //   s3n://aws-publicdatasets/common-crawl/crawl-data/CC-MAIN-2014-23/segments/1405997884827.82/warc/*.warc.gz
         // or even:
         //   s3n://aws-publicdatasets/common-crawl/crawl-data/CC-MAIN-2014-23/*.warc.gz
+        // or, with -D georss.input.cdx=true, CDX index files, in which case only the feed-typed
+        // captures are fetched:
+        //   s3n://aws-publicdatasets/common-crawl/cc-index/collections/CC-MAIN-2014-23/indexes/cdx-*.gz
         String inputPath = args[0];
         // Output path example: s3n://cc-georss-gear11/out
         String outputPath = args[1];
+        // Optional number of reducers; their outputs, concatenated, stay in shortest-first order
+        int numReducers = args.length > 2 ? Integer.parseInt(args[2]) : 1;
 
         Configuration conf = getConf();
         Job job = new Job(conf, "georss");
         job.setJarByClass(GeoRSSCounter.class);
-        job.setNumReduceTasks(1);
+        job.setNumReduceTasks(numReducers);
 
         LOG.info("Input path: " + inputPath);
         LOG.info("Output path: " + outputPath);
         FileInputFormat.addInputPath(job, new Path(inputPath));
         FileOutputFormat.setOutputPath(job, new Path(outputPath));
 
-        job.setInputFormatClass(WARCFileInputFormat.class);
-        job.setOutputFormatClass(TextOutputFormat.class);
+        configure(job);
 
-        job.setOutputKeyClass(Text.class);
-        job.setOutputValueClass(ArrayPrimitiveWritable.class);
-
-        job.setMapperClass(GeoRSSCounterMapper.class);
-        job.setSortComparatorClass(ShortestTextComparator.class);
-        job.setReducerClass(ArrayLongSumReducer.class);
-
-        return job.waitForCompletion(true) ? 0 : -1;
+        if (numReducers <= 1) {
+            return job.waitForCompletion(true) ? 0 : -1;
+        }
+        Path partitionFile = new Path(outputPath + "_partitions");
+        try {
+            UrlSampler.configure(job, partitionFile, SAMPLES_PER_REDUCER * numReducers, new FeedUrlSelector());
+            return job.waitForCompletion(true) ? 0 : -1;
+        } finally {
+            // Only the reducers of this job read the boundaries
+            partitionFile.getFileSystem(conf).delete(partitionFile, false);
+        }
     }
 }
@@ -0,0 +1,180 @@
+package com.gear11.warc;
+
+/**
+ * A raw byte scan over the start of a feed that rules out documents which
+ * cannot be GeoRSS, so the StAX parse in {@link WARCDoc} only runs on
+ * likely candidates.
+ *
+ * WARCDoc treats a feed as GeoRSS when a namespace declared on the first
+ * element that declares any contains "georss". That URI has to appear in the
+ * bytes, so a document is only rejected when "georss" is absent and either
+ * the whole document was scanned and has no such element, or that element
+ * ends within the scanned bytes. Anything the scan cannot be sure about
+ * (other encodings, character references in that element, a window ending
+ * mid-markup) is passed on to the full parse.
+ */
+public class GeoRssPrefilter {
+
+    /** Bytes of the document scanned by default. */
+    public static final int DEFAULT_WINDOW = 8 * 1024;
+
+    // The W3C geo vocabulary is not GeoRSS, but such feeds are worth a full parse
+    private static final AhoCorasickMatcher GEO_MARKERS = new AhoCorasickMatcher("georss", "wgs84_pos");
+
+    // Results of looking for the first start tag declaring a namespace
+    private static final int NOT_FOUND = 0;
+    private static final int FOUND = 1;
+    private static final int FOUND_WITH_REFERENCE = 2;
+
+    /**
+     * Returns false if the document starting with buf[0, len) cannot be
+     * GeoRSS. complete says whether that is the whole document.
+     */
+    public static boolean mightBeGeoRss(byte[] buf, int len, boolean complete) {
+        for (int k = 0; k < 4 && k < len; ++k) {
+            if (buf[k] == 0 || (buf[k] & 0xff) == 0xfe || (buf[k] & 0xff) == 0xff) {
+                // UTF-16 or UTF-32, which the parser detects from the bytes
+                return true;
+            }
+        }
+        if (GEO_MARKERS.find(buf, 0, len) >= 0) {
+            return true;
+        }
+        int i = 0;
+        if (len >= 3 && (buf[0] & 0xff) == 0xef && (buf[1] & 0xff) == 0xbb && (buf[2] & 0xff) == 0xbf) {
+            i = 3;
+        }
+        while (i < len && isSpace(buf[i])) {
+            ++i;
+        }
+        if (i == len || buf[i] != '<') {
+            // Not markup we can read as ASCII (UTF-16, UTF-32, EBCDIC...)
+            return !complete;
+        }
+        int found = firstNamespacedElement(buf, i, len);
+        if (complete) {
+            // A reference may spell out "georss" in the namespace URI
+            return found == FOUND_WITH_REFERENCE;
+        }
+        return found != FOUND;
+    }
+
+    /**
+     * Looks for the first start tag declaring a namespace that ends before
+     * len. Returns FOUND_WITH_REFERENCE if it contains character or entity
+     * references, FOUND if it does not, or NOT_FOUND.
+     */
+    private static int firstNamespacedElement(byte[] buf, int i, int len) {
+        while (i < len) {
+            if (buf[i] != '<') {
+                ++i;
+                continue;
+            }
+            if (startsWith(buf, i, len, "<!--")) {
+                i = indexOf(buf, i + 4, len, "-->");
+            } else if (startsWith(buf, i, len, "<![CDATA[")) {
+                i = indexOf(buf, i + 9, len, "]]>");
+            } else if (startsWith(buf, i, len, "<?")) {
+                i = indexOf(buf, i + 2, len, "?>");
+            } else if (startsWith(buf, i, len, "<!")) {
+                i = skipDeclaration(buf, i + 2, len);
+            } else if (startsWith(buf, i, len, "</")) {
+                i = indexOf(buf, i + 2, len, ">");
+            } else {
+                // A start tag: look for xmlns attributes outside quoted values
+                boolean namespaced = false;
+                boolean reference = false;
+                byte quote = 0;
+                int j = i + 1;
+                for ( ; j < len; ++j) {
+                    byte b = buf[j];
+                    if (quote != 0) {
+                        if (b == quote) {
+                            quote = 0;
+                        } else if (b == '&') {
+                            reference = true;
+                        }
+                    } else if (b == '"' || b == '\'') {
+                        quote = b;
+                    } else if (b == '>') {
+                        break;
+                    } else if (isSpace(buf[j - 1]) && startsWith(buf, j, len, "xmlns")) {
+                        namespaced = true;
+                    }
+                }
+                if (j == len) {
+                    return NOT_FOUND;
+                }
+                if (namespaced) {
+                    return reference ? FOUND_WITH_REFERENCE : FOUND;
+                }
+                i = j + 1;
+                continue;
+            }
+            if (i < 0) {
+                return NOT_FOUND;
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Skips a declaration such as DOCTYPE, including an internal subset.
+     * Returns the offset past its closing '>', or -1.
+     */
+    private static int skipDeclaration(byte[] buf, int i, int len) {
+        int depth = 0;
+        byte quote = 0;
+        for ( ; i < len; ++i) {
+            byte b = buf[i];
+            if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else if (startsWith(buf, i, len, "<!--")) {
+                i = indexOf(buf, i + 4, len, "-->");
+                if (i < 0) {
+                    return -1;
+                }
+                --i;
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '[') {
+                ++depth;
+            } else if (b == ']') {
+                --depth;
+            } else if (b == '>' && depth <= 0) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the offset past the first occurrence of s at or after i, or -1.
+     */
+    private static int indexOf(byte[] buf, int i, int len, String s) {
+        for ( ; i + s.length() <= len; ++i) {
+            if (startsWith(buf, i, len, s)) {
+                return i + s.length();
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(byte[] buf, int i, int len, String s) {
+        if (i + s.length() > len) {
+            return false;
+        }
+        for (int k = 0; k < s.length(); ++k) {
+            if (buf[i + k] != s.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+}
@@ -0,0 +1,133 @@
+package com.gear11.warc;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import javax.xml.stream.XMLStreamException;
+import org.archive.io.ArchiveReader;
+import org.archive.io.ArchiveRecord;
+import org.archive.io.warc.WARCReaderFactory;
+import org.commoncrawl.warc.PayloadBuffer;
+
+/**
+ * Checks that the byte level GeoRSS prefilter does not change any result:
+ * every response is parsed with and without it and the GeoRSS values
+ * compared, also after getNamespaces has parsed the content first. A few
+ * hand made documents that are hard for the prefilter are checked first,
+ * then the responses of the given WARC file.
+ */
+public class GeoRssPrefilterTest {
+
+    private static final String HTTP = "HTTP/1.1 200 OK\r\nContent-Type: application/rss+xml\r\n\r\n";
+    private static final String GEO_ITEM =
+            "<item><pubDate>Mon, 25 Aug 2014 07:07:58 +0000</pubDate><georss:point>45.2 -71.9</georss:point></item>";
+
+    private static int checked;
+    private static int rejected;
+    private static int mismatches;
+
+    public static void main(String[] args) throws IOException {
+        String padding = repeat("<!-- padding -->", 1000);
+        String[] docs = {
+            "<rss xmlns:georss=\"http://www.georss.org/georss\"><channel>" + GEO_ITEM + "</channel></rss>",
+            "<rss version=\"2.0\"><channel><title>Plain</title></channel></rss>",
+            // First namespaced element after the scanned window
+            "<?xml version=\"1.0\"?>" + padding + "<rss xmlns:georss=\"http://www.georss.org/georss\"><channel>"
+                    + GEO_ITEM + "</channel></rss>",
+            // An xmlns in a comment is not an element
+            "<!-- <a xmlns:x=\"y\"> -->" + padding + "<rss xmlns:georss=\"http://www.georss.org/georss\">"
+                    + GEO_ITEM + "</rss>",
+            // Namespace on a nested element
+            "<rss><channel xmlns:georss=\"http://www.georss.org/georss\">" + GEO_ITEM + "</channel></rss>",
+            // Character reference in the namespace URI
+            "<rss xmlns:g=\"http://www.&#103;eorss.org/&#103;eorss\">" + padding + GEO_ITEM.replace("georss:", "g:")
+                    + "</rss>",
+            // Character reference in the namespace URI of a document scanned whole
+            "<rss xmlns:g=\"http://www.&#103;eorss.org/&#103;eorss\"><channel>" + GEO_ITEM.replace("georss:", "g:")
+                    + "</channel></rss>",
+            // A DOCTYPE with an internal subset
+            "<!DOCTYPE rss [<!ENTITY x \"]>\">]>" + padding + "<rss xmlns:georss=\"http://www.georss.org/georss\">"
+                    + GEO_ITEM + "</rss>",
+            // Not GeoRSS, with the first namespace in the window
+            "<feed xmlns=\"http://www.w3.org/2005/Atom\">" + padding + "<georss:point>1 2</georss:point></feed>",
+            // W3C geo vocabulary
+            "<rss xmlns:geo=\"http://www.w3.org/2003/01/geo/wgs84_pos#\"><geo:lat>1</geo:lat></rss>",
+            "",
+            "not xml at all",
+        };
+        for (String doc : docs) {
+            byte[] response = (HTTP + doc).getBytes("UTF-8");
+            check("case " + checked, response, response.length);
+        }
+        System.out.println("Hand made cases: " + checked + " checked, " + rejected + " rejected by prefilter, "
+                + mismatches + " mismatches");
+
+        if (args.length > 0) {
+            FileInputStream is = new FileInputStream(args[0]);
+            ArchiveReader ar = WARCReaderFactory.get(args[0], is, true);
+            // Each response is parsed twice, so it is read whole into one reused buffer
+            PayloadBuffer buffer = new PayloadBuffer(Integer.MAX_VALUE);
+            for (ArchiveRecord r : ar) {
+                if ("response".equals(r.getHeader().getHeaderValue("WARC-Type"))) {
+                    buffer.read(r);
+                    check(r.getHeader().getUrl(), buffer.getBytes(), buffer.getLength());
+                }
+            }
+            ar.close();
+            System.out.println("Total: " + checked + " feeds checked, " + rejected + " rejected by prefilter, "
+                    + mismatches + " mismatches");
+        }
+        if (mismatches > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void check(String name, byte[] response, int length) throws IOException {
+        WARCDoc plain = new WARCDoc(new ByteArrayInputStream(response, 0, length));
+        if (!plain.isFeed()) {
+            return;
+        }
+        plain.setPrefilter(false);
+        String expected = describe(plain);
+
+        WARCDoc filtered = new WARCDoc(new ByteArrayInputStream(response, 0, length));
+        filtered.setPrefilter(true);
+        String actual = describe(filtered);
+
+        ++checked;
+        if (filtered.prefiltered) {
+            ++rejected;
+        }
+        if (!expected.equals(actual)) {
+            ++mismatches;
+            System.out.println("MISMATCH " + name + ": expected " + expected + " got " + actual);
+        }
+
+        // Asking for the namespaces first parses the content, so the
+        // prefilter must not run over the consumed stream afterwards
+        WARCDoc namespacesFirst = new WARCDoc(new ByteArrayInputStream(response, 0, length));
+        namespacesFirst.setPrefilter(true);
+        try {
+            namespacesFirst.getNamespaces();
+        } catch (XMLStreamException ex) {
+            // Not XML; the GeoRSS values below are still compared
+        }
+        actual = describe(namespacesFirst);
+        if (!expected.equals(actual)) {
+            ++mismatches;
+            System.out.println("MISMATCH " + name + " (namespaces first): expected " + expected + " got " + actual);
+        }
+    }
+
+    private static String describe(WARCDoc doc) {
+        return doc.isGeoRss() + "\t" + doc.getUpdatedAt() + "\t" + doc.countGeoTags() + "\t" + doc.countLocations();
+    }
+
+    private static String repeat(String s, int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; ++i) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,367 @@
+package com.gear11.warc;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.CounterGroup;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.MapContext;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.map.WrappedMapper;
+import org.apache.hadoop.mapreduce.task.MapContextImpl;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+import org.archive.io.ArchiveReader;
+import org.commoncrawl.examples.mapreduce.WARCTagCounter;
+import org.commoncrawl.examples.mapreduce.WATServerType;
+import org.commoncrawl.examples.mapreduce.WETWordCount;
+
+/**
+ * Runs the mapper of one of the example jobs over local WARC, WAT or WET
+ * files on a single machine, without the Hadoop job runtime.
+ *
+ * The job is set up by its own driver's configure method, so the input
+ * format, record filters, mapper and sort order are those of the Hadoop job.
+ * Each input split (a whole file, unless splitting is enabled) is read by
+ * the job's input format and mapped by its mapper class on a fork-join
+ * pool. Map output is not sorted or spilled but merged straight into a
+ * table per split, and the tables are merged as the splits join:
+ * counts are summed and {@link GeoFeedStats} merged, as the jobs' reducers
+ * would. The result is written to part-r-00000 in the output directory,
+ * in the job's sort order and in the TextOutputFormat layout, so it matches
+ * the output of the Hadoop job with one reducer.
+ *
+ * Usage: LocalWARCRunner [-D key=value ...] georss|tags|words|servers input-glob output-dir [threads]
+ */
+public class LocalWARCRunner extends Configured implements Tool {
+    private static final Logger LOG = Logger.getLogger(LocalWARCRunner.class);
+
+    /**
+     * The jobs that can be run. Each driver has a static configure method
+     * that sets up everything about its job but the paths and reduce tasks,
+     * and both the driver's run and this class call it. The input format,
+     * record filters, mapper, combiner and sort order therefore cannot drift
+     * apart, and a local run produces the same output as the Hadoop job.
+     */
+    public static enum Preset {
+        GEORSS {
+            @Override
+            void configure(Job job) {
+                GeoRSSCounter.configure(job);
+            }
+        },
+        TAGS {
+            @Override
+            void configure(Job job) {
+                WARCTagCounter.configure(job);
+            }
+        },
+        WORDS {
+            @Override
+            void configure(Job job) {
+                WETWordCount.configure(job);
+            }
+        },
+        SERVERS {
+            @Override
+            void configure(Job job) {
+                WATServerType.configure(job);
+            }
+        };
+
+        abstract void configure(Job job);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int res = ToolRunner.run(new Configuration(), new LocalWARCRunner(), args);
+        System.exit(res);
+    }
+
+    public int run(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: LocalWARCRunner [-D key=value ...] georss|tags|words|servers input-glob output-dir [threads]");
+            return 1;
+        }
+        Preset preset = Preset.valueOf(args[0].toUpperCase(Locale.ROOT));
+        Path outputPath = new Path(args[2]);
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        Job job = Job.getInstance(getConf(), preset.name().toLowerCase(Locale.ROOT));
+        FileInputFormat.addInputPath(job, new Path(args[1]));
+        preset.configure(job);
+
+        FileSystem fs = outputPath.getFileSystem(job.getConfiguration());
+        if (fs.exists(outputPath)) {
+            throw new IOException("Output directory " + outputPath + " already exists");
+        }
+
+        long start = System.currentTimeMillis();
+        Result result = run(job, preset, threads);
+        write(job, result.table, fs, outputPath);
+        LOG.info("Mapped " + result.splits + " splits on " + threads + " threads into " + result.table.size()
+                + " keys in " + (System.currentTimeMillis() - start) + " ms");
+        for (CounterGroup group : result.counters) {
+            for (Counter counter : group) {
+                LOG.info(group.getDisplayName() + "\t" + counter.getDisplayName() + "=" + counter.getValue());
+            }
+        }
+        return 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Result run(Job job, Preset preset, int threads) throws IOException, InterruptedException {
+        InputFormat<Text, ArchiveReader> inputFormat;
+        Class<?> mapperClass;
+        try {
+            inputFormat = (InputFormat<Text, ArchiveReader>) ReflectionUtils.newInstance(
+                    job.getInputFormatClass(), job.getConfiguration());
+            mapperClass = job.getMapperClass();
+        } catch (ClassNotFoundException ex) {
+            throw new IOException(ex);
+        }
+        List<InputSplit> splits = inputFormat.getSplits(job);
+        LOG.info("Running " + preset.name().toLowerCase(Locale.ROOT) + " over " + splits.size() + " splits");
+        if (splits.isEmpty()) {
+            return new Result();
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return pool.invoke(new SplitTask(job.getConfiguration(), inputFormat, mapperClass, splits, 0, splits.size()));
+        } catch (RuntimeException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw ex;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Writes the table as TextOutputFormat would, sorted with the job's sort comparator.
+     */
+    @SuppressWarnings("unchecked")
+    private static void write(Job job, Map<Text, Writable> table, FileSystem fs, Path outputPath) throws IOException {
+        final RawComparator<Text> comparator = (RawComparator<Text>) job.getSortComparator();
+        List<Map.Entry<Text, Writable>> entries = new ArrayList<Map.Entry<Text, Writable>>(table.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<Text, Writable>>() {
+            @Override
+            public int compare(Map.Entry<Text, Writable> a, Map.Entry<Text, Writable> b) {
+                return comparator.compare(a.getKey(), b.getKey());
+            }
+        });
+        fs.mkdirs(outputPath);
+        OutputStream out = new BufferedOutputStream(fs.create(new Path(outputPath, "part-r-00000")), 256 * 1024);
+        try {
+            for (Map.Entry<Text, Writable> e : entries) {
+                out.write(e.getKey().getBytes(), 0, e.getKey().getLength());
+                out.write('\t');
+                out.write(e.getValue().toString().getBytes("UTF-8"));
+                out.write('\n');
+            }
+        } finally {
+            out.close();
+        }
+        fs.create(new Path(outputPath, "_SUCCESS")).close();
+    }
+
+    /**
+     * Adds the value from into the value into, as the jobs' reducers do.
+     */
+    private static void merge(Writable into, Writable from) {
+        if (into instanceof LongWritable) {
+            ((LongWritable) into).set(((LongWritable) into).get() + ((LongWritable) from).get());
+        } else if (into instanceof GeoFeedStats) {
+            ((GeoFeedStats) into).merge((GeoFeedStats) from);
+        } else {
+            throw new IllegalArgumentException("Cannot merge values of " + into.getClass().getName());
+        }
+    }
+
+    private static class Result {
+        Map<Text, Writable> table = new HashMap<Text, Writable>();
+        Counters counters = new Counters();
+        int splits;
+
+        /**
+         * Merges other into this, iterating the smaller table.
+         */
+        Result merge(Result other) {
+            Result big = table.size() >= other.table.size() ? this : other;
+            Result small = big == this ? other : this;
+            for (Map.Entry<Text, Writable> e : small.table.entrySet()) {
+                Writable total = big.table.get(e.getKey());
+                if (total == null) {
+                    big.table.put(e.getKey(), e.getValue());
+                } else {
+                    LocalWARCRunner.merge(total, e.getValue());
+                }
+            }
+            big.counters.incrAllCounters(small.counters);
+            big.splits += small.splits;
+            return big;
+        }
+    }
+
+    /**
+     * Maps the splits [from, to), halving the range until one split is left.
+     */
+    private static class SplitTask extends RecursiveTask<Result> {
+        private static final long serialVersionUID = 1L;
+
+        private final Configuration conf;
+        private final InputFormat<Text, ArchiveReader> inputFormat;
+        private final Class<?> mapperClass;
+        private final List<InputSplit> splits;
+        private final int from;
+        private final int to;
+
+        SplitTask(Configuration conf, InputFormat<Text, ArchiveReader> inputFormat, Class<?> mapperClass,
+                  List<InputSplit> splits, int from, int to) {
+            this.conf = conf;
+            this.inputFormat = inputFormat;
+            this.mapperClass = mapperClass;
+            this.splits = splits;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Result compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                SplitTask left = new SplitTask(conf, inputFormat, mapperClass, splits, from, mid);
+                left.fork();
+                Result right = new SplitTask(conf, inputFormat, mapperClass, splits, mid, to).compute();
+                return left.join().merge(right);
+            }
+            try {
+                return map(from);
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(ex);
+            }
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Result map(int index) throws IOException, InterruptedException {
+            // Each task gets its own copy, as mappers may set values during setup
+            Configuration taskConf = new Configuration(conf);
+            InputSplit split = splits.get(index);
+            TaskAttemptID id = new TaskAttemptID("local", 0, TaskType.MAP, index, 0);
+            Result result = new Result();
+            result.splits = 1;
+            TableWriter writer = new TableWriter(result.table, taskConf);
+            CountersReporter reporter = new CountersReporter(result.counters);
+
+            RecordReader<Text, ArchiveReader> reader = inputFormat.createRecordReader(split, null);
+            MapContext<Text, ArchiveReader, Text, Writable> mapContext = new MapContextImpl<Text, ArchiveReader, Text, Writable>(
+                    taskConf, id, reader, writer, null, reporter, split);
+            Mapper<Text, ArchiveReader, Text, Writable>.Context context =
+                    new WrappedMapper<Text, ArchiveReader, Text, Writable>().getMapContext(mapContext);
+            Mapper<Text, ArchiveReader, Text, Writable> mapper =
+                    (Mapper<Text, ArchiveReader, Text, Writable>) ReflectionUtils.newInstance((Class<Mapper>) mapperClass, taskConf);
+            reader.initialize(split, context);
+            try {
+                mapper.run(context);
+            } finally {
+                reader.close();
+            }
+            LOG.info("Mapped " + split);
+            return result;
+        }
+    }
+
+    /**
+     * Merges the map output of one split into its table.
+     */
+    private static class TableWriter extends RecordWriter<Text, Writable> {
+        private final Map<Text, Writable> table;
+        private final Configuration conf;
+
+        TableWriter(Map<Text, Writable> table, Configuration conf) {
+            this.table = table;
+            this.conf = conf;
+        }
+
+        @Override
+        public void write(Text key, Writable value) {
+            Writable total = table.get(key);
+            if (total == null) {
+                // Keys and values are reused by the mapper, so keep copies
+                table.put(new Text(key), WritableUtils.clone(value, conf));
+            } else {
+                merge(total, value);
+            }
+        }
+
+        @Override
+        public void close(TaskAttemptContext context) {
+        }
+    }
+
+    private static class CountersReporter extends StatusReporter {
+        private final Counters counters;
+
+        CountersReporter(Counters counters) {
+            this.counters = counters;
+        }
+
+        @Override
+        public Counter getCounter(Enum<?> name) {
+            return counters.findCounter(name);
+        }
+
+        @Override
+        public Counter getCounter(String group, String name) {
+            return counters.findCounter(group, name);
+        }
+
+        @Override
+        public void progress() {
+        }
+
+        @Override
+        public float getProgress() {
+            return 0;
+        }
+
+        @Override
+        public void setStatus(String status) {
+        }
+    }
+}
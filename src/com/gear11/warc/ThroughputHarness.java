@@ -0,0 +1,226 @@
+package com.gear11.warc;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Locale;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+import org.commoncrawl.examples.mapreduce.WARCTagCounter;
+import org.commoncrawl.examples.mapreduce.WATServerType;
+import org.commoncrawl.examples.mapreduce.WETWordCount;
+import org.commoncrawl.warc.SyntheticWARCGenerator;
+
+/**
+ * End to end throughput check: generates a synthetic corpus with
+ * {@link SyntheticWARCGenerator}, runs the GeoRSS, tag, word count and
+ * server type jobs over it on the local job runner, and reports wall time,
+ * records and megabytes per second, GC time and peak used heap (polled
+ * while the job runs) for each job as JSON, so results can be compared
+ * between builds.
+ *
+ * Run each build with the same arguments and JVM options; the corpus is
+ * regenerated identically from the seed. Generic options such as
+ * -D warc.payload.max=... are passed on to every job.
+ *
+ * Usage: ThroughputHarness work-dir [files [captures-per-file [seed]]]
+ *
+ * The report is printed to stdout and written to work-dir/results.json.
+ */
+public class ThroughputHarness extends Configured implements Tool {
+    private static final Logger LOG = Logger.getLogger(ThroughputHarness.class);
+
+    public static void main(String[] args) throws Exception {
+        int res = ToolRunner.run(new Configuration(), new ThroughputHarness(), args);
+        System.exit(res);
+    }
+
+    public int run(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: ThroughputHarness work-dir [files [captures-per-file [seed]]]");
+            return -1;
+        }
+        File work = new File(args[0]);
+        int files = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int captures = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+
+        File data = new File(work, "data");
+        FileUtil.fullyDelete(data);
+        LOG.info("Generating " + files + " x " + captures + " captures in " + data);
+        long start = System.nanoTime();
+        SyntheticWARCGenerator.Stats corpus = new SyntheticWARCGenerator(seed, captures).generate(data, files);
+        double generateSecs = (System.nanoTime() - start) / 1e9;
+
+        String input = data.getAbsolutePath() + "/";
+        JobResult[] results = {
+            runJob("georss", new GeoRSSCounter(), input + "*.warc.gz", work, corpus.warcRecords, corpus.warcBytes),
+            runJob("tags", new WARCTagCounter(), input + "*.warc.gz", work, corpus.warcRecords, corpus.warcBytes),
+            runJob("words", new WETWordCount(), input + "*.warc.wet.gz", work, corpus.wetRecords, corpus.wetBytes),
+            runJob("servers", new WATServerType(), input + "*.warc.wat.gz", work, corpus.watRecords, corpus.watBytes)
+        };
+
+        String json = toJson(files, captures, seed, generateSecs, results);
+        System.out.println(json);
+        Writer out = new OutputStreamWriter(new FileOutputStream(new File(work, "results.json")), "UTF-8");
+        try {
+            out.write(json);
+            out.write('\n');
+        } finally {
+            out.close();
+        }
+        for (JobResult result : results) {
+            if (result.exitCode != 0) {
+                return result.exitCode;
+            }
+        }
+        return 0;
+    }
+
+    private static class JobResult {
+        String name;
+        int exitCode;
+        double seconds;
+        long inputRecords;
+        long inputBytes;
+        long gcMillis;
+        long gcCount;
+        long peakHeapBytes;
+    }
+
+    private JobResult runJob(String name, Tool tool, String input, File work, long records, long bytes) throws Exception {
+        File output = new File(work, "out-" + name);
+        FileUtil.fullyDelete(output);
+        // Start each job from a collected heap, so peaks are its own
+        System.gc();
+        long gcMillis = gcMillis();
+        long gcCount = gcCount();
+
+        LOG.info("Running " + name + " over " + input);
+        HeapSampler sampler = new HeapSampler();
+        sampler.start();
+        long start = System.nanoTime();
+        JobResult result = new JobResult();
+        try {
+            result.exitCode = ToolRunner.run(new Configuration(getConf()), tool, new String[] { input, output.getAbsolutePath() });
+        } finally {
+            result.seconds = (System.nanoTime() - start) / 1e9;
+            result.peakHeapBytes = sampler.finish();
+        }
+        result.gcMillis = gcMillis() - gcMillis;
+        result.gcCount = gcCount() - gcCount;
+        result.name = name;
+        result.inputRecords = records;
+        result.inputBytes = bytes;
+        LOG.info(name + " finished in " + result.seconds + "s with exit code " + result.exitCode);
+        return result;
+    }
+
+    /**
+     * Polls the used heap while a job runs and keeps the highest value seen.
+     * Unlike the sum of each pool's peak, which are reached at different
+     * times, this is a heap size the job actually had, at the cost of
+     * missing peaks shorter than the poll interval.
+     */
+    private static class HeapSampler extends Thread {
+        private static final long INTERVAL_MILLIS = 10;
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private volatile boolean running = true;
+        private volatile long peak;
+
+        HeapSampler() {
+            super("heap-sampler");
+            setDaemon(true);
+            peak = used();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                peak = Math.max(peak, used());
+                try {
+                    Thread.sleep(INTERVAL_MILLIS);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Stops sampling and returns the peak used heap in bytes.
+         */
+        long finish() throws InterruptedException {
+            running = false;
+            interrupt();
+            join();
+            return Math.max(peak, used());
+        }
+
+        private long used() {
+            return memory.getHeapMemoryUsage().getUsed();
+        }
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    private static long gcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionCount());
+        }
+        return total;
+    }
+
+    private static String toJson(int files, int captures, long seed, double generateSecs, JobResult[] results) {
+        Runtime runtime = Runtime.getRuntime();
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n  \"jvm\": {");
+        sb.append("\"version\": ").append(quote(System.getProperty("java.version")));
+        sb.append(", \"vm\": ").append(quote(System.getProperty("java.vm.name")));
+        sb.append(", \"processors\": ").append(runtime.availableProcessors());
+        sb.append(", \"maxHeapBytes\": ").append(runtime.maxMemory());
+        sb.append("},\n  \"corpus\": {\"files\": ").append(files);
+        sb.append(", \"capturesPerFile\": ").append(captures);
+        sb.append(", \"seed\": ").append(seed);
+        sb.append(", \"generateSeconds\": ").append(format(generateSecs)).append("},\n  \"jobs\": [");
+        for (int i = 0; i < results.length; ++i) {
+            JobResult r = results[i];
+            sb.append(i > 0 ? ",\n" : "\n").append("    {\"name\": ").append(quote(r.name));
+            sb.append(", \"exitCode\": ").append(r.exitCode);
+            sb.append(", \"seconds\": ").append(format(r.seconds));
+            sb.append(", \"inputRecords\": ").append(r.inputRecords);
+            sb.append(", \"inputBytes\": ").append(r.inputBytes);
+            sb.append(", \"recordsPerSec\": ").append(format(r.inputRecords / r.seconds));
+            sb.append(", \"mbPerSec\": ").append(format(r.inputBytes / r.seconds / (1024 * 1024)));
+            sb.append(", \"gcMillis\": ").append(r.gcMillis);
+            sb.append(", \"gcCount\": ").append(r.gcCount);
+            sb.append(", \"peakHeapBytes\": ").append(r.peakHeapBytes).append('}');
+        }
+        sb.append("\n  ]\n}");
+        return sb.toString();
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String quote(String s) {
+        return '"' + String.valueOf(s).replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+}
@@ -0,0 +1,179 @@
+package com.gear11.warc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.partition.TotalOrderPartitioner;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.log4j.Logger;
+import org.archive.io.ArchiveReader;
+import org.archive.io.ArchiveRecord;
+
+/**
+ * Sets a job keyed by URL up for total order output over several reducers.
+ *
+ * Hadoop's InputSampler samples input keys, but the map output keys here are
+ * the target URLs of records inside the archives. So, as InputSampler's
+ * SplitSampler does with keys, a few evenly spaced input splits are read on
+ * the submitting machine, at most {@link #MAX_RECORDS} records of each. A
+ * {@link KeySelector} picks the URLs the job would emit among them, and a
+ * uniform sample of those is kept per split. An unsplit WARC file is one
+ * split, often sorted by host, and only its head is read; with split input
+ * or CDX input the samples come from more places. The samples are
+ * sorted with the job's sort comparator, and the reducer boundaries picked
+ * from them are written as the {@link TotalOrderPartitioner} partition
+ * file, which the caller deletes when the job is done. The
+ * partitioner is told to use the job's comparator, so the order of the
+ * concatenated reducer outputs matches the sort order within each of them.
+ */
+public class UrlSampler {
+    private static final Logger LOG = Logger.getLogger(UrlSampler.class);
+
+    /** Records read from each sampled split, whether or not they are sampled. */
+    public static final String MAX_RECORDS = "urlsampler.max.records.per.split";
+    private static final long DEFAULT_MAX_RECORDS = 5000;
+
+    // Splits read while sampling
+    private static final int MAX_SPLITS = 10;
+    private static final long SEED = 1;
+
+    /**
+     * Picks the map output key a record would give, so that the samples
+     * follow the keys the job partitions rather than every URL read.
+     */
+    public interface KeySelector {
+        /**
+         * Returns the URL to sample for the record, or null to skip it.
+         */
+        String select(ArchiveRecord record) throws IOException;
+    }
+
+    /**
+     * Samples up to numSamples URLs, as picked by the selector, from the
+     * job's input and configures the job to partition by them over its
+     * reduce tasks.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static void configure(Job job, Path partitionFile, int numSamples, KeySelector selector)
+            throws IOException, InterruptedException {
+        Configuration conf = job.getConfiguration();
+        int reducers = job.getNumReduceTasks();
+        final RawComparator<Text> comparator = (RawComparator<Text>) job.getSortComparator();
+
+        List<Text> samples = sample(job, numSamples, selector);
+        Collections.sort(samples, new Comparator<Text>() {
+            @Override
+            public int compare(Text a, Text b) {
+                return comparator.compare(a, b);
+            }
+        });
+        LOG.info("Sampled " + samples.size() + " URLs for " + reducers + " reducers");
+
+        // The partitioner needs exactly reducers - 1 boundaries
+        SequenceFile.Writer writer = SequenceFile.createWriter(conf, SequenceFile.Writer.file(partitionFile),
+                SequenceFile.Writer.keyClass(Text.class), SequenceFile.Writer.valueClass(NullWritable.class));
+        try {
+            for (int i = 1; i < reducers; ++i) {
+                Text boundary = samples.isEmpty() ? new Text() : samples.get((int) ((long) i * samples.size() / reducers));
+                writer.append(boundary, NullWritable.get());
+            }
+        } finally {
+            writer.close();
+        }
+
+        job.setPartitionerClass(TotalOrderPartitioner.class);
+        TotalOrderPartitioner.setPartitionFile(conf, partitionFile);
+        // Search the boundaries with the sort comparator rather than by raw bytes
+        conf.setBoolean(TotalOrderPartitioner.NATURAL_ORDER, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Text> sample(Job job, int numSamples, KeySelector selector)
+            throws IOException, InterruptedException {
+        Configuration conf = job.getConfiguration();
+        InputFormat<?, ?> inputFormat;
+        try {
+            inputFormat = ReflectionUtils.newInstance(job.getInputFormatClass(), conf);
+        } catch (ClassNotFoundException ex) {
+            throw new IOException(ex);
+        }
+        List<InputSplit> splits = inputFormat.getSplits(job);
+        int splitsToRead = Math.min(MAX_SPLITS, splits.size());
+        List<Text> samples = new ArrayList<Text>();
+        if (splitsToRead == 0) {
+            return samples;
+        }
+        int perSplit = Math.max(1, numSamples / splitsToRead);
+        long maxRecords = conf.getLong(MAX_RECORDS, DEFAULT_MAX_RECORDS);
+        // Fixed seed, so the same input always gives the same boundaries
+        Random random = new Random(SEED);
+        long read = 0;
+        for (int i = 0; i < splitsToRead; ++i) {
+            InputSplit split = splits.get((int) ((long) i * splits.size() / splitsToRead));
+            TaskAttemptContext context = new TaskAttemptContextImpl(conf, new TaskAttemptID());
+            RecordReader<?, ?> reader = inputFormat.createRecordReader(split, context);
+            reader.initialize(split, context);
+            List<Text> reservoir = new ArrayList<Text>(perSplit);
+            long records = 0;
+            long seen = 0;
+            try {
+                while (records < maxRecords && reader.nextKeyValue()) {
+                    Object value = reader.getCurrentValue();
+                    if (value instanceof ArchiveReader) {
+                        for (ArchiveRecord r : (ArchiveReader) value) {
+                            seen = offer(reservoir, perSplit, seen, selector.select(r), random);
+                            if (++records == maxRecords) {
+                                break;
+                            }
+                        }
+                    } else if (value instanceof ArchiveRecord) {
+                        seen = offer(reservoir, perSplit, seen, selector.select((ArchiveRecord) value), random);
+                        ++records;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            read += records;
+            samples.addAll(reservoir);
+        }
+        LOG.info("Read " + read + " records from " + splitsToRead + " of " + splits.size() + " splits");
+        return samples;
+    }
+
+    /**
+     * Offers a URL to a reservoir sample of at most size URLs, given the
+     * number of URLs seen before it; returns the new number seen.
+     */
+    private static long offer(List<Text> reservoir, int size, long seen, String url, Random random) {
+        if (url == null) {
+            return seen;
+        }
+        if (reservoir.size() < size) {
+            reservoir.add(new Text(url));
+        } else {
+            long slot = (long) (random.nextDouble() * (seen + 1));
+            if (slot < size) {
+                reservoir.set((int) slot, new Text(url));
+            }
+        }
+        return seen + 1;
+    }
+}
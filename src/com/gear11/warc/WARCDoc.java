@@ -1,21 +1,22 @@
 package com.gear11.warc;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
 import java.util.Arrays;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import javax.xml.stream.XMLInputFactory;
-import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamReader;
 import org.archive.io.ArchiveRecord;
+import org.commoncrawl.warc.HttpResponseHeader;
 import org.apache.log4j.Logger;
 
 
@@ -26,23 +27,30 @@ import org.apache.log4j.Logger;
 public class WARCDoc {
 
     protected static final Logger LOG = Logger.getLogger(WARCDoc.class);
-    protected static final XMLInputFactory factory = XMLInputFactory.newInstance();
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static volatile boolean defaultPrefilter = true;
+    private static final ThreadLocal<byte[]> PREFILTER_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[GeoRssPrefilter.DEFAULT_WINDOW];
+        }
+    };
 
+    protected final byte[] headerBytes;
+    protected Map<String,String> headers;
     protected final int statusCode;
-    protected final Map<String,String> headers = new HashMap<String,String>();
+    protected final long contentLength;
     protected String mimeType;
     protected String charset;
+    protected InputStream body;
     protected BufferedReader reader;
-    protected Set<String> namespaces;
-    protected XMLStreamReader xmlStreamReader;
-    //protected String geoRssNs;
+    protected boolean prefilter = defaultPrefilter;
+    protected boolean prefiltered;
 
     // State captured during parse
     protected boolean isParsed;
     protected boolean _isGeoRSS;
-    protected int geoTagCount;
-    protected Set<Integer> locHashes = new HashSet<Integer>();
-    protected long mostRecentEpochSec = -1;
+    protected FeedExtractor feed;
 
     // MIME types that mean the response is possibly an RSS feed.
     protected static final Set<String> FEED_MIME_TYPES = new HashSet<String>(Arrays.asList(
@@ -51,54 +59,28 @@ public class WARCDoc {
             "application/rss+xml"
     ));
 
-    // Elements that may contain dates
-    protected static final Set<String> DATE_ELS = new HashSet<String>(Arrays.asList(
-            "pubDate",
-            "updated",
-            "published"
-    ));
-
     /**
      * Constructs a WARCDoc wrapper for the given record.
      */
     public WARCDoc(ArchiveRecord r) throws IOException {
-        reader = new BufferedReader(new InputStreamReader(r, "utf-8"));
-
-        // Parse out HTTP response status
-        String line = reader.readLine();
-        String[] segs = line.split(" ");
-        statusCode = Integer.parseInt(segs[1]);
-
-        // Parse headers
-        while ((line = reader.readLine()) != null) {
-            line = line.trim();
-            if (line.length() == 0) { // Line was only whitespace
-                break;
-            }
-            // Parse HTTP header as name: value
-            int n = line.indexOf(':');
-            if (n <= 0) {
-                continue;
-            }
-            String key = line.substring(0, n).trim().toLowerCase();
-            String val = line.substring(n+1).trim();
-            headers.put(key, val);
-            // For content-type, attempt to parse out char set
-            if ("content-type".equals(key)) {
-                n = val.indexOf(';');
-                if (n > 0) {
-                    mimeType = val.substring(0, n);
-                    String extra = val.substring(n+1).trim();
-                    if (extra.startsWith("charset=")) {
-                        charset = extra.substring(8);
-                        // Might need to start over!
-                        //reader = new BufferedReader(new InputStreamReader(r, charset));
-                    }
-                } else {
-                    mimeType = val;
-                }
-            }
-        }
+        this((InputStream) r);
+    }
+
+    /**
+     * Constructs a WARCDoc wrapper for an HTTP response read from the stream.
+     * The status code is -1 if the status line is malformed.
+     */
+    public WARCDoc(InputStream in) throws IOException {
+        // Parsed in a reused per-thread buffer; only the raw header bytes
+        // are kept, for the few callers that look headers up by name
+        HttpResponseHeader header = HttpResponseHeader.forThread();
+        header.parse(in);
+        headerBytes = header.copyHeaderBytes();
+        statusCode = header.getStatusCode();
+        mimeType = header.getMimeType();
+        charset = header.getCharset();
+        contentLength = header.getLong("content-length");
+        body = header.getBody(in);
     }
 
     /**
@@ -112,14 +94,39 @@ public class WARCDoc {
      * Returns the set of header names discovered on the response.
      */
     public Set<String> headerNames() {
-        return headers.keySet();
+        return headers().keySet();
     }
 
     /**
-     * Retrieves the header by (case-insensitive) name
+     * Retrieves the header by (case-insensitive) name.
      */
     public String getHeader(String name) {
-        return headers.get(name.toLowerCase());
+        return headers().get(name.toLowerCase(Locale.ROOT));
+    }
+
+    private Map<String,String> headers() {
+        if (headers == null) {
+            HttpResponseHeader header = new HttpResponseHeader();
+            try {
+                header.parse(new ByteArrayInputStream(headerBytes));
+            } catch (IOException ex) {
+                // Not thrown by a byte array stream
+                throw new IllegalStateException(ex);
+            }
+            headers = new HashMap<String,String>();
+            for (int i = 0; i < header.size(); ++i) {
+                String name = header.getName(i);
+                headers.put(name, header.get(name));
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * Returns the HTTP status code, or -1 if it could not be parsed.
+     */
+    public int getStatusCode() {
+        return statusCode;
     }
 
     /**
@@ -140,34 +147,81 @@ public class WARCDoc {
      * Returns this document's length
      */
     public int getContentLength() {
-        String s = getHeader("content-length");
-        if (s == null) {
-            return -1;
-        }
-        return Integer.parseInt(s);
+        return contentLength > Integer.MAX_VALUE ? -1 : (int) contentLength;
     }
 
     /**
      * Returns a reader for this document's content.
      */
     public BufferedReader getReader() {
-        if (xmlStreamReader != null) {
+        if (feed != null) {
             throw new IllegalStateException("Already started XML parse");
         }
+        if (prefiltered) {
+            throw new IllegalStateException("Content was consumed by the GeoRSS prefilter");
+        }
+        return reader();
+    }
+
+    private BufferedReader reader() {
+        if (reader == null) {
+            reader = new BufferedReader(new InputStreamReader(body, UTF8));
+        }
         return reader;
     }
 
     /**
-     * Returns an XML stream reader for this document's content.
+     * Sets whether new documents scan their raw bytes for GeoRSS markers
+     * before starting an XML parse. On by default.
+     */
+    public static void setDefaultPrefilter(boolean enabled) {
+        defaultPrefilter = enabled;
+    }
+
+    /**
+     * Sets whether this document scans its raw bytes for GeoRSS markers
+     * before starting an XML parse. The GeoRSS results are the same
+     * either way, but a document rejected by the scan can no longer be read.
+     */
+    public void setPrefilter(boolean enabled) {
+        prefilter = enabled;
+    }
+
+    /**
+     * Runs the byte level GeoRSS scan over the start of the content. Returns
+     * false if the document cannot be GeoRSS; otherwise the scanned bytes
+     * are put back in front of the content.
+     */
+    protected boolean passesPrefilter() throws IOException {
+        byte[] buf = PREFILTER_BUFFER.get();
+        int n = 0;
+        int read = 0;
+        while (n < buf.length && (read = body.read(buf, n, buf.length - n)) > 0) {
+            n += read;
+        }
+        if (!GeoRssPrefilter.mightBeGeoRss(buf, n, read < 0)) {
+            prefiltered = true;
+            return false;
+        }
+        body = new SequenceInputStream(new ByteArrayInputStream(Arrays.copyOf(buf, n)), body);
+        return true;
+    }
+
+    /**
+     * Parses this document's content as a feed, once.
      */
-    protected XMLStreamReader getXMLStreamReader() throws XMLStreamException {
-        if (xmlStreamReader == null) {
-            // Must prevent parser from attempting to validate external
-            // DTDs or process may halt.
-            factory.setProperty("javax.xml.stream.supportDTD", false);
-            xmlStreamReader = factory.createXMLStreamReader(reader);
+    protected FeedExtractor extract() throws XMLStreamException {
+        if (feed == null) {
+            if (prefiltered) {
+                throw new IllegalStateException("Content was consumed by the GeoRSS prefilter");
+            }
+            if (reader != null) {
+                throw new IllegalStateException("Content was read through getReader");
+            }
+            feed = new FeedExtractor();
+            feed.extract(body);
         }
-        return xmlStreamReader;
+        return feed;
     }
 
     /**
@@ -175,7 +229,7 @@ public class WARCDoc {
      */
     public int countGeoTags() {
         parseXml();
-        return this.geoTagCount;
+        return _isGeoRSS ? feed.getGeoTagCount() : 0;
     }
 
     /**
@@ -191,12 +245,12 @@ public class WARCDoc {
      */
     public int countLocations() {
         parseXml();
-        return this.locHashes.size();
+        return _isGeoRSS ? feed.getLocationHashes().size() : 0;
     }
 
     public long getUpdatedAt() {
         parseXml();
-        return this.mostRecentEpochSec;
+        return _isGeoRSS ? feed.getUpdatedAt() : -1;
     }
 
     protected synchronized void parseXml() {
@@ -208,83 +262,46 @@ public class WARCDoc {
         if (!this.isFeed()) {
             return;
         }
-        // Determine if this is GeoRSS
-        String geoRssNs = null;
+        // Skip the XML parse for feeds that cannot be GeoRSS, unless
+        // getNamespaces has already parsed the content
         try {
-            for (String ns : getNamespaces()) {
-                if (ns.indexOf("georss") > 0) {
-                    geoRssNs = ns;
-                    break;
-                }
+            if (prefilter && reader == null && feed == null && !passesPrefilter()) {
+                return;
             }
-        } catch (XMLStreamException ex) {
-            // Ignore
-        }
-        this._isGeoRSS = geoRssNs != null;
-        // An optimization--we only care about GeoRSS feeds.  Remove if this changes.
-        if (!this._isGeoRSS) {
+        } catch (IOException ex) {
+            // Reading failed; as below, a failed parse is not GeoRSS
             return;
         }
-        // We have a GeoRSS feed.  Look for update time and locations
+        // A single pass collects the namespaces and, for GeoRSS, the tags and dates
         try {
-            XMLStreamReader reader = getXMLStreamReader();
-            while (reader.hasNext()) {
-                int event = reader.next();
-                switch (event) {
-                    case XMLStreamConstants.START_ELEMENT:
-                        String ns = reader.getNamespaceURI();
-                        if (geoRssNs.equals(ns)) {
-                            String text = reader.getElementText();
-                            //LOG.info("GeoRSS string:  "+text);
-                            locHashes.add(text.hashCode());
-                            ++this.geoTagCount;
-                        }
-                        if (DATE_ELS.contains(reader.getLocalName())) {
-                            String text = reader.getElementText();
-                            //LOG.info("Date string:  "+text);
-                            long epochSec = DateHelper.toEpochSec(text);
-                            this.mostRecentEpochSec = Math.max(this.mostRecentEpochSec, epochSec);
-                        }
-                }
-            }
+            this._isGeoRSS = extract().isGeoRss();
         } catch (XMLStreamException ex) {
             // Ignore
         }
     }
 
-
     /**
      * Parses this archive as XML, until the first element with
-     * one or more namespaces is parsed.
+     * one or more namespaces is parsed, and returns that element's namespaces.
      */
     public Set<String> getNamespaces() throws XMLStreamException {
-        if (namespaces == null) {
-            namespaces = new HashSet<String>();
-            XMLStreamReader reader = getXMLStreamReader();
-            int x = 0;
-            while (x < 100 && reader.hasNext() && namespaces.isEmpty()) {
-                x += 1;
-                int event = reader.next();
-                switch (event) {
-                    case XMLStreamConstants.START_ELEMENT:
-                        int count = reader.getNamespaceCount();
-                        for (int i = 0; i < count; ++i) {
-                            namespaces.add(reader.getNamespaceURI(i));
-                        }
-                }
-            }
-        }
-        return namespaces;
+        return extract().getNamespaces();
     }
 
+    /**
+     * Parses the dates found in RSS and Atom feeds straight from the
+     * characters, without building strings or throwing. Each thread caches
+     * recent results, so a cache miss still boxes a Long and adds a map
+     * entry. Safe for use from several threads.
+     */
     public static class DateHelper {
 
-
-        // RSS:
+        // RSS (RFC 822, with 2 or 4 digit years):
         // http://validator.w3.org/feed/docs/rss2.html
         // <pubDate>Mon, 25 Aug 2014 07:07:58 +0000</pubDate>
+        // <pubDate>Sat, 07 Sep 2002 0:00:01 GMT</pubDate>
         //
-        // Atom:
+        // Atom (RFC 3339):
         // http://tools.ietf.org/html/rfc4287#page-10
         /*
         <updated>2003-12-13T18:30:02Z</updated>
@@ -292,8 +309,34 @@ public class WARCDoc {
         <updated>2003-12-13T18:30:02+01:00</updated>
         <updated>2003-12-13T18:30:02.25+01:00</updated>
         */
-        protected static final SimpleDateFormat RSS_FORMAT = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss Z");
-        protected static final SimpleDateFormat ATOM_FORMAT = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssX");
+
+        private static final String MONTHS = "janfebmaraprmayjunjulaugsepoctnovdec";
+
+        // Zone names and their offsets from UTC in minutes
+        private static final String[] ZONE_NAMES = {
+            "Z", "UT", "UTC", "GMT", "WET", "WEST", "BST", "IST", "CET", "CEST", "MET", "MEST",
+            "EET", "EEST", "MSK", "HKT", "SGT", "CST", "JST", "KST", "AEST", "AEDT", "NZST", "NZDT",
+            "EST", "EDT", "CDT", "MST", "MDT", "PST", "PDT", "AKST", "AKDT", "HST"
+        };
+        private static final int[] ZONE_OFFSETS = {
+            0, 0, 0, 0, 0, 60, 60, 330, 60, 120, 60, 120,
+            120, 180, 180, 480, 480, -360, 540, 540, 600, 660, 720, 780,
+            -300, -240, -300, -420, -360, -480, -420, -540, -480, -600
+        };
+
+        // Feeds repeat the same date strings, so remember the latest few per thread
+        private static final int CACHE_SIZE = 256;
+        private static final ThreadLocal<Map<String,Long>> CACHE = new ThreadLocal<Map<String,Long>>() {
+            @Override
+            protected Map<String,Long> initialValue() {
+                return new LinkedHashMap<String,Long>(CACHE_SIZE * 2, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String,Long> eldest) {
+                        return size() > CACHE_SIZE;
+                    }
+                };
+            }
+        };
 
         /**
          * Attempts to parse some of the various date formats encountered in RSS
@@ -302,69 +345,328 @@ public class WARCDoc {
          * Returns -1 if the date format was not understood.
          */
         public static long toEpochSec(String dateStr) {
-            // RSS:
-            // http://validator.w3.org/feed/docs/rss2.html
-            // Sat, 07 Sep 2002 0:00:01 GMT
-            // <pubDate>Mon, 25 Aug 2014 07:07:58 +0000</pubDate>
-            //
-            // Atom:
-            // http://tools.ietf.org/html/rfc4287#page-10
-            /*
-            <updated>2003-12-13T18:30:02Z</updated>
-            <updated>2003-12-13T18:30:02.25Z</updated>
-            <updated>2003-12-13T18:30:02+01:00</updated>
-            <updated>2003-12-13T18:30:02.25+01:00</updated>
-            */
-            // Invalid date
-            if (dateStr == null || dateStr.length() < 10) {
+            if (dateStr == null) {
                 return -1;
+            }
+            Map<String,Long> cache = CACHE.get();
+            Long cached = cache.get(dateStr);
+            if (cached != null) {
+                return cached;
+            }
+            long epochSec = toEpochSec(dateStr, 0, dateStr.length());
+            cache.put(dateStr, epochSec);
+            return epochSec;
+        }
 
-            // If length is 10, assume YYYY-MM-DD only and fix to midnight
-            } else if (dateStr.length() == 10) { // YYYY-MM-DD only
-                dateStr = dateStr.replace('/', '-');
-                dateStr += "T12:00:00";
-            }
-
-            // Atom format
-            if (dateStr.charAt(10) == 'T') {
-                // Throw out subseconds
-                int n = dateStr.indexOf('.');
-                if (n > 0) {
-                    // Find digits after '.'
-                    int m = n + 1;
-                    for ( ; m < dateStr.length(); ++m) {
-                        if (!Character.isDigit(dateStr.charAt(m))) {
-                            break;
-                        }
-                    }
-                    // Re-append from first non-digit after '.'
-                    if (m < dateStr.length()) {
-                        dateStr  = dateStr.substring(0, n) + dateStr.substring(m);
-                    } else {
-                        dateStr = dateStr.substring(0, n);
-                    }
+        /**
+         * Parses the date in s[start, end). Dates without a time zone are
+         * taken as UTC, and dates without a time as noon UTC.
+         *
+         * Returns -1 if the date format was not understood.
+         */
+        public static long toEpochSec(CharSequence s, int start, int end) {
+            while (start < end && s.charAt(start) <= ' ') {
+                ++start;
+            }
+            while (end > start && s.charAt(end - 1) <= ' ') {
+                --end;
+            }
+            if (end - start >= 10 && digits(s, start, end) == 4
+                    && (s.charAt(start + 4) == '-' || s.charAt(start + 4) == '/')) {
+                return parseIso(s, start, end);
+            }
+            return parseRfc822(s, start, end);
+        }
+
+        /**
+         * Parses YYYY-MM-DD[THH:MM[:SS[.fff]][zone]], also with '/' between
+         * the date fields and a space before the time.
+         */
+        private static long parseIso(CharSequence s, int pos, int end) {
+            char sep = s.charAt(pos + 4);
+            if (digits(s, pos + 5, end) != 2 || s.charAt(pos + 7) != sep || digits(s, pos + 8, end) != 2) {
+                return -1;
+            }
+            int year = number(s, pos, 4);
+            int month = number(s, pos + 5, 2);
+            int day = number(s, pos + 8, 2);
+            pos += 10;
+            if (pos == end) {
+                return toEpochSec(year, month, day, 12, 0, 0, 0);
+            }
+            char c = s.charAt(pos);
+            if (c != 'T' && c != 't' && c != ' ') {
+                return -1;
+            }
+            ++pos;
+            if (digits(s, pos, end) != 2 || pos + 5 > end || s.charAt(pos + 2) != ':' || digits(s, pos + 3, end) != 2) {
+                return -1;
+            }
+            int hour = number(s, pos, 2);
+            int minute = number(s, pos + 3, 2);
+            int second = 0;
+            pos += 5;
+            if (pos < end && s.charAt(pos) == ':') {
+                if (digits(s, pos + 1, end) != 2) {
+                    return -1;
+                }
+                second = number(s, pos + 1, 2);
+                pos += 3;
+                if (pos < end && (s.charAt(pos) == '.' || s.charAt(pos) == ',')) {
+                    // Subseconds are dropped
+                    pos += 1 + digits(s, pos + 1, end);
                 }
-                // Not enough characters for time
-                if (dateStr.length() < 19) {
+            }
+            while (pos < end && s.charAt(pos) == ' ') {
+                ++pos;
+            }
+            int offset = zoneOffset(s, pos, end);
+            if (offset == Integer.MIN_VALUE) {
+                return -1;
+            }
+            return toEpochSec(year, month, day, hour, minute, second, offset);
+        }
+
+        /**
+         * Parses [Day,] D Mon YYYY H:MM[:SS] [zone], also with 2 digit
+         * years, full month names and '-' between the date fields.
+         */
+        private static long parseRfc822(CharSequence s, int pos, int end) {
+            // Day of the week, not checked against the date
+            while (pos < end && isLetter(s.charAt(pos))) {
+                ++pos;
+            }
+            if (pos < end && (s.charAt(pos) == ',' || s.charAt(pos) == '.')) {
+                ++pos;
+            }
+            pos = skipSpaces(s, pos, end);
+
+            int n = digits(s, pos, end);
+            if (n < 1 || n > 2) {
+                return -1;
+            }
+            int day = number(s, pos, n);
+            pos += n;
+            pos = skipSeparators(s, pos, end);
+
+            if (pos + 3 > end) {
+                return -1;
+            }
+            int month = 0;
+            for (int m = 0; m < 12 && month == 0; ++m) {
+                if (equalsIgnoreCase(s, pos, MONTHS, m * 3, 3)) {
+                    month = m + 1;
+                }
+            }
+            if (month == 0) {
+                return -1;
+            }
+            pos += 3;
+            while (pos < end && (isLetter(s.charAt(pos)) || s.charAt(pos) == '.')) {
+                ++pos;
+            }
+            pos = skipSeparators(s, pos, end);
+
+            n = digits(s, pos, end);
+            int year;
+            if (n == 4) {
+                year = number(s, pos, 4);
+            } else if (n == 2) {
+                year = number(s, pos, 2);
+                year += year < 50 ? 2000 : 1900;
+            } else {
+                return -1;
+            }
+            pos += n;
+            pos = skipSpaces(s, pos, end);
+            if (pos == end) {
+                return toEpochSec(year, month, day, 12, 0, 0, 0);
+            }
+
+            n = digits(s, pos, end);
+            if (n < 1 || n > 2 || pos + n >= end || s.charAt(pos + n) != ':') {
+                return -1;
+            }
+            int hour = number(s, pos, n);
+            pos += n + 1;
+            if (digits(s, pos, end) != 2) {
+                return -1;
+            }
+            int minute = number(s, pos, 2);
+            pos += 2;
+            int second = 0;
+            if (pos < end && s.charAt(pos) == ':') {
+                if (digits(s, pos + 1, end) != 2) {
                     return -1;
                 }
-                try {
-                    Date date = ATOM_FORMAT.parse(dateStr);
-                    return date.getTime() / 1000;
-                } catch (ParseException ex) {
-                    //LOG.warn("Parse exception on "+dateStr);
+                second = number(s, pos + 1, 2);
+                pos += 3;
+                if (pos < end && s.charAt(pos) == '.') {
+                    pos += 1 + digits(s, pos + 1, end);
+                }
+            }
+            pos = skipSpaces(s, pos, end);
+
+            // A comment such as "(PDT)" may follow a numeric zone
+            int zoneEnd = end;
+            if (zoneEnd > pos && s.charAt(zoneEnd - 1) == ')') {
+                while (zoneEnd > pos && s.charAt(zoneEnd - 1) != '(') {
+                    --zoneEnd;
+                }
+                if (zoneEnd == pos) {
                     return -1;
                 }
-            // RSS format
+                zoneEnd = skipSpacesBack(s, pos, zoneEnd - 1);
+            }
+            int offset = zoneOffset(s, pos, zoneEnd);
+            if (offset == Integer.MIN_VALUE) {
+                return -1;
+            }
+            return toEpochSec(year, month, day, hour, minute, second, offset);
+        }
+
+        /**
+         * Returns the offset in minutes of the zone in s[pos, end), 0 if
+         * there is none, or Integer.MIN_VALUE if it is not understood.
+         * Understands Z, +HH, +HHMM, +HH:MM and the names in ZONE_NAMES,
+         * optionally followed by an offset as in "GMT+01:00".
+         */
+        private static int zoneOffset(CharSequence s, int pos, int end) {
+            if (pos == end) {
+                return 0;
+            }
+            int offset = 0;
+            char c = s.charAt(pos);
+            if (isLetter(c)) {
+                int nameEnd = pos;
+                while (nameEnd < end && isLetter(s.charAt(nameEnd))) {
+                    ++nameEnd;
+                }
+                int zone = -1;
+                for (int i = 0; i < ZONE_NAMES.length && zone < 0; ++i) {
+                    String name = ZONE_NAMES[i];
+                    if (name.length() == nameEnd - pos && equalsIgnoreCase(s, pos, name, 0, name.length())) {
+                        zone = i;
+                    }
+                }
+                if (zone < 0) {
+                    return Integer.MIN_VALUE;
+                }
+                offset = ZONE_OFFSETS[zone];
+                pos = nameEnd;
+                if (pos == end) {
+                    return offset;
+                }
+                c = s.charAt(pos);
+            }
+            if (c != '+' && c != '-') {
+                return Integer.MIN_VALUE;
+            }
+            ++pos;
+            int n = digits(s, pos, end);
+            int hours;
+            int minutes = 0;
+            if (n == 4) {
+                hours = number(s, pos, 2);
+                minutes = number(s, pos + 2, 2);
+                pos += 4;
+            } else if (n == 2 || n == 1) {
+                hours = number(s, pos, n);
+                pos += n;
+                if (pos < end && s.charAt(pos) == ':') {
+                    if (digits(s, pos + 1, end) != 2) {
+                        return Integer.MIN_VALUE;
+                    }
+                    minutes = number(s, pos + 1, 2);
+                    pos += 3;
+                }
             } else {
-                try {
-                    Date date = RSS_FORMAT.parse(dateStr);
-                    return date.getTime() / 1000;
-                } catch (ParseException ex) {
-                    //LOG.warn("Parse exception on "+dateStr);
-                    return -1;
+                return Integer.MIN_VALUE;
+            }
+            if (pos != end || hours > 18 || minutes > 59) {
+                return Integer.MIN_VALUE;
+            }
+            int sign = c == '-' ? -1 : 1;
+            return offset + sign * (hours * 60 + minutes);
+        }
+
+        private static long toEpochSec(int year, int month, int day, int hour, int minute, int second,
+                int offsetMinutes) {
+            if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                    || hour > 24 || minute > 59 || second > 60 || (hour == 24 && (minute > 0 || second > 0))) {
+                return -1;
+            }
+            // Days since 1970-01-01 in the proleptic Gregorian calendar
+            int y = month <= 2 ? year - 1 : year;
+            long era = (y >= 0 ? y : y - 399) / 400;
+            long yearOfEra = y - era * 400;
+            long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+            long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+            long days = era * 146097 + dayOfEra - 719468;
+            return days * 86400 + hour * 3600 + minute * 60 + second - offsetMinutes * 60L;
+        }
+
+        private static int daysInMonth(int year, int month) {
+            if (month == 2) {
+                boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+                return leap ? 29 : 28;
+            }
+            return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+        }
+
+        /**
+         * Returns the number of consecutive ASCII digits at pos.
+         */
+        private static int digits(CharSequence s, int pos, int end) {
+            int i = pos;
+            while (i < end && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+                ++i;
+            }
+            return i - pos;
+        }
+
+        private static int number(CharSequence s, int pos, int n) {
+            int value = 0;
+            for (int i = pos; i < pos + n; ++i) {
+                value = value * 10 + s.charAt(i) - '0';
+            }
+            return value;
+        }
+
+        private static int skipSpaces(CharSequence s, int pos, int end) {
+            while (pos < end && s.charAt(pos) <= ' ') {
+                ++pos;
+            }
+            return pos;
+        }
+
+        private static int skipSpacesBack(CharSequence s, int start, int end) {
+            while (end > start && s.charAt(end - 1) <= ' ') {
+                --end;
+            }
+            return end;
+        }
+
+        private static int skipSeparators(CharSequence s, int pos, int end) {
+            while (pos < end && (s.charAt(pos) <= ' ' || s.charAt(pos) == '-')) {
+                ++pos;
+            }
+            return pos;
+        }
+
+        private static boolean isLetter(char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+        }
+
+        private static boolean equalsIgnoreCase(CharSequence s, int pos, String t, int tpos, int n) {
+            for (int i = 0; i < n; ++i) {
+                char a = s.charAt(pos + i);
+                char b = t.charAt(tpos + i);
+                if (a != b && (a | 0x20) != (b | 0x20)) {
+                    return false;
                 }
             }
+            return true;
         }
     }
 }
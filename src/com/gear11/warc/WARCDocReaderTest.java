@@ -6,6 +6,8 @@ import javax.xml.stream.XMLStreamException;
 import org.archive.io.ArchiveReader;
 import org.archive.io.ArchiveRecord;
 import org.archive.io.warc.WARCReaderFactory;
+import org.commoncrawl.warc.MemberArchiveReader;
+import org.commoncrawl.warc.ParallelMemberSource;
 
 /**
  * An example of processing a WARC file to discover GeoRSS, based on
@@ -23,9 +25,16 @@ public class WARCDocReaderTest {
         } else {
             fn = "data/CC-MAIN-20131204131715-00000-ip-10-33-133-15.ec2.internal.warc.gz";
         }
+        // Optionally inflate the file's gzip members on several threads
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 0;
 		FileInputStream is = new FileInputStream(fn);
-		// The file name identifies the ArchiveReader and indicates if it should be decompressed
-		ArchiveReader ar = WARCReaderFactory.get(fn, is, true);
+		ArchiveReader ar;
+        if (threads > 0) {
+            ar = new MemberArchiveReader(fn, new ParallelMemberSource(is, threads, threads * 4));
+        } else {
+            // The file name identifies the ArchiveReader and indicates if it should be decompressed
+            ar = WARCReaderFactory.get(fn, is, true);
+        }
 		// Once we have an ArchiveReader, we can work through each of the records it contains
 		int i = 0;
 		for(ArchiveRecord r : ar) {
@@ -41,6 +50,7 @@ public class WARCDocReaderTest {
                 }
             }
 		}
+        ar.close();
         System.out.println(""+i+" records processed");
 	}
 }
\ No newline at end of file
@@ -0,0 +1,205 @@
+package org.commoncrawl.examples;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.commoncrawl.warc.JsonPathExtractor;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Checks {@link JsonPathExtractor} against org.json on a set of WAT-like
+ * envelopes. Each path must give the string org.json finds there, no value
+ * where org.json finds none or a non-string, and an error where org.json
+ * rejects the document, unless the table gives the extractor's results for
+ * the inputs where it differs on purpose. Every envelope is read once in
+ * one go and once a byte at a time, with one extractor reused throughout.
+ */
+public class JsonPathExtractorTest {
+	private static final String[] PATHS = {
+		"Envelope.Payload-Metadata.HTTP-Response-Metadata.Headers.Server",
+		"Envelope.Payload-Metadata.HTTP-Response-Metadata.Headers.Content-Type",
+		"Envelope.WARC-Header-Metadata.WARC-Target-URI",
+	};
+
+	private static final String AS_ORG_JSON = "\u0000as org.json";
+	private static final String ERROR = "\u0000error";
+	private static final String URI = "http://example.com/a?b=c&d=\u00e9";
+
+	// Envelope, and where the extractor differs from org.json on purpose, its value for each path
+	private static final String[][] ENVELOPES = {
+		{ envelope("\"Server\":\"Apache\",\"Content-Type\":\"text/html\""), AS_ORG_JSON },
+		{ envelope("\"Content-Type\":\"text/html\",\"Server\":\"nginx/1.4.6 (Ubuntu)\""), AS_ORG_JSON },
+		// Missing Server header, Headers or metadata
+		{ envelope("\"Content-Type\":\"text/html\""), AS_ORG_JSON },
+		{ "{\"Envelope\":{\"Payload-Metadata\":{\"HTTP-Response-Metadata\":{}}}}", AS_ORG_JSON },
+		{ "{\"Envelope\":{}}", AS_ORG_JSON },
+		{ "{}", AS_ORG_JSON },
+		// Non-string values
+		{ envelope("\"Server\":42"), AS_ORG_JSON },
+		{ envelope("\"Server\":-1.5e3"), AS_ORG_JSON },
+		{ envelope("\"Server\":null"), AS_ORG_JSON },
+		{ envelope("\"Server\":true"), AS_ORG_JSON },
+		{ envelope("\"Server\":[\"Apache\"]"), AS_ORG_JSON },
+		{ envelope("\"Server\":{\"name\":\"Apache\"}"), AS_ORG_JSON },
+		{ "{\"Envelope\":{\"Payload-Metadata\":\"none\"}}", AS_ORG_JSON },
+		{ "{\"Envelope\":{\"Payload-Metadata\":[{\"HTTP-Response-Metadata\":{\"Headers\":{\"Server\":\"x\"}}}]}}",
+				AS_ORG_JSON },
+		// Escapes in values and keys
+		{ envelope("\"Server\":\"a\\\"b\\\\c\\/d\\te\\nf\\u00e9g\""), AS_ORG_JSON },
+		{ envelope("\"Ser\\u0076er\":\"escaped key\""), AS_ORG_JSON },
+		{ envelope("\"Server\\u0000\":\"not the key\""), AS_ORG_JSON },
+		{ envelope("\"Server\":\"\\ud83d\\ude00 surrogate pair\""), AS_ORG_JSON },
+		{ envelope("\"Server\":\"caf\u00e9 \u4e2d\u6587 \ud83d\ude00\""), AS_ORG_JSON },
+		{ envelope("\"Server\":\"\""), AS_ORG_JSON },
+		// Skipped values holding quotes and brackets, before and around the path
+		{ "{\"Envelope\":{\"Links\":[{\"url\":\"a]}\\\"{[\"},[1,[2,{}]]],\"Payload-Metadata\":"
+				+ "{\"HTTP-Response-Metadata\":{\"Headers\":{\"X\":\"}\",\"Server\":\"after links\"}}}}}", AS_ORG_JSON },
+		{ "{\"Headers\":{\"Server\":\"wrong level\"},\"Envelope\":{\"Payload-Metadata\":"
+				+ "{\"HTTP-Response-Metadata\":{\"Headers\":{\"Server\":\"right level\"}}}}}", AS_ORG_JSON },
+		{ " \n{ \"Envelope\" : { \"Payload-Metadata\" : { \"HTTP-Response-Metadata\" : { \"Headers\" :\t"
+				+ "{ \"Server\" : \"spaced\" } } } } } ", AS_ORG_JSON },
+		// Long keys and values, past the initial buffers and the read chunk
+		{ envelope("\"" + repeat("K", 200) + "\":\"" + repeat("v", 20000) + "\",\"Server\":\"" + repeat("s", 10000) + "\""),
+				AS_ORG_JSON },
+		// Duplicate keys: org.json rejects the document, the extractor takes the first
+		{ envelope("\"Server\":\"first\",\"Server\":\"second\""), "first", null, URI },
+		// Reading stops once every path is found, so later errors go unseen
+		{ "{\"Envelope\":{\"WARC-Header-Metadata\":{\"WARC-Target-URI\":\"http://example.com/\"},"
+				+ "\"Payload-Metadata\":{\"HTTP-Response-Metadata\":{\"Headers\":{\"Server\":\"Apache\","
+				+ "\"Content-Type\":\"text/html\"}}}},\"Links\":[oops",
+				"Apache", "text/html", "http://example.com/" },
+		// Malformed
+		{ envelope("\"Server\":\"unterminated"), AS_ORG_JSON },
+		{ envelope("\"Server\" \"Apache\""), AS_ORG_JSON },
+		{ envelope("\"Server\":\"Apache\" \"Content-Type\":\"text/html\""), AS_ORG_JSON },
+		{ envelope("\"Server\":\"bad \\u12g4 escape\""), AS_ORG_JSON },
+		{ "[\"Envelope\"]", AS_ORG_JSON },
+		{ "not json", AS_ORG_JSON },
+		{ "", AS_ORG_JSON },
+		// The extractor is strict where org.json is lenient
+		{ "{Envelope:{\"Payload-Metadata\":{\"HTTP-Response-Metadata\":{\"Headers\":{\"Server\":\"Apache\"}}}}}",
+				ERROR, ERROR, ERROR },
+		{ envelope("\"Server\":\"lone \\ud83d high surrogate\""), ERROR, ERROR, ERROR },
+		{ envelope("\"Server\":\"lone \\ude00 low surrogate\""), ERROR, ERROR, ERROR },
+	};
+
+	public static void main(String[] args) throws IOException {
+		JsonPathExtractor extractor = new JsonPathExtractor(PATHS);
+		int checked = 0;
+		int mismatches = 0;
+		for (String[] row : ENVELOPES) {
+			String json = row[0];
+			String[] expected = new String[PATHS.length];
+			for (int i = 0; i < PATHS.length; ++i) {
+				expected[i] = row[1] == AS_ORG_JSON ? orgJson(json, PATHS[i]) : row[i + 1];
+			}
+			for (int oneByte = 0; oneByte < 2; ++oneByte) {
+				String[] actual = extract(extractor, json, oneByte == 1);
+				++checked;
+				for (int i = 0; i < PATHS.length; ++i) {
+					if (!same(expected[i], actual[i])) {
+						++mismatches;
+						System.out.println("MISMATCH " + abbreviate(json) + (oneByte == 1 ? " (byte at a time)" : "")
+								+ " " + PATHS[i] + ": expected " + describe(expected[i]) + " got " + describe(actual[i]));
+					}
+				}
+			}
+		}
+		System.out.println(checked + " extractions checked, " + mismatches + " mismatches");
+		if (mismatches > 0) {
+			System.exit(1);
+		}
+	}
+
+	private static String[] extract(JsonPathExtractor extractor, String json, boolean oneByte) {
+		String[] values = new String[PATHS.length];
+		try {
+			InputStream in = new ByteArrayInputStream(json.getBytes("UTF-8"));
+			if (oneByte) {
+				in = new OneByteInputStream(in);
+			}
+			extractor.extract(in);
+			for (int i = 0; i < PATHS.length; ++i) {
+				values[i] = extractor.getString(i);
+			}
+		} catch (IOException ex) {
+			for (int i = 0; i < PATHS.length; ++i) {
+				values[i] = ERROR;
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Returns the string at the path as org.json sees it, null if there is
+	 * none or it is not a string, or ERROR if the document is rejected.
+	 */
+	private static String orgJson(String json, String path) {
+		Object value;
+		try {
+			value = new JSONObject(json);
+		} catch (JSONException ex) {
+			return ERROR;
+		} catch (NumberFormatException ex) {
+			// Thrown for a malformed unicode escape
+			return ERROR;
+		}
+		for (String key : path.split("\\.")) {
+			if (!(value instanceof JSONObject)) {
+				return null;
+			}
+			value = ((JSONObject) value).opt(key);
+		}
+		return value instanceof String ? (String) value : null;
+	}
+
+	private static String envelope(String headers) {
+		return "{\"Envelope\":{\"Format\":\"WARC\",\"WARC-Header-Metadata\":{\"WARC-Type\":\"response\","
+				+ "\"WARC-Target-URI\":\"http://example.com/a?b=c&d=\\u00e9\"},\"Payload-Metadata\":{"
+				+ "\"Actual-Content-Type\":\"application/http; msgtype=response\",\"HTTP-Response-Metadata\":{"
+				+ "\"Response-Message\":{\"Status\":\"200\",\"Version\":\"HTTP/1.1\"},\"Headers\":{" + headers
+				+ "},\"HTML-Metadata\":{\"Links\":[{\"path\":\"A@/href\",\"url\":\"/\"}]}}}}}";
+	}
+
+	private static boolean same(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	private static String describe(String value) {
+		return value == null ? "nothing" : value == ERROR ? "an error" : "\"" + abbreviate(value) + "\"";
+	}
+
+	private static String abbreviate(String s) {
+		return s.length() > 80 ? s.substring(0, 77) + "..." : s;
+	}
+
+	private static String repeat(String s, int n) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < n; ++i) {
+			sb.append(s);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Hands out one byte per read, so every buffer boundary is crossed.
+	 */
+	private static class OneByteInputStream extends InputStream {
+		private final InputStream in;
+
+		OneByteInputStream(InputStream in) {
+			this.in = in;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return in.read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return len == 0 ? 0 : in.read(b, off, 1);
+		}
+	}
+}
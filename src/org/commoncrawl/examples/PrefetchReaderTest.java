@@ -0,0 +1,148 @@
+package org.commoncrawl.examples;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.math.BigInteger;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.archive.io.ArchiveReader;
+import org.archive.io.ArchiveRecord;
+import org.archive.io.warc.WARCReaderFactory;
+import org.commoncrawl.warc.PrefetchingInputStream;
+import org.commoncrawl.warc.PrefetchingInputStream.HttpRangeSource;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Reads a local WARC file over HTTP through a {@link PrefetchingInputStream},
+ * from a local stand-in for S3 that answers Range requests slowly and drops
+ * some of its connections part way, and checks that the records and their
+ * payloads match a direct read of the file. Prints MISMATCH and exits
+ * non-zero on a difference.
+ *
+ * Usage: PrefetchReaderTest file.warc.gz [parts [part-size [latency-ms [fail-every]]]]
+ *
+ * Each read is done twice: with one part at a time, like a single
+ * sequential GET, and with the given number of parts in flight.
+ */
+public class PrefetchReaderTest {
+	public static void main(String[] args) throws Exception {
+		final File file = new File(args[0]);
+		int parts = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		int partSize = args.length > 2 ? Integer.parseInt(args[2]) : 1024 * 1024;
+		final long latency = args.length > 3 ? Long.parseLong(args[3]) : 50;
+		final int failEvery = args.length > 4 ? Integer.parseInt(args[4]) : 7;
+
+		String expected = summarize(WARCReaderFactory.get(file.getName(), new FileInputStream(file), true));
+		System.out.println("Direct read: " + expected);
+
+		// The stand-in server: every failEvery-th request sends half its bytes and hangs up
+		final AtomicInteger requests = new AtomicInteger();
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				int request = requests.incrementAndGet();
+				long length = file.length();
+				long first = 0;
+				long last = length - 1;
+				String range = exchange.getRequestHeaders().getFirst("Range");
+				if (range != null && range.startsWith("bytes=")) {
+					String[] bounds = range.substring(6).split("-");
+					first = Long.parseLong(bounds[0]);
+					if (bounds.length > 1) {
+						last = Math.min(last, Long.parseLong(bounds[1]));
+					}
+				}
+				try {
+					Thread.sleep(latency);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+				byte[] body = new byte[(int) (last - first + 1)];
+				RandomAccessFile raf = new RandomAccessFile(file, "r");
+				try {
+					raf.seek(first);
+					raf.readFully(body);
+				} finally {
+					raf.close();
+				}
+				exchange.getResponseHeaders().set("Content-Range", "bytes " + first + "-" + last + "/" + length);
+				exchange.sendResponseHeaders(range != null ? 206 : 200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				boolean fail = failEvery > 0 && request % failEvery == 0;
+				out.write(body, 0, fail ? body.length / 2 : body.length);
+				out.flush();
+				// Closing the exchange short of the declared length drops the connection
+				exchange.close();
+			}
+		});
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+		URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/" + file.getName());
+		System.out.println("Serving " + file + " at " + url);
+
+		int mismatches = 0;
+		try {
+			for (int n : new int[] { 1, parts }) {
+				String actual = read(url, file, n, partSize, requests);
+				if (!expected.equals(actual)) {
+					++mismatches;
+					System.out.println("MISMATCH " + n + " part(s): expected " + expected + " got " + actual);
+				}
+			}
+		} finally {
+			server.stop(0);
+		}
+		System.exit(mismatches > 0 ? 1 : 0);
+	}
+
+	private static String read(URL url, File file, int parts, int partSize, AtomicInteger requests) throws IOException {
+		requests.set(0);
+		long start = System.currentTimeMillis();
+		InputStream in = new PrefetchingInputStream(new HttpRangeSource(url), 0, file.length(), parts, partSize, parts * 2, 3);
+		// The file name identifies the ArchiveReader and indicates if it should be decompressed
+		String summary = summarize(WARCReaderFactory.get(file.getName(), in, true));
+		System.out.println(parts + " part(s) of " + partSize + " bytes: " + summary + ", " + requests.get()
+				+ " requests in " + (System.currentTimeMillis() - start) + "ms");
+		return summary;
+	}
+
+	/**
+	 * Reads every record and returns the record count, payload bytes and a
+	 * digest of the payloads.
+	 */
+	private static String summarize(ArchiveReader ar) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IOException(ex);
+		}
+		int records = 0;
+		long bytes = 0;
+		byte[] buffer = new byte[64 * 1024];
+		try {
+			for (ArchiveRecord r : ar) {
+				int n;
+				while ((n = r.read(buffer)) > 0) {
+					digest.update(buffer, 0, n);
+					bytes += n;
+				}
+				++records;
+			}
+		} finally {
+			ar.close();
+		}
+		return records + " records, " + bytes + " payload bytes, md5 " + new BigInteger(1, digest.digest()).toString(16);
+	}
+}
@@ -4,6 +4,7 @@ import java.io.IOException;
 import org.archive.io.ArchiveReader;
 import org.archive.io.ArchiveRecord;
 import org.archive.io.warc.WARCReaderFactory;
+import org.commoncrawl.warc.PayloadBuffer;
 import org.jets3t.service.S3Service;
 import org.jets3t.service.S3ServiceException;
 import org.jets3t.service.impl.rest.httpclient.RestS3Service;
@@ -29,6 +30,7 @@ public class S3ReaderTest {
 		
 		// Once we have an ArchiveReader, we can work through each of the records it contains
 		int i = 0;
+		PayloadBuffer buffer = new PayloadBuffer(PayloadBuffer.DEFAULT_MAX_BYTES);
 		for(ArchiveRecord r : ar) {
 			// The header file contains information such as the type of record, size, creation time, and URL
 			System.out.println("Header: " + r.getHeader());
@@ -36,13 +38,11 @@ public class S3ReaderTest {
 			System.out.println();
 			
 			// If we want to read the contents of the record, we can use the ArchiveRecord as an InputStream
-			// Create a byte array that is as long as all the record's stated length
-			byte[] rawData = new byte[r.available()];
-			r.read(rawData);
-			// Note: potential optimization would be to have a large buffer only allocated once
+			// The buffer is allocated once and reused; records over its maximum are only partly read into it
+			buffer.read(r);
 			
-			// Why don't we convert it to a string and print the start of it? Let's hope it's text!
-			String content = new String(rawData);
+			// Why don't we convert the start of it to a string and print it? Let's hope it's text!
+			String content = new String(buffer.getBytes(), 0, Math.min(buffer.getLength(), 2048));
 			System.out.println(content.substring(0, Math.min(500, content.length())));
 			System.out.println((content.length() > 500 ? "..." : ""));
 			
@@ -0,0 +1,117 @@
+package org.commoncrawl.examples;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.archive.io.ArchiveReader;
+import org.archive.io.ArchiveRecord;
+import org.commoncrawl.warc.WARCSplitInput;
+
+/**
+ * Reads a WARC file whole and then cut into splits through
+ * {@link WARCSplitInput}, and checks that the splits, realigned to gzip
+ * members, zstd frames or uncompressed records, together hold the same
+ * records and payloads as the whole file. Prints MISMATCH and exits
+ * non-zero on a difference, or if the realigned splits overlap or leave
+ * gaps.
+ *
+ * Usage: SplitReaderTest file.warc[.gz|.zst] [splits ...]
+ *
+ * The file is read as 2, 3, 7 and 16 splits of equal size unless split
+ * counts are given. Run it over a gzip, a zstd and an uncompressed file to
+ * cover each way of finding a record boundary.
+ */
+public class SplitReaderTest {
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		Path path = new Path(args[0]);
+		FileSystem fs = path.getFileSystem(conf);
+		long length = fs.getFileStatus(path).getLen();
+		int[] counts = { 2, 3, 7, 16 };
+		if (args.length > 1) {
+			counts = new int[args.length - 1];
+			for (int i = 1; i < args.length; ++i) {
+				counts[i - 1] = Integer.parseInt(args[i]);
+			}
+		}
+
+		String expected = read(path, length, 1, conf);
+		System.out.println("Whole file: " + expected);
+
+		int mismatches = 0;
+		for (int n : counts) {
+			String actual;
+			try {
+				actual = read(path, length, n, conf);
+			} catch (IOException ex) {
+				actual = ex.toString();
+			}
+			System.out.println(n + " splits: " + actual);
+			if (!expected.equals(actual)) {
+				++mismatches;
+				System.out.println("MISMATCH " + n + " splits: expected " + expected + " got " + actual);
+			}
+		}
+		System.exit(mismatches > 0 ? 1 : 0);
+	}
+
+	/**
+	 * Reads the file as n splits of about equal size and returns the record
+	 * count, payload bytes and a digest of the payloads over all of them.
+	 */
+	private static String read(Path path, long length, int n, Configuration conf) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IOException(ex);
+		}
+		int records = 0;
+		long bytes = 0;
+		long next = 0;
+		Object format = null;
+		byte[] buffer = new byte[64 * 1024];
+		long splitSize = (length + n - 1) / n;
+		for (long start = 0; start < length; start += splitSize) {
+			FileSplit split = new FileSplit(path, start, Math.min(splitSize, length - start), null);
+			WARCSplitInput input = new WARCSplitInput(split, conf);
+			try {
+				format = input.getFormat();
+				if (input.isEmpty()) {
+					continue;
+				}
+				// Each record must be owned by exactly one split
+				if (input.getStart() != next) {
+					throw new IOException("Split at " + start + " starts at " + input.getStart() + ", not " + next);
+				}
+				next = input.getEnd();
+				ArchiveReader ar = input.openArchiveReader();
+				try {
+					for (ArchiveRecord r : ar) {
+						int k;
+						while ((k = r.read(buffer)) > 0) {
+							digest.update(buffer, 0, k);
+							bytes += k;
+						}
+						++records;
+					}
+				} finally {
+					ar.close();
+				}
+			} finally {
+				input.close();
+			}
+		}
+		if (next != length) {
+			throw new IOException("Splits end at " + next + ", not at the end of the file " + length);
+		}
+		return format + ", " + records + " records, " + bytes + " payload bytes, md5 "
+				+ new BigInteger(1, digest.digest()).toString(16);
+	}
+}
@@ -2,10 +2,10 @@ package org.commoncrawl.examples;
 import java.io.FileInputStream;
 import java.io.IOException;
 
-import org.apache.commons.io.IOUtils;
 import org.archive.io.ArchiveReader;
 import org.archive.io.ArchiveRecord;
 import org.archive.io.warc.WARCReaderFactory;
+import org.commoncrawl.warc.PayloadBuffer;
 
 /**
  * A raw example of how to process a WARC file using the org.archive.io package.
@@ -27,6 +27,7 @@ public class WARCReaderTest {
 		
 		// Once we have an ArchiveReader, we can work through each of the records it contains
 		int i = 0;
+		PayloadBuffer buffer = new PayloadBuffer(PayloadBuffer.DEFAULT_MAX_BYTES);
 		for(ArchiveRecord r : ar) {
 			// The header file contains information such as the type of record, size, creation time, and URL
 			System.out.println(r.getHeader());
@@ -34,11 +35,11 @@ public class WARCReaderTest {
 			System.out.println();
 			
 			// If we want to read the contents of the record, we can use the ArchiveRecord as an InputStream
-			// Create a byte array that is as long as the record's stated length
-			byte[] rawData = IOUtils.toByteArray(r, r.available());
+			// The buffer is allocated once and reused; records over its maximum are only partly read into it
+			buffer.read(r);
 			
-			// Why don't we convert it to a string and print the start of it? Let's hope it's text!
-			String content = new String(rawData);
+			// Why don't we convert the start of it to a string and print it? Let's hope it's text!
+			String content = new String(buffer.getBytes(), 0, Math.min(buffer.getLength(), 2048));
 			System.out.println(content.substring(0, Math.min(500, content.length())));
 			System.out.println((content.length() > 500 ? "..." : ""));
 			
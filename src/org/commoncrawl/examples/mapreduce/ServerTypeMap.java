@@ -1,16 +1,17 @@
 package org.commoncrawl.examples.mapreduce;
 
-import java.io.IOException;
+import java.io.InputStream;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
-import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.log4j.Logger;
-import org.archive.io.ArchiveReader;
-import org.archive.io.ArchiveRecord;
-import org.json.JSONException;
-import org.json.JSONObject;
+import org.archive.io.ArchiveRecordHeader;
+import org.commoncrawl.warc.JsonPathExtractor;
+import org.commoncrawl.warc.ParallelArchiveMapper;
+import org.commoncrawl.warc.ParallelArchiveMapper.Output;
+import org.commoncrawl.warc.ParallelArchiveMapper.RecordProcessor;
+import org.commoncrawl.warc.StageTimer;
+import org.commoncrawl.warc.StageTimer.Stage;
 
 public class ServerTypeMap {
 	private static final Logger LOG = Logger.getLogger(ServerTypeMap.class);
@@ -20,37 +21,49 @@ public class ServerTypeMap {
 		EXCEPTIONS
 	}
 
-	protected static class ServerMapper extends Mapper<Text, ArchiveReader, Text, LongWritable> {
+	protected static class ServerMapper extends ParallelArchiveMapper<Text, LongWritable> {
+		@Override
+		protected boolean accept(ArchiveRecordHeader header, Output<Text, LongWritable> out) {
+			// Skip any records that are not JSON
+			return "application/json".equals(header.getMimetype());
+		}
+
+		@Override
+		protected RecordProcessor<Text, LongWritable> createProcessor(Context context) {
+			return new ServerProcessor();
+		}
+	}
+
+	protected static class ServerProcessor extends RecordProcessor<Text, LongWritable> {
+		// The Server header of the HTTP response the WAT record describes
+		private static final String SERVER_PATH = "Envelope.Payload-Metadata.HTTP-Response-Metadata.Headers.Server";
+		// Streams over the JSON, skipping everything that is not on the path
+		private final JsonPathExtractor extractor = new JsonPathExtractor(SERVER_PATH);
 		private Text outKey = new Text();
 		private LongWritable outVal = new LongWritable(1);
 
 		@Override
-		public void map(Text key, ArchiveReader value, Context context) throws IOException {
-			for (ArchiveRecord r : value) {
-				// Skip any records that are not JSON
-				if (!r.getHeader().getMimetype().equals("application/json")) {
-					continue;
-				}
-				try {
-					context.getCounter(MAPPERCOUNTER.RECORDS_IN).increment(1);
-					// Convenience function that reads the full message into a raw byte array
-					byte[] rawData = IOUtils.toByteArray(r, r.available());
-					String content = new String(rawData);
-					JSONObject json = new JSONObject(content);
-					try {
-						String server = json.getJSONObject("Envelope").getJSONObject("Payload-Metadata").getJSONObject("HTTP-Response-Metadata").getJSONObject("Headers").getString("Server");
-						outKey.set(server);
-						context.write(outKey, outVal);
-					} catch (JSONException ex) {
-						// If we reach here, the JSON object didn't have the header we were looking for
-						// There are likely better ways to check for json["Envelope"]["Payload-Metadata"][...] but this is concise
-					}
-				}
-				catch (Exception ex) {
-					LOG.error("Caught Exception", ex);
-					context.getCounter(MAPPERCOUNTER.EXCEPTIONS).increment(1);
+		public void process(ArchiveRecordHeader header, InputStream payload, Output<Text, LongWritable> out) {
+			StageTimer timer = out.getTimer();
+			try {
+				out.increment(MAPPERCOUNTER.RECORDS_IN, 1);
+				long start = timer.start();
+				int found = extractor.extract(payload);
+				timer.stop(Stage.PARSE, start);
+				if (found > 0) {
+					start = timer.start();
+					outKey.set(extractor.getBytes(0), 0, extractor.getLength(0));
+					out.write(outKey, outVal);
+					timer.stop(Stage.EMIT, start);
+				} else {
+					// The JSON object didn't have the header we were looking for
+					out.increment(MAPPERCOUNTER.NO_SERVER, 1);
 				}
 			}
+			catch (Exception ex) {
+				out.logError(LOG, header, ex);
+				out.increment(MAPPERCOUNTER.EXCEPTIONS, 1);
+			}
 		}
 	}
 }
@@ -1,16 +1,20 @@
 package org.commoncrawl.examples.mapreduce;
 
 import java.io.IOException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.InputStream;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
-import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.log4j.Logger;
-import org.archive.io.ArchiveReader;
-import org.archive.io.ArchiveRecord;
+import org.archive.io.ArchiveRecordHeader;
+import org.commoncrawl.warc.HtmlTagScanner;
+import org.commoncrawl.warc.HttpResponseHeader;
+import org.commoncrawl.warc.LongCountAggregator;
+import org.commoncrawl.warc.ParallelArchiveMapper;
+import org.commoncrawl.warc.ParallelArchiveMapper.Output;
+import org.commoncrawl.warc.ParallelArchiveMapper.RecordProcessor;
+import org.commoncrawl.warc.StageTimer;
+import org.commoncrawl.warc.StageTimer.Stage;
 
 public class TagCounterMap {
 	private static final Logger LOG = Logger.getLogger(TagCounterMap.class);
@@ -19,53 +23,68 @@ public class TagCounterMap {
 		EXCEPTIONS
 	}
 
-	protected static class TagCounterMapper extends Mapper<Text, ArchiveReader, Text, LongWritable> {
-		private Text outKey = new Text();
-		private LongWritable outVal = new LongWritable(1);
-		// The HTML regular expression is case insensitive (?i), avoids closing tags (?!/),
-		// tries to find just the tag name before any spaces, and then consumes any other attributes.
-		private static final String HTML_TAG_PATTERN = "(?i)<(?!/)([^\\s>]+)([^>]*)>";
-		private Pattern patternTag;
-		private Matcher matcherTag;
+	protected static class TagCounterMapper extends ParallelArchiveMapper<Text, LongWritable> {
+		@Override
+		protected boolean accept(ArchiveRecordHeader header, Output<Text, LongWritable> out) {
+			LOG.debug(header.getUrl() + " -- " + header.getContentLength());
+			// We're only interested in processing the responses, not requests or metadata
+			return "application/http; msgtype=response".equals(header.getMimetype());
+		}
+
+		@Override
+		protected RecordProcessor<Text, LongWritable> createProcessor(Context context) {
+			return new TagCounterProcessor(new LongCountAggregator(context.getConfiguration()));
+		}
+	}
+
+	protected static class TagCounterProcessor extends RecordProcessor<Text, LongWritable> {
+		// Tag counts are summed here and written once per tag per flush
+		private final LongCountAggregator counts;
+		// Scans the body in chunks for start tag names, without regular expressions or Strings
+		private final HtmlTagScanner scanner = new HtmlTagScanner();
+
+		public TagCounterProcessor(LongCountAggregator counts) {
+			this.counts = counts;
+		}
 
 		@Override
-		public void map(Text key, ArchiveReader value, Context context) throws IOException {
-			// Compile the regular expression once as it will be used continuously
-			patternTag = Pattern.compile(HTML_TAG_PATTERN);
-			
-			for (ArchiveRecord r : value) {
-				try {
-					LOG.debug(r.getHeader().getUrl() + " -- " + r.available());
-					// We're only interested in processing the responses, not requests or metadata
-					if (r.getHeader().getMimetype().equals("application/http; msgtype=response")) {
-						// Convenience function that reads the full message into a raw byte array
-						byte[] rawData = IOUtils.toByteArray(r, r.available());
-						String content = new String(rawData);
-						// The HTTP header gives us valuable information about what was received during the request
-						String headerText = content.substring(0, content.indexOf("\r\n\r\n"));
-						
-						// In our task, we're only interested in text/html, so we can be a little lax
-						// TODO: Proper HTTP header parsing + don't trust headers
-						if (headerText.contains("Content-Type: text/html")) {
-							context.getCounter(MAPPERCOUNTER.RECORDS_IN).increment(1);
-							// Only extract the body of the HTTP response when necessary
-							// Due to the way strings work in Java, we don't use any more memory than before
-							String body = content.substring(content.indexOf("\r\n\r\n") + 4);
-							// Process all the matched HTML tags found in the body of the document
-							matcherTag = patternTag.matcher(body);
-							while (matcherTag.find()) {
-								String tagName = matcherTag.group(1);
-								outKey.set(tagName.toLowerCase());
-								context.write(outKey, outVal);
-							}
-						}
+		public void process(ArchiveRecordHeader header, InputStream payload, Output<Text, LongWritable> out)
+				throws IOException, InterruptedException {
+			StageTimer timer = out.getTimer();
+			try {
+				// The HTTP header gives us valuable information about what was received during the request
+				long start = timer.start();
+				HttpResponseHeader http = HttpResponseHeader.forThread();
+				http.parse(payload);
+				timer.stop(Stage.HTTP_HEADER, start);
+
+				// In our task, we're only interested in text/html
+				String mimeType = http.getMimeType();
+				if (mimeType != null && mimeType.trim().equalsIgnoreCase("text/html")) {
+					out.increment(MAPPERCOUNTER.RECORDS_IN, 1);
+					// Process all the HTML start tags found in the body of the document
+					start = timer.start();
+					scanner.reset(http.getBody(payload));
+					while (scanner.next()) {
+						counts.add(scanner.getName(), scanner.getNameOffset(), scanner.getNameLength(), 1);
 					}
+					timer.stop(Stage.PARSE, start);
 				}
-				catch (Exception ex) {
-					LOG.error("Caught Exception", ex);
-					context.getCounter(MAPPERCOUNTER.EXCEPTIONS).increment(1);
-				}
 			}
+			catch (Exception ex) {
+				out.logError(LOG, header, ex);
+				out.increment(MAPPERCOUNTER.EXCEPTIONS, 1);
+			}
+			if (counts.isFull()) {
+				long start = timer.start();
+				counts.flush(out);
+				timer.stop(Stage.EMIT, start);
+			}
+		}
+
+		@Override
+		public void finish(Output<Text, LongWritable> out) throws IOException, InterruptedException {
+			counts.flush(out);
 		}
 	}
 }
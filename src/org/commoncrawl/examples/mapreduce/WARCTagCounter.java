@@ -15,6 +15,7 @@ import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.log4j.Logger;
 import org.commoncrawl.warc.WARCFileInputFormat;
+import org.commoncrawl.warc.WARCRecordFilter;
 
 /**
  * HTML tag count example using the raw HTTP responses (WARC) from the Common Crawl dataset.
@@ -32,39 +33,49 @@ public class WARCTagCounter extends Configured implements Tool {
 		System.exit(res);
 	}
 
+	/**
+	 * Sets up the tag count over the HTTP responses in WARC files.
+	 */
+	public static void configure(Job job) {
+		job.setInputFormatClass(WARCFileInputFormat.class);
+		WARCRecordFilter.setMimeTypes(job, "application/http; msgtype=response");
+		job.setOutputFormatClass(TextOutputFormat.class);
+
+		job.setOutputKeyClass(Text.class);
+		job.setOutputValueClass(LongWritable.class);
+
+		job.setMapperClass(TagCounterMap.TagCounterMapper.class);
+		job.setCombinerClass(LongSumReducer.class);
+		job.setReducerClass(LongSumReducer.class);
+	}
+
 	/**
 	 * Builds and runs the Hadoop job.
 	 * @return	0 if the Hadoop job completes successfully and 1 otherwise.
 	 */
 	@Override
-	public int run(String[] arg0) throws Exception {
+	public int run(String[] args) throws Exception {
 		Configuration conf = getConf();
 		//
 		Job job = new Job(conf);
 		job.setJarByClass(WARCTagCounter.class);
 		job.setNumReduceTasks(1);
 		
-		String inputPath = "data/*.warc.gz";
+		// Input and output paths may be given as arguments
+		String inputPath = args.length > 0 ? args[0] : "data/*.warc.gz";
 		//inputPath = "s3n://aws-publicdatasets/common-crawl/crawl-data/CC-MAIN-2013-48/segments/1386163035819/wet/CC-MAIN-20131204131715-00000-ip-10-33-133-15.ec2.internal.warc.wet.gz";
 		//inputPath = "s3n://aws-publicdatasets/common-crawl/crawl-data/CC-MAIN-2013-48/segments/1386163035819/wet/*.warc.wet.gz";
 		LOG.info("Input path: " + inputPath);
 		FileInputFormat.addInputPath(job, new Path(inputPath));
 		
-		String outputPath = "/tmp/cc/";
+		String outputPath = args.length > 1 ? args[1] : "/tmp/cc/";
 		FileSystem fs = FileSystem.newInstance(conf);
 		if (fs.exists(new Path(outputPath))) {
 			fs.delete(new Path(outputPath), true);
 		}
 		FileOutputFormat.setOutputPath(job, new Path(outputPath));
 
-		job.setInputFormatClass(WARCFileInputFormat.class);
-		job.setOutputFormatClass(TextOutputFormat.class);
-
-		job.setOutputKeyClass(Text.class);
-	    job.setOutputValueClass(LongWritable.class);
-	    
-	    job.setMapperClass(TagCounterMap.TagCounterMapper.class);
-	    job.setReducerClass(LongSumReducer.class);
+		configure(job);
 
 	    return job.waitForCompletion(true) ? 0 : -1;
 	}
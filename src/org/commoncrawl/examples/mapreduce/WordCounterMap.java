@@ -1,18 +1,30 @@
 package org.commoncrawl.examples.mapreduce;
 
 import java.io.IOException;
-import java.util.StringTokenizer;
+import java.io.InputStream;
+import java.util.Locale;
 
-import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
-import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Job;
 import org.apache.log4j.Logger;
-import org.archive.io.ArchiveReader;
-import org.archive.io.ArchiveRecord;
+import org.archive.io.ArchiveRecordHeader;
+import org.commoncrawl.warc.LongCountAggregator;
+import org.commoncrawl.warc.ParallelArchiveMapper;
+import org.commoncrawl.warc.ParallelArchiveMapper.Output;
+import org.commoncrawl.warc.ParallelArchiveMapper.RecordProcessor;
+import org.commoncrawl.warc.StageTimer;
+import org.commoncrawl.warc.StageTimer.Stage;
+import org.commoncrawl.warc.Utf8Tokenizer;
 
 public class WordCounterMap {
 	private static final Logger LOG = Logger.getLogger(WordCounterMap.class);
+	/** How words are separated: "whitespace" (the default) or "unicode". See {@link Utf8Tokenizer.Mode}. */
+	public static final String TOKENIZER_MODE = "wordcount.tokenizer.mode";
+	/** Whether words are lower cased before counting. Off by default. */
+	public static final String TOKENIZER_LOWERCASE = "wordcount.tokenizer.lowercase";
+
 	protected static enum MAPPERCOUNTER {
 		RECORDS_IN,
 		EMPTY_PAGE_TEXT,
@@ -20,40 +32,74 @@ public class WordCounterMap {
 		NON_PLAIN_TEXT
 	}
 
-	protected static class WordCountMapper extends Mapper<Text, ArchiveReader, Text, LongWritable> {
-		private StringTokenizer tokenizer;
-		private Text outKey = new Text();
-		private LongWritable outVal = new LongWritable(1);
+	public static void setTokenizer(Job job, Utf8Tokenizer.Mode mode, boolean lowercase) {
+		job.getConfiguration().set(TOKENIZER_MODE, mode.name().toLowerCase(Locale.ROOT));
+		job.getConfiguration().setBoolean(TOKENIZER_LOWERCASE, lowercase);
+	}
 
+	protected static class WordCountMapper extends ParallelArchiveMapper<Text, LongWritable> {
 		@Override
-		public void map(Text key, ArchiveReader value, Context context) throws IOException {
-			for (ArchiveRecord r : value) {
-				try {
-					if (r.getHeader().getMimetype().equals("text/plain")) {
-						context.getCounter(MAPPERCOUNTER.RECORDS_IN).increment(1);
-						LOG.debug(r.getHeader().getUrl() + " -- " + r.available());
-						// Convenience function that reads the full message into a raw byte array
-						byte[] rawData = IOUtils.toByteArray(r, r.available());
-						String content = new String(rawData);
-						// Grab each word from the document
-						tokenizer = new StringTokenizer(content);
-						if (!tokenizer.hasMoreTokens()) {
-							context.getCounter(MAPPERCOUNTER.EMPTY_PAGE_TEXT).increment(1);
-						} else {
-							while (tokenizer.hasMoreTokens()) {
-								outKey.set(tokenizer.nextToken());
-								context.write(outKey, outVal);
-							}
-						}
-					} else {
-						context.getCounter(MAPPERCOUNTER.NON_PLAIN_TEXT).increment(1);
-					}
-				}
-				catch (Exception ex) {
-					LOG.error("Caught Exception", ex);
-					context.getCounter(MAPPERCOUNTER.EXCEPTIONS).increment(1);
+		protected boolean accept(ArchiveRecordHeader header, Output<Text, LongWritable> out) {
+			if ("text/plain".equals(header.getMimetype())) {
+				return true;
+			}
+			out.increment(MAPPERCOUNTER.NON_PLAIN_TEXT, 1);
+			return false;
+		}
+
+		@Override
+		protected RecordProcessor<Text, LongWritable> createProcessor(Context context) {
+			Configuration conf = context.getConfiguration();
+			Utf8Tokenizer.Mode mode = Utf8Tokenizer.Mode.valueOf(conf.get(TOKENIZER_MODE, "whitespace").toUpperCase(Locale.ROOT));
+			Utf8Tokenizer tokenizer = new Utf8Tokenizer(mode, conf.getBoolean(TOKENIZER_LOWERCASE, false));
+			return new WordCountProcessor(tokenizer, new LongCountAggregator(conf));
+		}
+	}
+
+	protected static class WordCountProcessor extends RecordProcessor<Text, LongWritable> {
+		// Hands out words as byte ranges of its own buffer
+		private final Utf8Tokenizer tokenizer;
+		// Word counts are summed here and written once per word per flush
+		private final LongCountAggregator counts;
+
+		public WordCountProcessor(Utf8Tokenizer tokenizer, LongCountAggregator counts) {
+			this.tokenizer = tokenizer;
+			this.counts = counts;
+		}
+
+		@Override
+		public void process(ArchiveRecordHeader header, InputStream payload, Output<Text, LongWritable> out)
+				throws IOException, InterruptedException {
+			StageTimer timer = out.getTimer();
+			try {
+				out.increment(MAPPERCOUNTER.RECORDS_IN, 1);
+				LOG.debug(header.getUrl() + " -- " + header.getContentLength());
+				// Grab each word from the document, straight from its UTF-8 bytes
+				long start = timer.start();
+				tokenizer.reset(payload);
+				if (!tokenizer.next()) {
+					out.increment(MAPPERCOUNTER.EMPTY_PAGE_TEXT, 1);
+				} else {
+					do {
+						counts.add(tokenizer.getBytes(), tokenizer.getOffset(), tokenizer.getLength(), 1);
+					} while (tokenizer.next());
 				}
+				timer.stop(Stage.PARSE, start);
+			}
+			catch (Exception ex) {
+				out.logError(LOG, header, ex);
+				out.increment(MAPPERCOUNTER.EXCEPTIONS, 1);
 			}
+			if (counts.isFull()) {
+				long start = timer.start();
+				counts.flush(out);
+				timer.stop(Stage.EMIT, start);
+			}
+		}
+
+		@Override
+		public void finish(Output<Text, LongWritable> out) throws IOException, InterruptedException {
+			counts.flush(out);
 		}
 	}
 }
@@ -0,0 +1,60 @@
+package org.commoncrawl.warc;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * One line of a Common Crawl CDX index: where a capture lives in which WARC file.
+ *
+ * Both the JSON flavoured index ("surt timestamp {json}") and the classic
+ * space separated 11 field CDX ("N b a m s k r M S V g") are understood.
+ */
+public class CDXEntry {
+	public final String url;
+	public final String mime;
+	public final String status;
+	public final String filename;
+	public final long offset;
+	public final long length;
+
+	public CDXEntry(String url, String mime, String status, String filename, long offset, long length) {
+		this.url = url;
+		this.mime = mime;
+		this.status = status;
+		this.filename = filename;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	/**
+	 * Parses a CDX line, returning null for headers and lines that do not
+	 * say where the capture is stored.
+	 */
+	public static CDXEntry parse(String line) {
+		int brace = line.indexOf('{');
+		try {
+			if (brace >= 0) {
+				JSONObject json = new JSONObject(line.substring(brace));
+				if (!json.has("filename") || !json.has("offset") || !json.has("length")) {
+					return null;
+				}
+				return new CDXEntry(json.optString("url", null),
+						json.optString("mime", null),
+						json.optString("status", null),
+						json.getString("filename"),
+						Long.parseLong(json.get("offset").toString()),
+						Long.parseLong(json.get("length").toString()));
+			}
+			String[] fields = line.split(" ");
+			if (fields.length < 11 || line.startsWith(" CDX")) {
+				return null;
+			}
+			return new CDXEntry(fields[2], fields[3], fields[4], fields[10],
+					Long.parseLong(fields[9]), Long.parseLong(fields[8]));
+		} catch (JSONException ex) {
+			return null;
+		} catch (NumberFormatException ex) {
+			return null;
+		}
+	}
+}
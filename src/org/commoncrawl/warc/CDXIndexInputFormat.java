@@ -0,0 +1,226 @@
+package org.commoncrawl.warc;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.log4j.Logger;
+import org.archive.io.ArchiveReader;
+
+/**
+ * Input format driven by Common Crawl CDX index files rather than WARC files.
+ *
+ * The job's input paths are CDX files (optionally compressed). Their entries
+ * are filtered by MIME type, HTTP status and URL prefix, and only the gzip
+ * members of the matching captures are read, so a job that needs a small
+ * share of the crawl only downloads and inflates that share.
+ *
+ * Mappers receive an ArchiveReader per split just as with
+ * {@link WARCFileInputFormat}; record offsets are the offsets in the WARC file.
+ *
+ * The index files are read one after another on the client when the job is
+ * submitted, so submission time grows with the size of the index. Each index
+ * file is turned into splits as it is read: only the selected captures of
+ * that file that are not yet in a split are held in memory, and a WARC file's
+ * captures become a split as soon as they add up to {@link #SPLIT_BYTES}.
+ * The splits themselves, one per {@link #SPLIT_BYTES} of selected records,
+ * are all kept until submission; select narrowly when reading a whole crawl's
+ * index.
+ */
+public class CDXIndexInputFormat extends FileInputFormat<Text, ArchiveReader> {
+	private static final Logger LOG = Logger.getLogger(CDXIndexInputFormat.class);
+
+	/** Comma separated MIME types to keep; unset keeps all. */
+	public static final String MIME_TYPES = "warc.cdx.mime";
+	/** Comma separated HTTP status codes to keep; unset keeps all. */
+	public static final String STATUSES = "warc.cdx.status";
+	/** Comma separated URL prefixes to keep; unset keeps all. */
+	public static final String URL_PREFIXES = "warc.cdx.url.prefix";
+	/** Prepended to the relative WARC file names found in the index. */
+	public static final String WARC_PREFIX = "warc.cdx.warc.prefix";
+	/** Compressed bytes of selected records per split. */
+	public static final String SPLIT_BYTES = "warc.cdx.split.bytes";
+
+	public static final String DEFAULT_WARC_PREFIX = "s3n://aws-publicdatasets/common-crawl/";
+	private static final long DEFAULT_SPLIT_BYTES = 64L * 1024 * 1024;
+
+	public static void setMimeTypes(Job job, String... mimeTypes) {
+		job.getConfiguration().setStrings(MIME_TYPES, mimeTypes);
+	}
+
+	public static void setStatuses(Job job, String... statuses) {
+		job.getConfiguration().setStrings(STATUSES, statuses);
+	}
+
+	public static void setUrlPrefixes(Job job, String... prefixes) {
+		job.getConfiguration().setStrings(URL_PREFIXES, prefixes);
+	}
+
+	public static void setWARCPrefix(Job job, String prefix) {
+		job.getConfiguration().set(WARC_PREFIX, prefix);
+	}
+
+	@Override
+	public List<InputSplit> getSplits(JobContext context) throws IOException {
+		Configuration conf = context.getConfiguration();
+		Set<String> mimes = toSet(conf.getStrings(MIME_TYPES));
+		Set<String> statuses = toSet(conf.getStrings(STATUSES));
+		String[] prefixes = conf.getStrings(URL_PREFIXES);
+		String warcPrefix = conf.get(WARC_PREFIX, DEFAULT_WARC_PREFIX);
+		long splitBytes = conf.getLong(SPLIT_BYTES, DEFAULT_SPLIT_BYTES);
+
+		CompressionCodecFactory codecs = new CompressionCodecFactory(conf);
+		List<InputSplit> splits = new ArrayList<InputSplit>();
+		long indexed = 0;
+		long selected = 0;
+		for (FileStatus status : listStatus(context)) {
+			Path path = status.getPath();
+			FileSystem fs = path.getFileSystem(conf);
+			InputStream in = fs.open(path);
+			CompressionCodec codec = codecs.getCodec(path);
+			if (codec != null) {
+				in = codec.createInputStream(in);
+			}
+			// Selected captures of this index file not yet in a split, by WARC file
+			Map<String, List<CDXEntry>> pending = new TreeMap<String, List<CDXEntry>>();
+			Map<String, Long> pendingBytes = new HashMap<String, Long>();
+			BufferedReader reader = new BufferedReader(new InputStreamReader(in, "utf-8"));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					CDXEntry entry = CDXEntry.parse(line);
+					if (entry == null) {
+						continue;
+					}
+					++indexed;
+					if (!accept(entry, mimes, statuses, prefixes)) {
+						continue;
+					}
+					++selected;
+					List<CDXEntry> entries = pending.get(entry.filename);
+					if (entries == null) {
+						entries = new ArrayList<CDXEntry>();
+						pending.put(entry.filename, entries);
+						pendingBytes.put(entry.filename, 0L);
+					}
+					entries.add(entry);
+					long bytes = pendingBytes.get(entry.filename) + entry.length;
+					if (bytes >= splitBytes) {
+						addSplits(splits, resolve(warcPrefix, entry.filename), entries, splitBytes);
+						pending.remove(entry.filename);
+						pendingBytes.remove(entry.filename);
+					} else {
+						pendingBytes.put(entry.filename, bytes);
+					}
+				}
+			} finally {
+				reader.close();
+			}
+			for (Map.Entry<String, List<CDXEntry>> e : pending.entrySet()) {
+				addSplits(splits, resolve(warcPrefix, e.getKey()), e.getValue(), splitBytes);
+			}
+			LOG.info("Read " + path + ": " + selected + " of " + indexed + " index entries selected so far, "
+					+ splits.size() + " splits");
+		}
+		return splits;
+	}
+
+	/**
+	 * Sorts the captures of one WARC file by offset and adds them as splits
+	 * of at most about splitBytes each.
+	 */
+	private static void addSplits(List<InputSplit> splits, String path, List<CDXEntry> entries, long splitBytes) {
+		Collections.sort(entries, BY_OFFSET);
+		long[] offsets = new long[entries.size()];
+		long[] lengths = new long[entries.size()];
+		int n = 0;
+		long bytes = 0;
+		for (CDXEntry entry : entries) {
+			if (n > 0 && offsets[n - 1] == entry.offset) {
+				// The same capture listed twice
+				continue;
+			}
+			offsets[n] = entry.offset;
+			lengths[n] = entry.length;
+			bytes += entry.length;
+			++n;
+			if (bytes >= splitBytes) {
+				splits.add(new WARCRangeSplit(path, Arrays.copyOf(offsets, n), Arrays.copyOf(lengths, n)));
+				n = 0;
+				bytes = 0;
+			}
+		}
+		if (n > 0) {
+			splits.add(new WARCRangeSplit(path, Arrays.copyOf(offsets, n), Arrays.copyOf(lengths, n)));
+		}
+	}
+
+	private static boolean accept(CDXEntry entry, Set<String> mimes, Set<String> statuses, String[] prefixes) {
+		if (mimes != null && !mimes.contains(entry.mime)) {
+			return false;
+		}
+		if (statuses != null && !statuses.contains(entry.status)) {
+			return false;
+		}
+		if (prefixes != null) {
+			if (entry.url == null) {
+				return false;
+			}
+			for (String prefix : prefixes) {
+				if (entry.url.startsWith(prefix)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		return true;
+	}
+
+	private static Set<String> toSet(String[] values) {
+		return values == null ? null : new HashSet<String>(Arrays.asList(values));
+	}
+
+	private static String resolve(String prefix, String filename) {
+		if (filename.indexOf("://") > 0 || filename.startsWith("/")) {
+			return filename;
+		}
+		return prefix + filename;
+	}
+
+	private static final Comparator<CDXEntry> BY_OFFSET = new Comparator<CDXEntry>() {
+		@Override
+		public int compare(CDXEntry a, CDXEntry b) {
+			return a.offset < b.offset ? -1 : a.offset == b.offset ? 0 : 1;
+		}
+	};
+
+	@Override
+	public RecordReader<Text, ArchiveReader> createRecordReader(InputSplit split, TaskAttemptContext context)
+			throws IOException, InterruptedException {
+		return new WARCRangeRecordReader();
+	}
+}
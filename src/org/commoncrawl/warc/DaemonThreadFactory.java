@@ -0,0 +1,23 @@
+package org.commoncrawl.warc;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Names threads name-0, name-1 and so on, and makes them daemons so they
+ * never keep a task's JVM alive.
+ */
+class DaemonThreadFactory implements ThreadFactory {
+	private final String name;
+	private int count;
+
+	DaemonThreadFactory(String name) {
+		this.name = name;
+	}
+
+	@Override
+	public synchronized Thread newThread(Runnable r) {
+		Thread t = new Thread(r, name + "-" + (count++));
+		t.setDaemon(true);
+		return t;
+	}
+}
@@ -0,0 +1,89 @@
+package org.commoncrawl.warc;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.archive.io.ArchiveReader;
+import org.archive.io.ArchiveRecord;
+
+/**
+ * Passes through only the records of another ArchiveReader whose headers
+ * are accepted by a {@link WARCRecordFilter}. Rejected records are skipped
+ * by the underlying reader without their content being read.
+ */
+public class FilteringArchiveReader extends IteratingArchiveReader {
+	private final ArchiveReader delegate;
+	private final WARCRecordFilter filter;
+	private final TaskAttemptContext context;
+	private long accepted;
+	private long skipped;
+	private boolean closed;
+
+	public FilteringArchiveReader(ArchiveReader delegate, WARCRecordFilter filter, TaskAttemptContext context) {
+		super(delegate.getReaderIdentifier());
+		this.delegate = delegate;
+		this.filter = filter;
+		this.context = context;
+	}
+
+	@Override
+	public Iterator<ArchiveRecord> iterator() {
+		final Iterator<ArchiveRecord> records = delegate.iterator();
+		return new Iterator<ArchiveRecord>() {
+			private ArchiveRecord pending;
+
+			@Override
+			public boolean hasNext() {
+				while (pending == null && records.hasNext()) {
+					ArchiveRecord r = records.next();
+					if (filter.accept(r.getHeader())) {
+						++accepted;
+						pending = r;
+					} else {
+						++skipped;
+					}
+				}
+				return pending != null;
+			}
+
+			@Override
+			public ArchiveRecord next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				ArchiveRecord r = pending;
+				pending = null;
+				return r;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	public long getAccepted() {
+		return accepted;
+	}
+
+	public long getSkipped() {
+		return skipped;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (context != null) {
+			// Reported once per reader rather than once per record
+			context.getCounter(WARCRecordFilter.FILTERCOUNTER.RECORDS_ACCEPTED).increment(accepted);
+			context.getCounter(WARCRecordFilter.FILTERCOUNTER.RECORDS_SKIPPED).increment(skipped);
+		}
+		delegate.close();
+	}
+}
@@ -0,0 +1,95 @@
+package org.commoncrawl.warc;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Inflates raw gzip members held in memory, reusing a single
+ * {@link RawInflater}. Instances are not thread safe; use one per thread.
+ */
+public class GzipMemberInflater {
+	private static final int TRAILER = GzipMembers.TRAILER;
+	private static final int MAX_RATIO = 1032;
+	private final RawInflater inflater;
+	private final CRC32 crc = new CRC32();
+
+	public GzipMemberInflater() {
+		this(new RawInflater.Java());
+	}
+
+	public GzipMemberInflater(RawInflater inflater) {
+		this.inflater = inflater;
+	}
+
+	/**
+	 * Inflates every gzip member in the given bytes into a single buffer,
+	 * checking each member's trailer. Returns null if the last member is cut
+	 * short, which means the bytes do not end on a member boundary.
+	 */
+	public MemberSource.Member inflate(long offset, byte[] raw, int off, int len) throws IOException {
+		byte[] out = new byte[initialSize(raw, off, len)];
+		int n = 0;
+		int pos = off;
+		int end = off + len;
+		while (pos < end) {
+			int hlen = GzipMembers.headerLength(raw, pos, end - pos);
+			if (hlen < 0) {
+				throw new IOException("Bad gzip member header at offset " + (offset + pos - off));
+			}
+			long memberOffset = offset + pos - off;
+			int memberStart = n;
+			inflater.reset();
+			inflater.setInput(raw, pos + hlen, end - pos - hlen);
+			while (!inflater.finished()) {
+				if (n == out.length) {
+					out = Arrays.copyOf(out, out.length * 2);
+				}
+				int r;
+				try {
+					r = inflater.inflate(out, n, out.length - n);
+				} catch (IOException ex) {
+					throw new IOException("Corrupt gzip member at offset " + offset, ex);
+				}
+				if (r == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					return null;
+				}
+				n += r;
+			}
+			pos = end - inflater.getRemaining();
+			if (pos + TRAILER > end) {
+				// Trailer is incomplete
+				return null;
+			}
+			GzipMembers.checkTrailer(raw, pos, out, memberStart, n - memberStart, crc, memberOffset);
+			pos += TRAILER;
+		}
+		return new MemberSource.Member(offset, out, n);
+	}
+
+	/**
+	 * Uses the uncompressed size from the trailer of the last member as a
+	 * first guess at the output size; for single-record members it is exact.
+	 * The extra byte lets the inflater see the end of the stream without
+	 * the buffer having to grow.
+	 */
+	private static int initialSize(byte[] raw, int off, int len) {
+		long guess = 0;
+		if (len >= TRAILER) {
+			int p = off + len - 4;
+			guess = (raw[p] & 0xffL) | (raw[p + 1] & 0xffL) << 8 | (raw[p + 2] & 0xffL) << 16 | (raw[p + 3] & 0xffL) << 24;
+		}
+		// Deflate cannot expand data more than about 1032:1, so anything larger is not a real trailer
+		if (guess <= 0 || guess > (long) len * MAX_RATIO || guess >= Integer.MAX_VALUE) {
+			return Math.max(1024, len * 4);
+		}
+		return (int) guess + 1;
+	}
+
+	/**
+	 * Releases the native resources held by the inflater.
+	 */
+	public void end() {
+		inflater.end();
+	}
+}
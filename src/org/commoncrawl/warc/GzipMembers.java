@@ -0,0 +1,180 @@
+package org.commoncrawl.warc;
+
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+
+/**
+ * Helpers for locating gzip member boundaries in a compressed WARC file.
+ * Common Crawl WARC, WAT and WET files are a concatenation of gzip members,
+ * one per record, so any member start is a valid place to begin reading.
+ *
+ * A candidate member is only accepted if it has a well formed gzip header
+ * and the first bytes it inflates to are a WARC version line. This makes it
+ * (practically) impossible for compressed data that happens to contain the
+ * gzip magic to be mistaken for a boundary.
+ */
+public class GzipMembers {
+	private static final int WINDOW = 64 * 1024;
+	/** Bytes needed past a candidate member start to verify it. */
+	static final int OVERLAP = 4 * 1024;
+	private static final byte[] WARC_MAGIC = { 'W', 'A', 'R', 'C', '/' };
+	/** Length of the CRC32 and ISIZE trailer that ends each member. */
+	public static final int TRAILER = 8;
+
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+
+	private GzipMembers() {
+	}
+
+	/**
+	 * Returns true if the bytes at the given offset look like the fixed part
+	 * of a gzip member header (magic, deflate method and no reserved flags).
+	 */
+	public static boolean isHeader(byte[] b, int off, int len) {
+		return len >= 10
+				&& b[off] == (byte) 0x1f
+				&& b[off + 1] == (byte) 0x8b
+				&& b[off + 2] == 8
+				&& (b[off + 3] & 0xe0) == 0;
+	}
+
+	/**
+	 * Checks the trailer at b[pos] against the length bytes of output
+	 * at out[start] that its member inflated to, as GZIPInputStream does.
+	 * The given CRC32 is reset and reused.
+	 *
+	 * @throws IOException if the CRC32 or size in the trailer does not match
+	 */
+	public static void checkTrailer(byte[] b, int pos, byte[] out, int start, int length, CRC32 crc, long offset)
+			throws IOException {
+		crc.reset();
+		crc.update(out, start, length);
+		if (readInt(b, pos) != (int) crc.getValue() || readInt(b, pos + 4) != length) {
+			throw new IOException("Corrupt gzip trailer in member at offset " + offset);
+		}
+	}
+
+	private static int readInt(byte[] b, int pos) {
+		return (b[pos] & 0xff) | (b[pos + 1] & 0xff) << 8 | (b[pos + 2] & 0xff) << 16 | (b[pos + 3] & 0xff) << 24;
+	}
+
+	/**
+	 * Returns the length of the gzip member header starting at the given offset,
+	 * or -1 if the header is malformed or does not fit in the given bytes.
+	 */
+	public static int headerLength(byte[] b, int off, int len) {
+		if (!isHeader(b, off, len)) {
+			return -1;
+		}
+		int flags = b[off + 3] & 0xff;
+		int pos = 10;
+		if ((flags & FEXTRA) != 0) {
+			if (pos + 2 > len) {
+				return -1;
+			}
+			pos += 2 + ((b[off + pos] & 0xff) | ((b[off + pos + 1] & 0xff) << 8));
+		}
+		if ((flags & FNAME) != 0) {
+			pos = skipZeroTerminated(b, off, len, pos);
+		}
+		if ((flags & FCOMMENT) != 0) {
+			pos = skipZeroTerminated(b, off, len, pos);
+		}
+		if ((flags & FHCRC) != 0) {
+			pos += 2;
+		}
+		return pos < 0 || pos > len ? -1 : pos;
+	}
+
+	private static int skipZeroTerminated(byte[] b, int off, int len, int pos) {
+		if (pos < 0) {
+			return -1;
+		}
+		while (pos < len) {
+			if (b[off + pos++] == 0) {
+				return pos;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns true if a gzip member starts at the given offset and inflates to
+	 * something beginning with a WARC version line.
+	 */
+	public static boolean isWARCMember(byte[] b, int off, int len, Inflater inflater) {
+		int hlen = headerLength(b, off, len);
+		if (hlen < 0) {
+			return false;
+		}
+		byte[] out = new byte[WARC_MAGIC.length];
+		inflater.reset();
+		inflater.setInput(b, off + hlen, len - hlen);
+		try {
+			int n = 0;
+			while (n < out.length) {
+				int r = inflater.inflate(out, n, out.length - n);
+				if (r == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+					return false;
+				}
+				n += r;
+			}
+		} catch (DataFormatException ex) {
+			return false;
+		}
+		for (int i = 0; i < WARC_MAGIC.length; ++i) {
+			if (out[i] != WARC_MAGIC[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Scans forward from the given position for the start of the next WARC gzip
+	 * member, using positioned reads so the stream position is left untouched.
+	 * Returns the offset of the member, or the limit if none starts before it.
+	 */
+	public static long nextMemberStart(FSDataInputStream in, long from, long limit) throws IOException {
+		byte[] buf = new byte[WINDOW + OVERLAP];
+		Inflater inflater = new Inflater(true);
+		try {
+			long pos = from;
+			while (pos < limit) {
+				int n = readFully(in, pos, buf, (int) Math.min(buf.length, limit - pos));
+				if (n <= 0) {
+					break;
+				}
+				int scan = Math.min(n, WINDOW);
+				for (int i = 0; i < scan; ++i) {
+					if (buf[i] == (byte) 0x1f && isWARCMember(buf, i, n - i, inflater)) {
+						return pos + i;
+					}
+				}
+				pos += scan;
+			}
+			return limit;
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private static int readFully(FSDataInputStream in, long pos, byte[] buf, int len) throws IOException {
+		int n = 0;
+		while (n < len) {
+			int r = in.read(pos + n, buf, n, len - n);
+			if (r < 0) {
+				break;
+			}
+			n += r;
+		}
+		return n;
+	}
+}
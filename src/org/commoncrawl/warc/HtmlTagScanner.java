@@ -0,0 +1,353 @@
+package org.commoncrawl.warc;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Finds the names of the start tags in an HTML byte stream.
+ *
+ * The stream is read in fixed size chunks and scanned by a state machine
+ * that is carried over from one chunk to the next, so the document is never
+ * held in memory as a whole, and no String is created. Comments, CDATA
+ * sections, doctypes, processing instructions and end tags are skipped, as
+ * is the content of script, style, textarea and title elements, where
+ * anything that looks like a tag is text. Quoted attribute values may
+ * contain '>'.
+ *
+ * Tag names are lowercased (ASCII only) in place in the chunk buffer, so a
+ * name returned by {@link #getName()} is only valid until the next call to
+ * {@link #next()}. Names longer than {@link #MAX_NAME} bytes are dropped.
+ *
+ * Instances are not thread safe.
+ */
+public class HtmlTagScanner {
+	/** Longest tag name returned. */
+	public static final int MAX_NAME = 128;
+
+	private static final int CHUNK = 8 * 1024;
+
+	private static final int TEXT = 0;
+	// After '<'
+	private static final int TAG_OPEN = 1;
+	// After "<!", matching the start of a comment or CDATA section
+	private static final int MARKUP = 2;
+	private static final int COMMENT = 3;
+	private static final int CDATA = 4;
+	// Anything else up to the next '>': doctypes, PIs, end tags
+	private static final int BOGUS = 5;
+	// From here to QUOTED a start tag name is held
+	private static final int TAG_NAME = 6;
+	private static final int ATTRS = 7;
+	// After '=' in a tag
+	private static final int BEFORE_VALUE = 8;
+	private static final int QUOTED = 9;
+	// Inside an element whose content is not markup, looking for its end tag
+	private static final int RAW_TEXT = 10;
+
+	private static final byte[] COMMENT_OPEN = bytes("--");
+	private static final byte[] CDATA_OPEN = bytes("[CDATA[");
+	private static final byte[][] RAW_TEXT_TAGS = {
+		bytes("script"), bytes("style"), bytes("textarea"), bytes("title")
+	};
+
+	private final byte[] buf = new byte[CHUNK];
+	private int pos;
+	private int limit;
+	private InputStream in;
+	private int state;
+	// Progress through a multi-byte marker: a prefix, "-->", "]]>" or "</name"
+	private int matched;
+	private byte[] prefix;
+	private byte quote;
+	private byte[] rawTextTag;
+
+	// The current name is at buf[nameStart] until its chunk is replaced,
+	// then in nameBuf
+	private final byte[] nameBuf = new byte[MAX_NAME];
+	private int nameStart;
+	private int nameLength;
+	private boolean nameCopied;
+
+	private byte[] name;
+	private int nameOffset;
+
+	/**
+	 * Starts scanning a new stream. The stream is not closed by the scanner.
+	 */
+	public void reset(InputStream in) {
+		this.in = in;
+		pos = 0;
+		limit = 0;
+		state = TEXT;
+		matched = 0;
+	}
+
+	/**
+	 * Advances to the next start tag. Returns false at the end of the stream.
+	 */
+	public boolean next() throws IOException {
+		while (pos < limit || fill()) {
+			byte[] b = buf;
+			int p = pos;
+			int end = limit;
+			switch (state) {
+			case TEXT:
+				while (p < end && b[p] != '<') {
+					++p;
+				}
+				if (p < end) {
+					++p;
+					state = TAG_OPEN;
+				}
+				break;
+			case TAG_OPEN: {
+				byte c = b[p];
+				if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+					state = TAG_NAME;
+					nameStart = p;
+					nameLength = 0;
+					nameCopied = false;
+				} else if (c == '!') {
+					state = MARKUP;
+					matched = 0;
+					++p;
+				} else if (c == '/' || c == '?') {
+					state = BOGUS;
+					++p;
+				} else {
+					// A lone '<' is text; c itself may open a tag
+					state = TEXT;
+				}
+				break;
+			}
+			case MARKUP:
+				if (matched == 0) {
+					prefix = b[p] == '[' ? CDATA_OPEN : COMMENT_OPEN;
+				}
+				if (b[p] != prefix[matched]) {
+					state = BOGUS;
+					break;
+				}
+				++p;
+				if (++matched == prefix.length) {
+					// A comment may close straight away, as in "<!-->"
+					state = prefix == COMMENT_OPEN ? COMMENT : CDATA;
+					matched = prefix == COMMENT_OPEN ? 2 : 0;
+				}
+				break;
+			case COMMENT:
+				while (p < end) {
+					byte c = b[p++];
+					if (c == '-') {
+						++matched;
+					} else if (c == '>' && matched >= 2) {
+						state = TEXT;
+						break;
+					} else {
+						matched = 0;
+					}
+				}
+				break;
+			case CDATA:
+				while (p < end) {
+					byte c = b[p++];
+					if (c == ']') {
+						++matched;
+					} else if (c == '>' && matched >= 2) {
+						state = TEXT;
+						break;
+					} else {
+						matched = 0;
+					}
+				}
+				break;
+			case BOGUS:
+				while (p < end && b[p] != '>') {
+					++p;
+				}
+				if (p < end) {
+					++p;
+					state = TEXT;
+				}
+				break;
+			case TAG_NAME: {
+				int start = p;
+				while (p < end && !endsName(b[p])) {
+					if (b[p] >= 'A' && b[p] <= 'Z') {
+						b[p] += 'a' - 'A';
+					}
+					++p;
+				}
+				if (nameCopied) {
+					appendName(b, start, p - start);
+				} else {
+					nameLength = p - nameStart;
+				}
+				if (p < end) {
+					state = ATTRS;
+				}
+				break;
+			}
+			case ATTRS:
+				while (p < end && b[p] != '>' && b[p] != '=') {
+					++p;
+				}
+				if (p < end) {
+					if (b[p++] == '=') {
+						state = BEFORE_VALUE;
+					} else if (startTag()) {
+						pos = p;
+						return true;
+					}
+				}
+				break;
+			case BEFORE_VALUE: {
+				byte c = b[p];
+				if (c == '"' || c == '\'') {
+					quote = c;
+					state = QUOTED;
+					++p;
+				} else if (isSpace(c)) {
+					++p;
+				} else {
+					// Unquoted value; ATTRS sees a '>' ending it
+					state = ATTRS;
+				}
+				break;
+			}
+			case QUOTED:
+				while (p < end && b[p] != quote) {
+					++p;
+				}
+				if (p < end) {
+					++p;
+					state = ATTRS;
+				}
+				break;
+			case RAW_TEXT:
+				while (p < end) {
+					byte c = b[p++];
+					if (matched == 0) {
+						if (c == '<') {
+							matched = 1;
+						}
+					} else if (matched == 1) {
+						matched = c == '/' ? 2 : c == '<' ? 1 : 0;
+					} else if (matched - 2 < rawTextTag.length) {
+						if ((c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c) == rawTextTag[matched - 2]) {
+							++matched;
+						} else {
+							matched = c == '<' ? 1 : 0;
+						}
+					} else if (endsName(c)) {
+						// Skip the rest of the end tag, starting from c
+						--p;
+						state = BOGUS;
+						break;
+					} else {
+						matched = c == '<' ? 1 : 0;
+					}
+				}
+				break;
+			}
+			pos = p;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the buffer holding the lower case name of the current tag.
+	 */
+	public byte[] getName() {
+		return name;
+	}
+
+	public int getNameOffset() {
+		return nameOffset;
+	}
+
+	public int getNameLength() {
+		return nameLength;
+	}
+
+	/**
+	 * Completes the tag whose name is held, returning false if it is dropped.
+	 */
+	private boolean startTag() {
+		state = TEXT;
+		if (nameLength > MAX_NAME) {
+			return false;
+		}
+		if (nameCopied) {
+			name = nameBuf;
+			nameOffset = 0;
+		} else {
+			name = buf;
+			nameOffset = nameStart;
+		}
+		for (byte[] tag : RAW_TEXT_TAGS) {
+			if (tag.length == nameLength && equal(tag, name, nameOffset)) {
+				state = RAW_TEXT;
+				rawTextTag = tag;
+				matched = 0;
+				break;
+			}
+		}
+		return true;
+	}
+
+	private boolean fill() throws IOException {
+		if (in == null) {
+			return false;
+		}
+		if (state >= TAG_NAME && state <= QUOTED && !nameCopied) {
+			// The chunk holding the name is about to be replaced
+			int length = nameLength;
+			nameLength = 0;
+			nameCopied = true;
+			appendName(buf, nameStart, length);
+		}
+		int n = in.read(buf, 0, buf.length);
+		if (n <= 0) {
+			in = null;
+			return false;
+		}
+		pos = 0;
+		limit = n;
+		return true;
+	}
+
+	private void appendName(byte[] b, int off, int len) {
+		if (nameLength + len > MAX_NAME) {
+			nameLength = MAX_NAME + 1;
+			return;
+		}
+		System.arraycopy(b, off, nameBuf, nameLength, len);
+		nameLength += len;
+	}
+
+	private static boolean endsName(byte c) {
+		return c == '>' || c == '/' || isSpace(c);
+	}
+
+	private static boolean isSpace(byte c) {
+		return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f';
+	}
+
+	private static boolean equal(byte[] a, byte[] b, int off) {
+		for (int i = 0; i < a.length; ++i) {
+			if (a[i] != b[off + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static byte[] bytes(String s) {
+		byte[] b = new byte[s.length()];
+		for (int i = 0; i < b.length; ++i) {
+			b[i] = (byte) s.charAt(i);
+		}
+		return b;
+	}
+}
@@ -0,0 +1,361 @@
+package org.commoncrawl.warc;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Parses the status line and headers at the start of an HTTP response
+ * record straight from bytes.
+ *
+ * The header bytes are read into a buffer that is reused from one parse to
+ * the next, and headers are kept as offsets into it. No String is created
+ * while parsing; header names are only materialized when asked for (well
+ * known names map to shared constants), and values only for the headers a
+ * caller looks up. Everything returned by an instance is therefore only
+ * valid until its next {@link #parse(InputStream)}.
+ *
+ * Header names are case insensitive. Folded continuation lines are ignored
+ * and, as with a map, the last of several headers with the same name wins.
+ *
+ * Instances are not thread safe; {@link #forThread()} hands out one per thread.
+ */
+public class HttpResponseHeader {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	// Bytes requested from the stream at a time; bounds how far past the headers we read
+	private static final int CHUNK = 1024;
+	// Headers beyond this size are not parsed and are left as part of the body
+	private static final int MAX_HEADER_BYTES = 256 * 1024;
+
+	private static final String[] KNOWN_NAMES = {
+		"accept-ranges", "age", "cache-control", "connection", "content-encoding",
+		"content-language", "content-length", "content-location", "content-type", "date",
+		"etag", "expires", "keep-alive", "last-modified", "link", "location", "p3p", "pragma",
+		"server", "set-cookie", "strict-transport-security", "transfer-encoding", "vary", "via",
+		"x-cache", "x-content-type-options", "x-frame-options", "x-powered-by", "x-xss-protection"
+	};
+
+	private static final ThreadLocal<HttpResponseHeader> LOCAL = new ThreadLocal<HttpResponseHeader>() {
+		@Override
+		protected HttpResponseHeader initialValue() {
+			return new HttpResponseHeader();
+		}
+	};
+
+	private byte[] buf = new byte[4 * CHUNK];
+	private int filled;
+	private int bodyStart;
+	private int statusCode;
+
+	private int count;
+	private int[] nameStart = new int[32];
+	private int[] nameEnd = new int[32];
+	private int[] valueStart = new int[32];
+	private int[] valueEnd = new int[32];
+	private String[] values = new String[32];
+
+	/**
+	 * Returns the calling thread's instance.
+	 */
+	public static HttpResponseHeader forThread() {
+		return LOCAL.get();
+	}
+
+	/**
+	 * Reads the status line and headers from the stream, replacing the
+	 * previous contents of this instance. A few bytes of the body may be read
+	 * along with the headers; {@link #getBody(InputStream)} puts them back.
+	 */
+	public void parse(InputStream in) throws IOException {
+		filled = 0;
+		bodyStart = -1;
+		statusCode = -1;
+		count = 0;
+		Arrays.fill(values, null);
+
+		boolean statusLine = true;
+		int lineStart = 0;
+		int scan = 0;
+		while (bodyStart < 0) {
+			if (scan == filled && !fill(in)) {
+				// Headers end at the end of the stream or are too large to parse
+				if (statusLine && lineStart < filled) {
+					parseStatusLine(lineStart, trimEnd(lineStart, filled));
+				} else if (lineStart < filled) {
+					addHeader(lineStart, trimEnd(lineStart, filled));
+				}
+				bodyStart = filled;
+				break;
+			}
+			while (scan < filled && buf[scan] != '\n') {
+				++scan;
+			}
+			if (scan == filled) {
+				continue;
+			}
+			int lineEnd = trimEnd(lineStart, scan);
+			if (statusLine) {
+				parseStatusLine(lineStart, lineEnd);
+				statusLine = false;
+			} else if (lineEnd == skipSpace(lineStart, lineEnd)) {
+				// A blank line ends the headers
+				bodyStart = scan + 1;
+			} else {
+				addHeader(lineStart, lineEnd);
+			}
+			lineStart = ++scan;
+		}
+	}
+
+	private boolean fill(InputStream in) throws IOException {
+		if (filled == buf.length) {
+			if (buf.length >= MAX_HEADER_BYTES) {
+				return false;
+			}
+			buf = Arrays.copyOf(buf, buf.length * 2);
+		}
+		int n = in.read(buf, filled, Math.min(CHUNK, buf.length - filled));
+		if (n <= 0) {
+			return false;
+		}
+		filled += n;
+		return true;
+	}
+
+	private void parseStatusLine(int start, int end) {
+		// HTTP/1.1 200 OK
+		int i = start;
+		while (i < end && buf[i] != ' ') {
+			++i;
+		}
+		i = skipSpace(i, end);
+		int code = 0;
+		int digits = 0;
+		for ( ; i < end && buf[i] >= '0' && buf[i] <= '9' && digits < 4; ++i, ++digits) {
+			code = code * 10 + buf[i] - '0';
+		}
+		if (digits == 3 && (i == end || buf[i] == ' ' || buf[i] == '\t')) {
+			statusCode = code;
+		}
+	}
+
+	private void addHeader(int start, int end) {
+		if (buf[start] == ' ' || buf[start] == '\t') {
+			// Folded continuation of the previous header
+			return;
+		}
+		int colon = start;
+		while (colon < end && buf[colon] != ':') {
+			++colon;
+		}
+		int ne = trimEnd(start, colon);
+		if (colon == end || ne == start) {
+			return;
+		}
+		if (count == nameStart.length) {
+			int n = count * 2;
+			nameStart = Arrays.copyOf(nameStart, n);
+			nameEnd = Arrays.copyOf(nameEnd, n);
+			valueStart = Arrays.copyOf(valueStart, n);
+			valueEnd = Arrays.copyOf(valueEnd, n);
+			values = Arrays.copyOf(values, n);
+		}
+		nameStart[count] = start;
+		nameEnd[count] = ne;
+		valueStart[count] = skipSpace(colon + 1, end);
+		valueEnd[count] = end;
+		++count;
+	}
+
+	private int skipSpace(int i, int end) {
+		while (i < end && (buf[i] == ' ' || buf[i] == '\t')) {
+			++i;
+		}
+		return i;
+	}
+
+	private int trimEnd(int start, int end) {
+		while (end > start && (buf[end - 1] == '\r' || buf[end - 1] == ' ' || buf[end - 1] == '\t')) {
+			--end;
+		}
+		return end;
+	}
+
+	/**
+	 * Returns the HTTP status code, or -1 if the status line was malformed.
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * Returns the number of headers parsed.
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Returns the lower case name of the i-th header.
+	 */
+	public String getName(int i) {
+		int start = nameStart[i];
+		int length = nameEnd[i] - start;
+		for (String known : KNOWN_NAMES) {
+			if (known.length() == length && equalsIgnoreCase(start, known)) {
+				return known;
+			}
+		}
+		char[] chars = new char[length];
+		for (int j = 0; j < length; ++j) {
+			chars[j] = (char) toLower(buf[start + j] & 0xff);
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Returns the lower case names of all headers.
+	 */
+	public Set<String> getNames() {
+		Set<String> names = new HashSet<String>();
+		for (int i = 0; i < count; ++i) {
+			names.add(getName(i));
+		}
+		return names;
+	}
+
+	/**
+	 * Returns the value of the named header, or null if it is absent.
+	 */
+	public String get(String name) {
+		int i = indexOf(name);
+		if (i < 0) {
+			return null;
+		}
+		if (values[i] == null) {
+			values[i] = new String(buf, valueStart[i], valueEnd[i] - valueStart[i], UTF8);
+		}
+		return values[i];
+	}
+
+	/**
+	 * Returns the value of the named header as a non-negative number, or
+	 * -1 if it is absent or not a number.
+	 */
+	public long getLong(String name) {
+		int i = indexOf(name);
+		if (i < 0 || valueStart[i] == valueEnd[i] || valueEnd[i] - valueStart[i] > 18) {
+			return -1;
+		}
+		long n = 0;
+		for (int j = valueStart[i]; j < valueEnd[i]; ++j) {
+			if (buf[j] < '0' || buf[j] > '9') {
+				return -1;
+			}
+			n = n * 10 + buf[j] - '0';
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the MIME type of the Content-Type header without its
+	 * parameters, or null if there is none.
+	 */
+	public String getMimeType() {
+		int i = indexOf("content-type");
+		if (i < 0) {
+			return null;
+		}
+		int end = valueStart[i];
+		while (end < valueEnd[i] && buf[end] != ';') {
+			++end;
+		}
+		if (end == valueEnd[i]) {
+			return get("content-type");
+		}
+		return new String(buf, valueStart[i], end - valueStart[i], UTF8);
+	}
+
+	/**
+	 * Returns the charset parameter of the Content-Type header, or null if
+	 * it has none.
+	 */
+	public String getCharset() {
+		int i = indexOf("content-type");
+		if (i < 0) {
+			return null;
+		}
+		int end = valueEnd[i];
+		int p = valueStart[i];
+		while (p < end && buf[p] != ';') {
+			++p;
+		}
+		while (p < end) {
+			p = skipSpace(p + 1, end);
+			int paramEnd = p;
+			while (paramEnd < end && buf[paramEnd] != ';') {
+				++paramEnd;
+			}
+			if (paramEnd - p > 8 && equalsIgnoreCase(p, "charset=")) {
+				int s = p + 8;
+				int e = trimEnd(s, paramEnd);
+				if (e - s >= 2 && buf[s] == '"' && buf[e - 1] == '"') {
+					++s;
+					--e;
+				}
+				return new String(buf, s, e - s, UTF8);
+			}
+			p = paramEnd;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns a copy of the status line and headers, which can be parsed
+	 * again by another instance once this one has been reused.
+	 */
+	public byte[] copyHeaderBytes() {
+		return Arrays.copyOf(buf, Math.min(bodyStart, filled));
+	}
+
+	/**
+	 * Returns a stream over the body: the body bytes already read along with
+	 * the headers followed by the rest of the given stream.
+	 */
+	public InputStream getBody(InputStream in) {
+		if (bodyStart >= filled) {
+			return in;
+		}
+		// Copied, as the buffer is reused by the next parse
+		byte[] head = Arrays.copyOfRange(buf, bodyStart, filled);
+		return new SequenceInputStream(new ByteArrayInputStream(head), in);
+	}
+
+	private int indexOf(String name) {
+		int length = name.length();
+		for (int i = count - 1; i >= 0; --i) {
+			if (nameEnd[i] - nameStart[i] == length && equalsIgnoreCase(nameStart[i], name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private boolean equalsIgnoreCase(int start, String s) {
+		for (int j = 0; j < s.length(); ++j) {
+			if (toLower(buf[start + j] & 0xff) != toLower(s.charAt(j))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int toLower(int c) {
+		return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+	}
+}
@@ -0,0 +1,57 @@
+package org.commoncrawl.warc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+import org.archive.io.ArchiveReader;
+import org.archive.io.ArchiveRecord;
+import org.archive.io.warc.WARCRecord;
+
+/**
+ * Base class for ArchiveReaders that produce their records from something
+ * other than a single sequential stream. Subclasses supply the records by
+ * overriding {@link #iterator()}; everything mappers rely on (iteration,
+ * record headers and content) behaves as it does for a WARCReader.
+ */
+public abstract class IteratingArchiveReader extends ArchiveReader {
+
+	protected IteratingArchiveReader(String identifier) {
+		initialize(identifier);
+		setCompressed(true);
+	}
+
+	@Override
+	public abstract Iterator<ArchiveRecord> iterator();
+
+	@Override
+	protected ArchiveRecord createArchiveRecord(InputStream is, long offset) throws IOException {
+		return currentRecord(new WARCRecord(is, getReaderIdentifier(), offset, isDigest(), isStrict()));
+	}
+
+	@Override
+	protected void gotoEOR(ArchiveRecord record) throws IOException {
+		// Records are read from their own streams, so closing them is enough
+	}
+
+	@Override
+	public String getFileExtension() {
+		return "warc";
+	}
+
+	@Override
+	public String getDotFileExtension() {
+		return ".warc";
+	}
+
+	@Override
+	public void dump(boolean compress) {
+		throw new UnsupportedOperationException("dump is not supported by " + getClass().getSimpleName());
+	}
+
+	@Override
+	public ArchiveReader getDeleteFileOnCloseReader(File f) {
+		throw new UnsupportedOperationException("Not backed by a file");
+	}
+}
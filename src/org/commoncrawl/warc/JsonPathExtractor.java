@@ -0,0 +1,383 @@
+package org.commoncrawl.warc;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Pulls the string values at a few fixed paths out of a JSON document in
+ * one streaming pass over its UTF-8 bytes, without building a tree.
+ *
+ * Paths are object keys separated by dots, such as
+ * "Envelope.Payload-Metadata.HTTP-Response-Metadata.Headers.Server", and
+ * are held in a trie. Members whose key is not on a path are skipped
+ * without being decoded, and reading stops as soon as every path has been
+ * found, so for WAT records the long link lists that follow the headers
+ * are usually never read. Arrays are not descended into; a path whose
+ * value is not a string counts as not found, as does any but the first of
+ * duplicate keys.
+ *
+ * Values are unescaped into buffers that are reused from one document to
+ * the next, so they are only valid until the next {@link #extract}.
+ * Instances are not thread safe.
+ */
+public class JsonPathExtractor {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int CHUNK = 8 * 1024;
+
+	private static class Node {
+		final byte[] key;
+		final List<Node> children = new ArrayList<Node>();
+		// Index of the path ending here, or -1
+		int path = -1;
+
+		Node(byte[] key) {
+			this.key = key;
+		}
+
+		Node find(byte[] b, int len) {
+			for (int i = 0; i < children.size(); ++i) {
+				Node child = children.get(i);
+				if (child.key.length == len && equal(child.key, b, len)) {
+					return child;
+				}
+			}
+			return null;
+		}
+	}
+
+	private final Node root = new Node(new byte[0]);
+	private final int paths;
+
+	private final byte[][] values;
+	private final int[] lengths;
+	private final boolean[] found;
+	private int foundCount;
+
+	private byte[] key = new byte[64];
+	private int keyLength;
+
+	private final byte[] buf = new byte[CHUNK];
+	private int pos;
+	private int limit;
+	private long consumed;
+	private InputStream in;
+
+	public JsonPathExtractor(String... paths) {
+		this.paths = paths.length;
+		values = new byte[paths.length][];
+		lengths = new int[paths.length];
+		found = new boolean[paths.length];
+		for (int i = 0; i < paths.length; ++i) {
+			Node node = root;
+			for (String name : paths[i].split("\\.")) {
+				byte[] b = name.getBytes(UTF8);
+				Node child = node.find(b, b.length);
+				if (child == null) {
+					child = new Node(b);
+					node.children.add(child);
+				}
+				node = child;
+			}
+			if (node.path >= 0) {
+				throw new IllegalArgumentException("Duplicate path " + paths[i]);
+			}
+			node.path = i;
+			values[i] = new byte[64];
+		}
+	}
+
+	/**
+	 * Reads a JSON object from the stream and collects the values of the
+	 * paths. Returns the number of paths found. The stream is not closed, and
+	 * is left unread after the last path is found.
+	 */
+	public int extract(InputStream in) throws IOException {
+		this.in = in;
+		pos = 0;
+		limit = 0;
+		consumed = 0;
+		Arrays.fill(found, false);
+		foundCount = 0;
+		if (nextNonSpace() != '{') {
+			throw malformed("expected an object");
+		}
+		if (paths > 0) {
+			readObject(root);
+		}
+		this.in = null;
+		return foundCount;
+	}
+
+	public boolean isFound(int path) {
+		return found[path];
+	}
+
+	/**
+	 * Returns the buffer holding the UTF-8 value of a path that was found.
+	 */
+	public byte[] getBytes(int path) {
+		return values[path];
+	}
+
+	public int getLength(int path) {
+		return lengths[path];
+	}
+
+	/**
+	 * Returns the value of a path, or null if it was not found.
+	 */
+	public String getString(int path) {
+		return found[path] ? new String(values[path], 0, lengths[path], UTF8) : null;
+	}
+
+	/**
+	 * Reads the members of an object whose '{' has been read. Returns false
+	 * if every path has been found and reading should stop.
+	 */
+	private boolean readObject(Node node) throws IOException {
+		int c = nextNonSpace();
+		if (c == '}') {
+			return true;
+		}
+		while (true) {
+			if (c != '"') {
+				throw malformed("expected a key");
+			}
+			keyLength = readString(-1);
+			if (nextNonSpace() != ':') {
+				throw malformed("expected ':'");
+			}
+			Node child = node.find(key, keyLength);
+			c = nextNonSpace();
+			if (child != null && c == '"' && child.path >= 0 && !found[child.path]) {
+				lengths[child.path] = readString(child.path);
+				found[child.path] = true;
+				if (++foundCount == paths) {
+					return false;
+				}
+			} else if (child != null && c == '{' && !child.children.isEmpty()) {
+				if (!readObject(child)) {
+					return false;
+				}
+			} else {
+				skipValue(c);
+			}
+			c = nextNonSpace();
+			if (c == '}') {
+				return true;
+			}
+			if (c != ',') {
+				throw malformed("expected ',' or '}'");
+			}
+			c = nextNonSpace();
+		}
+	}
+
+	/**
+	 * Skips a value whose first byte, c, has been read.
+	 */
+	private void skipValue(int c) throws IOException {
+		if (c == '"') {
+			skipString();
+		} else if (c == '{' || c == '[') {
+			int depth = 1;
+			while (depth > 0) {
+				c = read();
+				if (c == '"') {
+					skipString();
+				} else if (c == '{' || c == '[') {
+					++depth;
+				} else if (c == '}' || c == ']') {
+					--depth;
+				}
+			}
+		} else {
+			// A number, true, false or null runs up to the next delimiter
+			while (pos < limit || fill()) {
+				c = buf[pos];
+				if (c == ',' || c == '}' || c == ']' || isSpace(c)) {
+					return;
+				}
+				++pos;
+			}
+		}
+	}
+
+	private void skipString() throws IOException {
+		while (true) {
+			int c = read();
+			if (c == '"') {
+				return;
+			}
+			if (c == '\\') {
+				read();
+			}
+		}
+	}
+
+	/**
+	 * Reads a string whose '"' has been read, unescaped, into the key buffer
+	 * (path -1) or the value buffer of a path, and returns its length.
+	 */
+	private int readString(int path) throws IOException {
+		byte[] dest = path < 0 ? key : values[path];
+		int length = 0;
+		while (true) {
+			if (pos == limit && !fill()) {
+				throw new EOFException("Unterminated JSON string");
+			}
+			// Copy the run up to the next quote or escape in one go
+			int start = pos;
+			while (pos < limit && buf[pos] != '"' && buf[pos] != '\\') {
+				++pos;
+			}
+			dest = ensure(dest, path, length + (pos - start) + 4);
+			System.arraycopy(buf, start, dest, length, pos - start);
+			length += pos - start;
+			if (pos == limit) {
+				continue;
+			}
+			if (buf[pos++] == '"') {
+				return length;
+			}
+			int c = read();
+			switch (c) {
+			case 'b':
+				dest[length++] = '\b';
+				break;
+			case 'f':
+				dest[length++] = '\f';
+				break;
+			case 'n':
+				dest[length++] = '\n';
+				break;
+			case 'r':
+				dest[length++] = '\r';
+				break;
+			case 't':
+				dest[length++] = '\t';
+				break;
+			case 'u':
+				length = appendUtf8(dest, length, readCodePoint());
+				break;
+			default:
+				// \" \\ \/ and anything else stand for themselves
+				dest[length++] = (byte) c;
+			}
+		}
+	}
+
+	private int readCodePoint() throws IOException {
+		int cp = readHex();
+		if (Character.isHighSurrogate((char) cp)) {
+			// A pair is written as two escapes
+			if (read() != '\\' || read() != 'u') {
+				throw malformed("unpaired surrogate");
+			}
+			int low = readHex();
+			if (!Character.isLowSurrogate((char) low)) {
+				throw malformed("unpaired surrogate");
+			}
+			cp = Character.toCodePoint((char) cp, (char) low);
+		} else if (Character.isLowSurrogate((char) cp)) {
+			throw malformed("unpaired surrogate");
+		}
+		return cp;
+	}
+
+	private int readHex() throws IOException {
+		int v = 0;
+		for (int i = 0; i < 4; ++i) {
+			int d = Character.digit(read(), 16);
+			if (d < 0) {
+				throw malformed("bad \\u escape");
+			}
+			v = (v << 4) | d;
+		}
+		return v;
+	}
+
+	private static int appendUtf8(byte[] b, int at, int cp) {
+		if (cp < 0x80) {
+			b[at++] = (byte) cp;
+		} else if (cp < 0x800) {
+			b[at++] = (byte) (0xc0 | (cp >> 6));
+			b[at++] = (byte) (0x80 | (cp & 0x3f));
+		} else if (cp < 0x10000) {
+			b[at++] = (byte) (0xe0 | (cp >> 12));
+			b[at++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+			b[at++] = (byte) (0x80 | (cp & 0x3f));
+		} else {
+			b[at++] = (byte) (0xf0 | (cp >> 18));
+			b[at++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+			b[at++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+			b[at++] = (byte) (0x80 | (cp & 0x3f));
+		}
+		return at;
+	}
+
+	/**
+	 * Grows a destination buffer to hold at least size bytes.
+	 */
+	private byte[] ensure(byte[] dest, int path, int size) {
+		if (size <= dest.length) {
+			return dest;
+		}
+		dest = Arrays.copyOf(dest, Math.max(size, dest.length * 2));
+		if (path < 0) {
+			key = dest;
+		} else {
+			values[path] = dest;
+		}
+		return dest;
+	}
+
+	private int nextNonSpace() throws IOException {
+		int c;
+		do {
+			c = read();
+		} while (isSpace(c));
+		return c;
+	}
+
+	private int read() throws IOException {
+		if (pos == limit && !fill()) {
+			throw new EOFException("Unexpected end of JSON");
+		}
+		return buf[pos++] & 0xff;
+	}
+
+	private boolean fill() throws IOException {
+		consumed += limit;
+		pos = 0;
+		limit = 0;
+		int n = in.read(buf, 0, buf.length);
+		if (n <= 0) {
+			return false;
+		}
+		limit = n;
+		return true;
+	}
+
+	private IOException malformed(String message) {
+		return new IOException("Malformed JSON at byte " + (consumed + pos) + ": " + message);
+	}
+
+	private static boolean isSpace(int c) {
+		return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+	}
+
+	private static boolean equal(byte[] a, byte[] b, int len) {
+		for (int i = 0; i < len; ++i) {
+			if (a[i] != b[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,277 @@
+package org.commoncrawl.warc;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.util.Progressable;
+import org.apache.log4j.Logger;
+
+/**
+ * A node local disk cache of whole remote input files, so that several
+ * jobs over the same crawl segment download each file once.
+ *
+ * Entries are keyed by the file's path, length and modification time, so
+ * a changed file is fetched again and its old entry ages out. Total disk
+ * use is capped at {@link #MAX_BYTES}, evicting the least recently used
+ * entries; files larger than the cap are not cached.
+ *
+ * Several task JVMs on a node can share a cache directory. A file is
+ * fetched by one of them while the others wait on a file lock, into a
+ * temporary file that is renamed into place when complete, so no reader
+ * sees a partial entry. Locks are striped over a fixed set of lock files,
+ * which are never deleted. An entry evicted while it is being read stays
+ * readable until closed.
+ */
+public class LocalFileCache {
+	private static final Logger LOG = Logger.getLogger(LocalFileCache.class);
+
+	/** Local directory of the cache; no caching if unset (the default). */
+	public static final String DIR = "warc.cache.dir";
+	/** Maximum bytes of cached files; 20GB by default. */
+	public static final String MAX_BYTES = "warc.cache.max.bytes";
+
+	public static final long DEFAULT_MAX_BYTES = 20L * 1024 * 1024 * 1024;
+
+	private static final String SUFFIX = ".cached";
+	private static final int STRIPES = 64;
+	// Stale temporary files of failed fetches are removed after this many milliseconds
+	private static final long TMP_EXPIRY = 24 * 60 * 60 * 1000L;
+	// File locks are held per JVM, so threads of one JVM also lock these
+	private static final Object[] MONITORS = new Object[STRIPES + 1];
+
+	static {
+		for (int i = 0; i < MONITORS.length; ++i) {
+			MONITORS[i] = new Object();
+		}
+	}
+
+	private final File dir;
+	private final long maxBytes;
+
+	public LocalFileCache(File dir, long maxBytes) {
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns the cache configured by {@link #DIR}, or null if there is none.
+	 */
+	public static LocalFileCache get(Configuration conf) {
+		String dir = conf.get(DIR);
+		if (dir == null || dir.isEmpty()) {
+			return null;
+		}
+		return new LocalFileCache(new File(dir), conf.getLong(MAX_BYTES, DEFAULT_MAX_BYTES));
+	}
+
+	public static void setCache(Job job, String dir, long maxBytes) {
+		job.getConfiguration().set(DIR, dir);
+		job.getConfiguration().setLong(MAX_BYTES, maxBytes);
+	}
+
+	/**
+	 * Opens the cached copy of a file, fetching it first if it is not
+	 * cached. Returns null if the file is too large to cache. progress, if
+	 * not null, is told of progress while fetching.
+	 */
+	public FSDataInputStream open(FileStatus status, Configuration conf, Progressable progress) throws IOException {
+		if (status.getLen() > maxBytes) {
+			return null;
+		}
+		FileSystem local = FileSystem.getLocal(conf).getRaw();
+		for (int attempt = 0;; ++attempt) {
+			File entry = fetch(status, conf, progress);
+			try {
+				return local.open(new Path(entry.getAbsolutePath()));
+			} catch (FileNotFoundException ex) {
+				// Evicted by another task in between; fetch it again, once
+				if (attempt > 0) {
+					throw ex;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the cached copy of a file, fetching it first if it is not cached.
+	 */
+	public File fetch(FileStatus status, Configuration conf, Progressable progress) throws IOException {
+		String key = key(status);
+		File entry = new File(dir, key + SUFFIX);
+		if (hit(entry, status.getLen())) {
+			return entry;
+		}
+		if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+			throw new IOException("Cannot create cache directory " + dir);
+		}
+		int stripe = (Integer.parseInt(key.substring(0, 4), 16) & 0xffff) % STRIPES;
+		synchronized (MONITORS[stripe]) {
+			RandomAccessFile lockFile = new RandomAccessFile(new File(dir, "lock-" + stripe), "rw");
+			try {
+				FileLock lock = lockFile.getChannel().lock();
+				try {
+					// Another task may have fetched it while we waited
+					if (hit(entry, status.getLen())) {
+						return entry;
+					}
+					evict(status.getLen(), entry);
+					download(status, conf, entry, progress);
+					return entry;
+				} finally {
+					lock.release();
+				}
+			} finally {
+				lockFile.close();
+			}
+		}
+	}
+
+	private static boolean hit(File entry, long length) {
+		if (entry.isFile() && entry.length() == length) {
+			// The modification time orders entries for eviction
+			entry.setLastModified(System.currentTimeMillis());
+			return true;
+		}
+		return false;
+	}
+
+	private void download(FileStatus status, Configuration conf, File entry, Progressable progress) throws IOException {
+		Path path = status.getPath();
+		long start = System.currentTimeMillis();
+		File tmp = File.createTempFile(entry.getName(), ".tmp", dir);
+		try {
+			InputStream in;
+			if (conf.getInt(PrefetchingInputStream.PARTS, 0) > 0) {
+				in = new PrefetchingInputStream(PrefetchingInputStream.getSource(path, conf), 0, status.getLen(), conf);
+			} else {
+				in = path.getFileSystem(conf).open(path);
+			}
+			OutputStream out = new FileOutputStream(tmp);
+			try {
+				byte[] buffer = new byte[1024 * 1024];
+				int n;
+				while ((n = in.read(buffer)) > 0) {
+					out.write(buffer, 0, n);
+					if (progress != null) {
+						progress.progress();
+					}
+				}
+			} finally {
+				out.close();
+				in.close();
+			}
+			if (tmp.length() != status.getLen()) {
+				throw new IOException("Fetched " + tmp.length() + " of " + status.getLen() + " bytes of " + path);
+			}
+			if (!tmp.renameTo(entry)) {
+				throw new IOException("Cannot rename " + tmp + " to " + entry);
+			}
+		} finally {
+			tmp.delete();
+		}
+		LOG.info("Cached " + path + " (" + status.getLen() + " bytes) in " + (System.currentTimeMillis() - start) + "ms");
+	}
+
+	/**
+	 * Deletes the least recently used entries until there is room for
+	 * length more bytes, and stale temporary files.
+	 */
+	private void evict(long length, File keep) {
+		synchronized (MONITORS[STRIPES]) {
+			try {
+				RandomAccessFile lockFile = new RandomAccessFile(new File(dir, "lock-evict"), "rw");
+				try {
+					FileLock lock = lockFile.getChannel().lock();
+					try {
+						evictLocked(length, keep);
+					} finally {
+						lock.release();
+					}
+				} finally {
+					lockFile.close();
+				}
+			} catch (IOException ex) {
+				LOG.warn("Failed evicting from " + dir, ex);
+			}
+		}
+	}
+
+	private void evictLocked(long length, File keep) {
+		final long now = System.currentTimeMillis();
+		File[] stale = dir.listFiles(new FileFilter() {
+			public boolean accept(File f) {
+				return f.getName().endsWith(".tmp") && f.lastModified() < now - TMP_EXPIRY;
+			}
+		});
+		for (File f : stale) {
+			f.delete();
+		}
+		File[] entries = dir.listFiles(new FileFilter() {
+			public boolean accept(File f) {
+				return f.getName().endsWith(SUFFIX);
+			}
+		});
+		long total = 0;
+		final long[] used = new long[entries.length];
+		for (int i = 0; i < entries.length; ++i) {
+			used[i] = entries[i].lastModified();
+			total += entries[i].length();
+		}
+		Integer[] order = new Integer[entries.length];
+		for (int i = 0; i < order.length; ++i) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return used[a] < used[b] ? -1 : used[a] > used[b] ? 1 : 0;
+			}
+		});
+		for (int i = 0; i < order.length && total + length > maxBytes; ++i) {
+			File f = entries[order[i]];
+			if (f.equals(keep)) {
+				continue;
+			}
+			long size = f.length();
+			if (f.delete()) {
+				total -= size;
+				LOG.info("Evicted " + f.getName() + " (" + size + " bytes) from the cache");
+			}
+		}
+	}
+
+	// A hash of the path, length and modification time, and the file name for readability
+	private static String key(FileStatus status) {
+		String id = status.getPath().toUri() + "|" + status.getLen() + "|" + status.getModificationTime();
+		try {
+			MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+			byte[] digest = sha1.digest(id.getBytes("UTF-8"));
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < 12; ++i) {
+				sb.append(Character.forDigit((digest[i] >> 4) & 15, 16)).append(Character.forDigit(digest[i] & 15, 16));
+			}
+			return sb.append('-').append(status.getPath().getName()).toString();
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex);
+		} catch (UnsupportedEncodingException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+}
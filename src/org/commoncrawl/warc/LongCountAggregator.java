@@ -0,0 +1,206 @@
+package org.commoncrawl.warc;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+
+/**
+ * Sums counts per key inside a mapper, so each distinct key is written once
+ * per flush rather than once per occurrence.
+ *
+ * Keys are raw UTF-8 bytes kept in a single arena; the table uses open
+ * addressing with primitive long counts, so adding a key that is already
+ * present allocates nothing. Callers flush the table when
+ * {@link #isFull()} says it has reached {@link #MAX_BYTES}, and at the end
+ * of the task.
+ *
+ * Instances are not thread safe; use one per thread.
+ */
+public class LongCountAggregator {
+	/** Approximate memory one aggregator may use before it asks to be flushed. */
+	public static final String MAX_BYTES = "warc.aggregate.bytes";
+	private static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final long maxBytes;
+	private byte[] arena = new byte[64 * 1024];
+	private int arenaUsed;
+	// Per slot: key offset in the arena (-1 when empty), key length, hash and count
+	private int[] offsets;
+	private int[] lengths;
+	private int[] hashes;
+	private long[] counts;
+	private int size;
+
+	private final Text key = new Text();
+	private final LongWritable value = new LongWritable();
+
+	public LongCountAggregator(long maxBytes) {
+		this.maxBytes = maxBytes;
+		allocate(INITIAL_CAPACITY);
+	}
+
+	public LongCountAggregator(Configuration conf) {
+		this(conf.getLong(MAX_BYTES, DEFAULT_MAX_BYTES));
+	}
+
+	private void allocate(int capacity) {
+		offsets = new int[capacity];
+		Arrays.fill(offsets, -1);
+		lengths = new int[capacity];
+		hashes = new int[capacity];
+		counts = new long[capacity];
+	}
+
+	public void add(Text key, long n) {
+		add(key.getBytes(), 0, key.getLength(), n);
+	}
+
+	/**
+	 * Adds n to the count of the key b[off, off+len).
+	 */
+	public void add(byte[] b, int off, int len, long n) {
+		int hash = hash(b, off, len);
+		int mask = offsets.length - 1;
+		int slot = hash & mask;
+		while (offsets[slot] >= 0) {
+			if (hashes[slot] == hash && lengths[slot] == len && equal(arena, offsets[slot], b, off, len)) {
+				counts[slot] += n;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		if (arenaUsed + len > arena.length) {
+			arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaUsed + len));
+		}
+		System.arraycopy(b, off, arena, arenaUsed, len);
+		offsets[slot] = arenaUsed;
+		lengths[slot] = len;
+		hashes[slot] = hash;
+		counts[slot] = n;
+		arenaUsed += len;
+		if (++size * 2 > offsets.length) {
+			grow();
+		}
+	}
+
+	private void grow() {
+		int[] oldOffsets = offsets;
+		int[] oldLengths = lengths;
+		int[] oldHashes = hashes;
+		long[] oldCounts = counts;
+		allocate(oldOffsets.length * 2);
+		int mask = offsets.length - 1;
+		for (int i = 0; i < oldOffsets.length; ++i) {
+			if (oldOffsets[i] < 0) {
+				continue;
+			}
+			int slot = oldHashes[i] & mask;
+			while (offsets[slot] >= 0) {
+				slot = (slot + 1) & mask;
+			}
+			offsets[slot] = oldOffsets[i];
+			lengths[slot] = oldLengths[i];
+			hashes[slot] = oldHashes[i];
+			counts[slot] = oldCounts[i];
+		}
+	}
+
+	/**
+	 * Returns the number of distinct keys held.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the approximate memory held by the keys and the table.
+	 */
+	public long getBytes() {
+		return arena.length + offsets.length * 20L;
+	}
+
+	/**
+	 * Returns true once the table has reached its memory threshold and
+	 * should be flushed.
+	 */
+	public boolean isFull() {
+		return getBytes() >= maxBytes;
+	}
+
+	public void flush(final TaskInputOutputContext<?, ?, Text, LongWritable> context)
+			throws IOException, InterruptedException {
+		flush(new Sink() {
+			@Override
+			public void write(Text key, LongWritable value) throws IOException, InterruptedException {
+				context.write(key, value);
+			}
+		});
+	}
+
+	public void flush(final ParallelArchiveMapper.Output<Text, LongWritable> out)
+			throws IOException, InterruptedException {
+		flush(new Sink() {
+			@Override
+			public void write(Text key, LongWritable value) throws IOException, InterruptedException {
+				out.write(key, value);
+			}
+		});
+	}
+
+	private interface Sink {
+		void write(Text key, LongWritable value) throws IOException, InterruptedException;
+	}
+
+	/**
+	 * Writes every key with its count and empties the table.
+	 */
+	private void flush(Sink sink) throws IOException, InterruptedException {
+		for (int i = 0; i < offsets.length; ++i) {
+			if (offsets[i] >= 0) {
+				key.set(arena, offsets[i], lengths[i]);
+				value.set(counts[i]);
+				sink.write(key, value);
+			}
+		}
+		clear();
+	}
+
+	private void clear() {
+		if (offsets.length > INITIAL_CAPACITY * 64) {
+			// Don't hold on to a table sized for a burst of keys
+			allocate(INITIAL_CAPACITY);
+			arena = new byte[64 * 1024];
+		} else {
+			Arrays.fill(offsets, -1);
+		}
+		arenaUsed = 0;
+		size = 0;
+	}
+
+	private static int hash(byte[] b, int off, int len) {
+		// FNV-1a with a final mix, as table indexes use the low bits
+		int h = 0x811c9dc5;
+		for (int i = off; i < off + len; ++i) {
+			h = (h ^ (b[i] & 0xff)) * 0x01000193;
+		}
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		return h;
+	}
+
+	private static boolean equal(byte[] a, int aoff, byte[] b, int boff, int len) {
+		for (int i = 0; i < len; ++i) {
+			if (a[aoff + i] != b[boff + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,98 @@
+package org.commoncrawl.warc;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.archive.io.ArchiveRecord;
+
+/**
+ * An ArchiveReader over the members produced by a {@link MemberSource}.
+ * Each record reports the offset of the member it was read from, which is
+ * the offset a CDX index would give for it.
+ */
+public class MemberArchiveReader extends IteratingArchiveReader {
+	private final MemberSource source;
+
+	public MemberArchiveReader(String identifier, MemberSource source) {
+		super(identifier);
+		this.source = source;
+	}
+
+	@Override
+	public Iterator<ArchiveRecord> iterator() {
+		return new RecordIterator();
+	}
+
+	@Override
+	public void close() throws IOException {
+		source.close();
+	}
+
+	private class RecordIterator implements Iterator<ArchiveRecord> {
+		private MemberSource.Member member;
+		private ByteArrayInputStream in;
+		private ArchiveRecord current;
+
+		@Override
+		public boolean hasNext() {
+			try {
+				if (current != null) {
+					current.close();
+					current = null;
+				}
+				while (true) {
+					if (in != null) {
+						skipSeparator(in);
+						if (in.available() > 0) {
+							return true;
+						}
+					}
+					member = source.next();
+					if (member == null) {
+						in = null;
+						return false;
+					}
+					in = new ByteArrayInputStream(member.data, 0, member.length);
+				}
+			} catch (IOException ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+
+		@Override
+		public ArchiveRecord next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			try {
+				current = createArchiveRecord(in, member.offset);
+			} catch (IOException ex) {
+				throw new RuntimeException(ex);
+			}
+			return current;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Skips the CRLFs that separate a record from the next one in the same member.
+	 */
+	private static void skipSeparator(ByteArrayInputStream in) {
+		while (true) {
+			in.mark(1);
+			int c = in.read();
+			if (c != '\r' && c != '\n') {
+				if (c != -1) {
+					in.reset();
+				}
+				return;
+			}
+		}
+	}
+}
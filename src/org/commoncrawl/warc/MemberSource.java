@@ -0,0 +1,31 @@
+package org.commoncrawl.warc;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A source of decompressed archive members, in file order.
+ */
+public interface MemberSource extends Closeable {
+
+	/**
+	 * Returns the next decompressed member, or null at the end of the input.
+	 */
+	Member next() throws IOException;
+
+	/**
+	 * The decompressed bytes of one member (normally a single WARC record)
+	 * and the offset of its compressed bytes in the input.
+	 */
+	public static class Member {
+		public final long offset;
+		public final byte[] data;
+		public final int length;
+
+		public Member(long offset, byte[] data, int length) {
+			this.offset = offset;
+			this.data = data;
+			this.length = length;
+		}
+	}
+}
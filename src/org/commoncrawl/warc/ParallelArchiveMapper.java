@@ -0,0 +1,346 @@
+package org.commoncrawl.warc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.log4j.Logger;
+import org.archive.io.ArchiveReader;
+import org.archive.io.ArchiveRecord;
+import org.archive.io.ArchiveRecordHeader;
+import org.commoncrawl.warc.StageTimer.Stage;
+
+/**
+ * A mapper over ArchiveReaders that processes records on a pool of worker
+ * threads, so one task can keep all the cores of a node busy.
+ *
+ * The map thread iterates the records, asks {@link #accept} whether each is
+ * wanted, reads the wanted payloads into buffers from a bounded
+ * {@link PayloadBufferPool} and queues them. Payloads larger than
+ * {@link PayloadBuffer#MAX_BYTES} are not loaded whole but processed on the
+ * map thread, streaming from the ArchiveReader. Each worker
+ * owns a {@link RecordProcessor} from {@link #createProcessor}, so processors
+ * need not be thread safe. Output and counters go through an {@link Output}
+ * per thread, which buffers them and hands them to the Context in batches
+ * under a lock.
+ *
+ * With {@link #THREADS} at 1 or less (the default) records are processed on
+ * the map thread straight from the ArchiveReader, without copying payloads.
+ *
+ * Each thread times the records it handles with a {@link StageTimer}, which
+ * processors reach through {@link Output#getTimer} to time their own stages;
+ * the timings are published as counters when the task ends. Processors log
+ * record errors through {@link Output#logError}, which samples them with a
+ * {@link SampledErrorLog} shared by the task.
+ */
+public abstract class ParallelArchiveMapper<KOUT extends Writable, VOUT extends Writable>
+		extends Mapper<Text, ArchiveReader, KOUT, VOUT> {
+	private static final Logger LOG = Logger.getLogger(ParallelArchiveMapper.class);
+
+	/** Number of threads processing records in each map task. */
+	public static final String THREADS = "warc.mapper.threads";
+
+	// Buffered output is handed to the Context once it grows past this
+	private static final int FLUSH_BYTES = 64 * 1024;
+
+	/**
+	 * Processes the records given to one thread.
+	 */
+	public static abstract class RecordProcessor<K, V> {
+		/**
+		 * Processes a record's payload. The stream is only valid during the call.
+		 */
+		public abstract void process(ArchiveRecordHeader header, InputStream payload, Output<K, V> out)
+				throws IOException, InterruptedException;
+
+		/**
+		 * Called once after the thread's last record.
+		 */
+		public void finish(Output<K, V> out) throws IOException, InterruptedException {
+		}
+	}
+
+	/**
+	 * Collects the output and counter increments of one thread.
+	 */
+	public static class Output<K, V> {
+		private final Mapper<?, ?, K, V>.Context context;
+		private final boolean buffered;
+		private final StageTimer timer;
+		private final SampledErrorLog errors;
+		private final Map<Enum<?>, long[]> counters = new HashMap<Enum<?>, long[]>();
+		private final DataOutputBuffer buffer = new DataOutputBuffer();
+		private final DataInputBuffer input = new DataInputBuffer();
+		private K key;
+		private V value;
+
+		Output(Mapper<?, ?, K, V>.Context context, boolean buffered, SampledErrorLog errors) {
+			this.context = context;
+			this.buffered = buffered;
+			this.timer = new StageTimer(context.getConfiguration());
+			this.errors = errors;
+		}
+
+		/**
+		 * Returns the timer of this thread, for timing the stages of processing.
+		 */
+		public StageTimer getTimer() {
+			return timer;
+		}
+
+		/**
+		 * Logs a failure to process a record, unless too many have been logged lately.
+		 */
+		public void logError(Logger log, ArchiveRecordHeader header, Throwable t) {
+			errors.log(log, header, t);
+		}
+
+		public void write(K key, V value) throws IOException, InterruptedException {
+			if (!buffered) {
+				context.write(key, value);
+				return;
+			}
+			((Writable) key).write(buffer);
+			((Writable) value).write(buffer);
+			if (buffer.getLength() >= FLUSH_BYTES) {
+				flush();
+			}
+		}
+
+		public void increment(Enum<?> counter, long amount) {
+			long[] total = counters.get(counter);
+			if (total == null) {
+				total = new long[1];
+				counters.put(counter, total);
+			}
+			total[0] += amount;
+		}
+
+		/**
+		 * Hands the buffered output and counts to the Context.
+		 */
+		@SuppressWarnings("unchecked")
+		void flush() throws IOException, InterruptedException {
+			synchronized (context) {
+				if (buffer.getLength() > 0) {
+					if (key == null) {
+						Configuration conf = context.getConfiguration();
+						key = (K) ReflectionUtils.newInstance(context.getMapOutputKeyClass(), conf);
+						value = (V) ReflectionUtils.newInstance(context.getMapOutputValueClass(), conf);
+					}
+					input.reset(buffer.getData(), buffer.getLength());
+					while (input.getPosition() < buffer.getLength()) {
+						((Writable) key).readFields(input);
+						((Writable) value).readFields(input);
+						context.write(key, value);
+					}
+					buffer.reset();
+				}
+				for (Map.Entry<Enum<?>, long[]> e : counters.entrySet()) {
+					if (e.getValue()[0] != 0) {
+						context.getCounter(e.getKey()).increment(e.getValue()[0]);
+						e.getValue()[0] = 0;
+					}
+				}
+			}
+		}
+	}
+
+	private static class Task {
+		final ArchiveRecordHeader header;
+		final PayloadBuffer payload;
+		// Time the map thread spent reading the payload
+		final long readNanos;
+
+		Task(ArchiveRecordHeader header, PayloadBuffer payload, long readNanos) {
+			this.header = header;
+			this.payload = payload;
+			this.readNanos = readNanos;
+		}
+	}
+
+	private static final Task END = new Task(null, null, 0);
+
+	private Output<KOUT, VOUT> mapOutput;
+	private RecordProcessor<KOUT, VOUT> inline;
+	// With workers: the map thread's processor for payloads too large to buffer
+	private RecordProcessor<KOUT, VOUT> oversize;
+	private PayloadBufferPool buffers;
+	private BlockingQueue<Task> queue;
+	private List<Worker> workers;
+	private SampledErrorLog errors;
+	private volatile Throwable failure;
+
+	public static void setThreads(Job job, int threads) {
+		job.getConfiguration().setInt(THREADS, threads);
+	}
+
+	/**
+	 * Creates the processor used by one thread.
+	 */
+	protected abstract RecordProcessor<KOUT, VOUT> createProcessor(Context context)
+			throws IOException, InterruptedException;
+
+	/**
+	 * Decides on the map thread, from the header alone, whether a record is
+	 * processed. Counts may be recorded through out. Accepts all by default.
+	 */
+	protected boolean accept(ArchiveRecordHeader header, Output<KOUT, VOUT> out) {
+		return true;
+	}
+
+	@Override
+	protected void setup(Context context) throws IOException, InterruptedException {
+		Configuration conf = context.getConfiguration();
+		int threads = conf.getInt(THREADS, 1);
+		errors = new SampledErrorLog(conf);
+		if (threads <= 1) {
+			mapOutput = new Output<KOUT, VOUT>(context, false, errors);
+			inline = createProcessor(context);
+			return;
+		}
+		mapOutput = new Output<KOUT, VOUT>(context, true, errors);
+		// Enough buffers for a full queue plus one being processed by each worker
+		buffers = new PayloadBufferPool(threads * 3, PayloadBuffer.getMaxBytes(conf));
+		queue = new ArrayBlockingQueue<Task>(threads * 2);
+		workers = new ArrayList<Worker>();
+		for (int i = 0; i < threads; ++i) {
+			Worker worker = new Worker(createProcessor(context), new Output<KOUT, VOUT>(context, true, errors));
+			worker.setName("record-worker-" + i);
+			worker.setDaemon(true);
+			worker.start();
+			workers.add(worker);
+		}
+	}
+
+	@Override
+	public void map(Text key, ArchiveReader value, Context context) throws IOException, InterruptedException {
+		StageTimer timer = mapOutput.getTimer();
+		Iterator<ArchiveRecord> records = value.iterator();
+		while (true) {
+			long start = timer.start();
+			if (!records.hasNext()) {
+				break;
+			}
+			ArchiveRecord r = records.next();
+			timer.stop(Stage.WARC_HEADER, start);
+			ArchiveRecordHeader header = r.getHeader();
+			if (!accept(header, mapOutput)) {
+				continue;
+			}
+			if (inline != null) {
+				long begin = timer.begin();
+				inline.process(header, timer.timed(r), mapOutput);
+				timer.record(header, begin, 0);
+				continue;
+			}
+			checkFailure();
+			PayloadBuffer payload = buffers.take();
+			long begin = timer.begin();
+			if (payload.read(r)) {
+				queue.put(new Task(header, payload, timer.stop(Stage.DECOMPRESS, begin)));
+				continue;
+			}
+			// The record stream is only valid until the next record, so process it here
+			if (oversize == null) {
+				oversize = createProcessor(context);
+			}
+			try {
+				oversize.process(header, timer.timed(payload.getInputStream()), mapOutput);
+				timer.record(header, begin, 0);
+			} finally {
+				buffers.release(payload);
+			}
+		}
+	}
+
+	@Override
+	protected void cleanup(Context context) throws IOException, InterruptedException {
+		if (inline != null) {
+			inline.finish(mapOutput);
+		} else {
+			if (oversize != null) {
+				oversize.finish(mapOutput);
+			}
+			for (int i = 0; i < workers.size(); ++i) {
+				queue.put(END);
+			}
+			for (Thread worker : workers) {
+				worker.join();
+			}
+			checkFailure();
+			for (Worker worker : workers) {
+				mapOutput.getTimer().merge(worker.out.getTimer());
+			}
+		}
+		mapOutput.flush();
+		mapOutput.getTimer().publish(context);
+		if (errors.getCount() > 0) {
+			LOG.warn(errors.getCount() + " records failed processing");
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		if (failure != null) {
+			throw new IOException("Record processing failed", failure);
+		}
+	}
+
+	private class Worker extends Thread {
+		private final RecordProcessor<KOUT, VOUT> processor;
+		private final Output<KOUT, VOUT> out;
+
+		Worker(RecordProcessor<KOUT, VOUT> processor, Output<KOUT, VOUT> out) {
+			this.processor = processor;
+			this.out = out;
+		}
+
+		@Override
+		public void run() {
+			try {
+				Task task;
+				while ((task = queue.take()) != END) {
+					try {
+						if (failure == null) {
+							long begin = out.getTimer().begin();
+							processor.process(task.header, task.payload.getInputStream(), out);
+							out.getTimer().record(task.header, begin, task.readNanos);
+						}
+					} finally {
+						buffers.release(task.payload);
+					}
+				}
+				if (failure == null) {
+					processor.finish(out);
+				}
+				out.flush();
+			} catch (Throwable t) {
+				LOG.error("Record processing failed", t);
+				failure = t;
+				// Keep taking tasks so the map thread is not blocked
+				try {
+					Task task;
+					while ((task = queue.take()) != END) {
+						buffers.release(task.payload);
+					}
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+}
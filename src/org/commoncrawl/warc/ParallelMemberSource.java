@@ -0,0 +1,297 @@
+package org.commoncrawl.warc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Inflater;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.log4j.Logger;
+
+/**
+ * Inflates the gzip members of a single WARC file on several threads.
+ *
+ * A scanner thread reads the raw input and cuts it at gzip member
+ * boundaries (see {@link GzipMembers}); a bounded pool of workers inflates
+ * the members, and {@link #next()} hands them back in file order. At most
+ * {@code queueSize} members are scanned ahead of the consumer.
+ *
+ * Member offsets are relative to the start of the given stream.
+ */
+public class ParallelMemberSource implements MemberSource {
+	private static final Logger LOG = Logger.getLogger(ParallelMemberSource.class);
+	private static final int INITIAL_BUFFER = 1024 * 1024;
+	private static final int READ_SIZE = 64 * 1024;
+
+	private final InputStream raw;
+	private final ExecutorService pool;
+	private final BlockingQueue<GzipMemberInflater> inflaters;
+	private final BlockingQueue<Future<Chunk>> queue;
+	private final Future<Chunk> endOfInput;
+	// Queued last when the scanner fails, in place of endOfInput
+	private volatile Future<Chunk> failure;
+	private final Thread scanner;
+	private final GzipMemberInflater consumerInflater;
+	private volatile boolean closed;
+
+	/**
+	 * A raw member as cut by the scanner, and its decompressed form if the
+	 * cut turned out to be at a real member boundary.
+	 */
+	private static class Chunk {
+		final long offset;
+		final byte[] raw;
+		Member member;
+
+		Chunk(long offset, byte[] raw) {
+			this.offset = offset;
+			this.raw = raw;
+		}
+	}
+
+	public ParallelMemberSource(InputStream raw, int threads, int queueSize) {
+		this(raw, threads, queueSize, "java", new Configuration());
+	}
+
+	/**
+	 * Inflates with {@link RawInflater}s of the given kind.
+	 */
+	public ParallelMemberSource(InputStream raw, int threads, int queueSize, String inflater, Configuration conf) {
+		this.raw = raw;
+		this.pool = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("warc-inflater"));
+		this.inflaters = new ArrayBlockingQueue<GzipMemberInflater>(threads);
+		for (int i = 0; i < threads; ++i) {
+			inflaters.add(new GzipMemberInflater(RawInflater.create(inflater, conf)));
+		}
+		this.consumerInflater = new GzipMemberInflater(RawInflater.create(inflater, conf));
+		this.queue = new ArrayBlockingQueue<Future<Chunk>>(Math.max(1, queueSize));
+		FutureTask<Chunk> end = new FutureTask<Chunk>(new Runnable() {
+			@Override
+			public void run() {
+			}
+		}, null);
+		end.run();
+		this.endOfInput = end;
+		this.scanner = new DaemonThreadFactory("warc-scanner").newThread(new Scanner());
+		this.scanner.start();
+	}
+
+	@Override
+	public Member next() throws IOException {
+		Chunk chunk = take();
+		if (chunk == null) {
+			return null;
+		}
+		if (chunk.member != null) {
+			return chunk.member;
+		}
+		// The scanner cut inside a member; join it with what follows and inflate here
+		ByteArrayOutputStream joined = new ByteArrayOutputStream();
+		joined.write(chunk.raw, 0, chunk.raw.length);
+		while (true) {
+			Chunk more = take();
+			if (more == null) {
+				throw new IOException("Truncated gzip member at offset " + chunk.offset);
+			}
+			joined.write(more.raw, 0, more.raw.length);
+			Member member = consumerInflater.inflate(chunk.offset, joined.toByteArray(), 0, joined.size());
+			if (member != null) {
+				return member;
+			}
+		}
+	}
+
+	private Chunk take() throws IOException {
+		Future<Chunk> f;
+		try {
+			f = queue.take();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for gzip members", ex);
+		}
+		if (f == endOfInput) {
+			// Leave the marker for any further calls
+			queue.offer(f);
+			return null;
+		}
+		if (f == failure) {
+			// Nothing follows a scanner failure, so further calls fail the same way
+			queue.offer(f);
+		}
+		try {
+			return f.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for gzip members", ex);
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		scanner.interrupt();
+		pool.shutdownNow();
+		queue.clear();
+		try {
+			raw.close();
+		} finally {
+			try {
+				pool.awaitTermination(10, TimeUnit.SECONDS);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			List<GzipMemberInflater> idle = new ArrayList<GzipMemberInflater>();
+			inflaters.drainTo(idle);
+			for (GzipMemberInflater inflater : idle) {
+				inflater.end();
+			}
+			consumerInflater.end();
+		}
+	}
+
+	/**
+	 * Cuts the raw input into members and queues each one for inflation.
+	 */
+	private class Scanner implements Runnable {
+		private final Inflater probe = new Inflater(true);
+		private byte[] buf = new byte[INITIAL_BUFFER];
+		// Stream offset of buf[0]
+		private long bufOffset;
+		// Start of the member being scanned, and end of the valid bytes
+		private int start;
+		private int filled;
+		private boolean eof;
+
+		@Override
+		public void run() {
+			try {
+				Chunk chunk;
+				while (!closed && (chunk = nextChunk()) != null) {
+					queue.put(pool.submit(new Inflate(chunk)));
+				}
+				queue.put(endOfInput);
+			} catch (InterruptedException ex) {
+				// Closed by the consumer
+			} catch (final Throwable t) {
+				if (!closed) {
+					LOG.error("Failed scanning gzip members", t);
+					FutureTask<Chunk> failed = new FutureTask<Chunk>(new Callable<Chunk>() {
+						@Override
+						public Chunk call() throws Exception {
+							if (t instanceof Exception) {
+								throw (Exception) t;
+							}
+							throw new IOException(t);
+						}
+					});
+					failed.run();
+					failure = failed;
+					try {
+						queue.put(failed);
+					} catch (InterruptedException ex) {
+						// Closed by the consumer
+					}
+				}
+			} finally {
+				probe.end();
+			}
+		}
+
+		/**
+		 * Returns the bytes from the current member start up to the next
+		 * member start (or the end of the input), or null at the end.
+		 */
+		private Chunk nextChunk() throws IOException {
+			int i = start + 1;
+			while (true) {
+				if (!eof && filled - i <= GzipMembers.OVERLAP) {
+					i -= fill();
+					continue;
+				}
+				int limit = eof ? filled : filled - GzipMembers.OVERLAP;
+				for (; i < limit; ++i) {
+					if (buf[i] == (byte) 0x1f && GzipMembers.isWARCMember(buf, i, filled - i, probe)) {
+						return cut(i);
+					}
+				}
+				if (eof) {
+					return start < filled ? cut(filled) : null;
+				}
+			}
+		}
+
+		private Chunk cut(int at) {
+			Chunk chunk = new Chunk(bufOffset + start, Arrays.copyOfRange(buf, start, at));
+			start = at;
+			return chunk;
+		}
+
+		/**
+		 * Reads more input, compacting or growing the buffer as needed.
+		 * Returns how far existing bytes were moved towards the buffer start.
+		 */
+		private int fill() throws IOException {
+			int shift = 0;
+			if (buf.length - filled < READ_SIZE) {
+				if (start > 0) {
+					shift = start;
+					System.arraycopy(buf, start, buf, 0, filled - start);
+					bufOffset += start;
+					filled -= start;
+					start = 0;
+				}
+				if (buf.length - filled < READ_SIZE) {
+					buf = Arrays.copyOf(buf, buf.length * 2);
+				}
+			}
+			int n = raw.read(buf, filled, buf.length - filled);
+			if (n < 0) {
+				eof = true;
+			} else {
+				filled += n;
+			}
+			return shift;
+		}
+	}
+
+	private class Inflate implements Callable<Chunk> {
+		private final Chunk chunk;
+
+		Inflate(Chunk chunk) {
+			this.chunk = chunk;
+		}
+
+		@Override
+		public Chunk call() throws Exception {
+			// There are as many inflaters as workers, so one is always free
+			GzipMemberInflater inflater = inflaters.take();
+			try {
+				chunk.member = inflater.inflate(chunk.offset, chunk.raw, 0, chunk.raw.length);
+			} finally {
+				inflaters.put(inflater);
+			}
+			return chunk;
+		}
+	}
+}
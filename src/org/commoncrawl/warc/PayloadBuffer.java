@@ -0,0 +1,175 @@
+package org.commoncrawl.warc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Job;
+
+/**
+ * A reusable buffer for reading record payloads into memory, up to a
+ * maximum size.
+ *
+ * The buffer grows as needed up to {@link #MAX_BYTES} and keeps its storage
+ * from one record to the next, so reading a record allocates nothing once
+ * the buffer has grown to the size of the typical record. A payload larger
+ * than the maximum is not loaded whole: only its first bytes are buffered,
+ * {@link #isComplete()} returns false, and {@link #getInputStream()} streams
+ * the rest from the source, which must then stay open until it is read.
+ *
+ * {@link #forThread(Configuration)} hands out one buffer per thread;
+ * {@link PayloadBufferPool} shares a bounded number between threads.
+ */
+public class PayloadBuffer {
+	/** Largest payload, in bytes, that is read into memory whole. */
+	public static final String MAX_BYTES = "warc.payload.max";
+	public static final int DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+
+	private static final int INITIAL_SIZE = 64 * 1024;
+
+	private static final ThreadLocal<PayloadBuffer> LOCAL = new ThreadLocal<PayloadBuffer>() {
+		@Override
+		protected PayloadBuffer initialValue() {
+			return new PayloadBuffer(DEFAULT_MAX_BYTES);
+		}
+	};
+
+	private int maxBytes;
+	private byte[] buf = new byte[0];
+	private int length;
+	private boolean complete = true;
+	private InputStream source;
+	private final BufferStream stream = new BufferStream();
+
+	public PayloadBuffer(int maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	public static void setMaxBytes(Job job, int maxBytes) {
+		job.getConfiguration().setInt(MAX_BYTES, maxBytes);
+	}
+
+	public static int getMaxBytes(Configuration conf) {
+		return conf.getInt(MAX_BYTES, DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * Returns the calling thread's buffer, limited to the configured maximum.
+	 */
+	public static PayloadBuffer forThread(Configuration conf) {
+		PayloadBuffer buffer = LOCAL.get();
+		buffer.maxBytes = getMaxBytes(conf);
+		return buffer;
+	}
+
+	/**
+	 * Reads a payload, replacing the previous contents. Returns true if it
+	 * was read whole, false if it is over the maximum and only its start
+	 * was buffered.
+	 */
+	public boolean read(InputStream in) throws IOException {
+		clear();
+		// ArchiveRecords know how much is left; other streams may just guess
+		int hint = in.available();
+		if (hint > buf.length) {
+			grow(hint);
+		}
+		while (true) {
+			if (length == buf.length) {
+				if (length >= maxBytes) {
+					complete = false;
+					source = in;
+					return false;
+				}
+				grow(length + 1);
+			}
+			int n = in.read(buf, length, buf.length - length);
+			if (n < 0) {
+				return true;
+			}
+			length += n;
+		}
+	}
+
+	private void grow(int needed) {
+		int size = Math.max(Math.max(INITIAL_SIZE, needed), Math.min(buf.length * 2, Integer.MAX_VALUE - 8));
+		buf = Arrays.copyOf(buf, Math.min(size, maxBytes));
+	}
+
+	/**
+	 * Empties the buffer, keeping its storage.
+	 */
+	public void clear() {
+		length = 0;
+		complete = true;
+		source = null;
+	}
+
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Returns the storage holding the buffered bytes, from offset 0.
+	 */
+	public byte[] getBytes() {
+		return buf;
+	}
+
+	/**
+	 * Returns the number of bytes buffered, which is the size of the payload
+	 * if it is complete.
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Returns a stream over the whole payload. It is reused, so only one
+	 * stream from a buffer may be read at a time.
+	 */
+	public InputStream getInputStream() {
+		stream.pos = 0;
+		if (complete) {
+			return stream;
+		}
+		return new SequenceInputStream(stream, source);
+	}
+
+	private class BufferStream extends InputStream {
+		int pos;
+
+		@Override
+		public int read() {
+			return pos < length ? buf[pos++] & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (pos >= length) {
+				return -1;
+			}
+			int n = Math.min(len, length - pos);
+			System.arraycopy(buf, pos, b, off, n);
+			pos += n;
+			return n;
+		}
+
+		@Override
+		public long skip(long n) {
+			int skipped = (int) Math.max(0, Math.min(n, length - pos));
+			pos += skipped;
+			return skipped;
+		}
+
+		@Override
+		public int available() {
+			return length - pos;
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package org.commoncrawl.warc;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A fixed number of {@link PayloadBuffer}s shared between threads.
+ *
+ * Buffers are created on first use, and {@link #take()} blocks while all of
+ * them are in use, which bounds both the memory held by payloads in flight
+ * and how far a producer can run ahead of its consumers.
+ */
+public class PayloadBufferPool {
+	private final int size;
+	private final int maxBytes;
+	private final Deque<PayloadBuffer> free = new ArrayDeque<PayloadBuffer>();
+	private int created;
+
+	public PayloadBufferPool(int size, int maxBytes) {
+		this.size = size;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns an empty buffer, waiting for one to be released if need be.
+	 */
+	public synchronized PayloadBuffer take() throws InterruptedException {
+		while (free.isEmpty() && created == size) {
+			wait();
+		}
+		if (!free.isEmpty()) {
+			return free.pop();
+		}
+		++created;
+		return new PayloadBuffer(maxBytes);
+	}
+
+	public synchronized void release(PayloadBuffer buffer) {
+		buffer.clear();
+		free.push(buffer);
+		notify();
+	}
+}
@@ -0,0 +1,126 @@
+package org.commoncrawl.warc;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+
+/**
+ * Helpers for locating record boundaries in an uncompressed WARC file.
+ *
+ * Records end with a blank line, so candidates are found by the bytes
+ * "\r\n\r\nWARC/1." A candidate is only accepted if its header block has a
+ * Content-Length that leads to the end of the record, followed by another
+ * record or the end of the file, so that a WARC version line inside a
+ * payload is not mistaken for a boundary.
+ */
+public class PlainWARCRecords {
+	private static final byte[] SYNC = { '\r', '\n', '\r', '\n', 'W', 'A', 'R', 'C', '/', '1', '.' };
+	private static final byte[] VERSION = { 'W', 'A', 'R', 'C', '/', '1', '.' };
+	private static final int WINDOW = 64 * 1024;
+	private static final int MAX_HEADER = 64 * 1024;
+	private static final String CONTENT_LENGTH = "content-length:";
+
+	private PlainWARCRecords() {
+	}
+
+	/**
+	 * Returns true if the bytes at the given offset start a WARC version line.
+	 */
+	public static boolean isRecord(byte[] b, int off, int len) {
+		return matches(b, off, len, VERSION);
+	}
+
+	private static boolean matches(byte[] b, int off, int len, byte[] pattern) {
+		if (len < pattern.length) {
+			return false;
+		}
+		for (int i = 0; i < pattern.length; ++i) {
+			if (b[off + i] != pattern[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Scans forward from the given position for the start of the next WARC
+	 * record, using positioned reads so the stream position is left untouched.
+	 * Returns the offset of the record, or the limit if none starts before it.
+	 */
+	public static long nextRecordStart(FSDataInputStream in, long from, long limit, long fileLength) throws IOException {
+		byte[] buf = new byte[WINDOW + SYNC.length];
+		// The blank line ending the previous record may come just before from
+		long pos = Math.max(0, from - 4);
+		while (pos < limit) {
+			int n = readFully(in, pos, buf, (int) Math.min(buf.length, fileLength - pos));
+			if (n < SYNC.length) {
+				break;
+			}
+			int scan = Math.min(n - SYNC.length + 1, WINDOW);
+			for (int i = 0; i < scan; ++i) {
+				long candidate = pos + i + 4;
+				if (buf[i] == '\r' && candidate >= from && candidate < limit && matches(buf, i, n - i, SYNC)) {
+					long next = recordEnd(in, candidate, fileLength);
+					if (next == fileLength || (next > 0 && startsRecord(in, next, fileLength))) {
+						return candidate;
+					}
+				}
+			}
+			pos += scan;
+		}
+		return limit;
+	}
+
+	private static boolean startsRecord(FSDataInputStream in, long offset, long fileLength) throws IOException {
+		byte[] b = new byte[VERSION.length];
+		return readFully(in, offset, b, (int) Math.min(b.length, fileLength - offset)) == b.length && isRecord(b, 0, b.length);
+	}
+
+	/**
+	 * Returns the offset just past the record starting at the given offset,
+	 * including the blank line that ends it, or -1 if its header block does
+	 * not parse.
+	 */
+	private static long recordEnd(FSDataInputStream in, long offset, long fileLength) throws IOException {
+		byte[] header = new byte[(int) Math.min(MAX_HEADER, fileLength - offset)];
+		int n = readFully(in, offset, header, header.length);
+		long contentLength = -1;
+		int line = 0;
+		for (int i = 0; i + 1 < n; ++i) {
+			if (header[i] != '\r' || header[i + 1] != '\n') {
+				continue;
+			}
+			if (i == line) {
+				// The blank line ending the header block
+				if (contentLength < 0) {
+					return -1;
+				}
+				long end = offset + i + 2 + contentLength + 4;
+				return end > fileLength ? -1 : end;
+			}
+			String field = new String(header, line, i - line, "ISO-8859-1");
+			if (field.regionMatches(true, 0, CONTENT_LENGTH, 0, CONTENT_LENGTH.length())) {
+				try {
+					contentLength = Long.parseLong(field.substring(CONTENT_LENGTH.length()).trim());
+				} catch (NumberFormatException ex) {
+					return -1;
+				}
+			}
+			line = i + 2;
+			++i;
+		}
+		return -1;
+	}
+
+	private static int readFully(FSDataInputStream in, long pos, byte[] buf, int len) throws IOException {
+		int n = 0;
+		while (n < len) {
+			int r = in.read(pos + n, buf, n, len - n);
+			if (r < 0) {
+				break;
+			}
+			n += r;
+		}
+		return n;
+	}
+}
@@ -0,0 +1,430 @@
+package org.commoncrawl.warc;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PositionedReadable;
+import org.apache.hadoop.fs.Seekable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.log4j.Logger;
+
+/**
+ * Reads a byte range of a remote file through several concurrent ranged
+ * reads, ahead of the reader, so network latency does not stall inflating
+ * and parsing.
+ *
+ * The range is fetched in parts of {@link #PART_SIZE} bytes by
+ * {@link #PARTS} threads, each part with its own request to a
+ * {@link RangeSource}. Up to {@link #AHEAD} parts are fetched or held ahead
+ * of the read position, in a ring of buffers that are reused as the reader
+ * moves on. A part that fails is retried from where it stopped, up to
+ * {@link #RETRIES} times, without restarting the file.
+ *
+ * The window starts at one part after opening or seeking out of it, and
+ * doubles with each part read, so a short read after a seek does not fetch
+ * many parts. Positions are offsets in the file, so the stream can be
+ * wrapped in an FSDataInputStream.
+ *
+ * Not thread safe, except for the positioned reads, which bypass the ring.
+ */
+public class PrefetchingInputStream extends InputStream implements Seekable, PositionedReadable {
+	private static final Logger LOG = Logger.getLogger(PrefetchingInputStream.class);
+
+	/** Number of parts fetched concurrently; 0 (the default) reads splits without prefetching. */
+	public static final String PARTS = "warc.prefetch.parts";
+	/** Size of each part in bytes; 8MB by default. */
+	public static final String PART_SIZE = "warc.prefetch.part.size";
+	/** Number of parts fetched or held ahead of the reader; twice {@link #PARTS} by default. */
+	public static final String AHEAD = "warc.prefetch.ahead";
+	/** Number of times a failed part is retried; 3 by default. */
+	public static final String RETRIES = "warc.prefetch.retries";
+	/**
+	 * If set, files are fetched over HTTP from this base URL followed by the
+	 * path's authority and path, e.g. https://s3.amazonaws.com for
+	 * s3n://bucket/key, rather than through the path's FileSystem.
+	 */
+	public static final String HTTP_BASE = "warc.prefetch.http.base";
+
+	public static final int DEFAULT_PART_SIZE = 8 * 1024 * 1024;
+
+	// Milliseconds before the first retry of a part, doubled for each retry after
+	private static final long RETRY_WAIT = 200;
+
+	/**
+	 * Opens streams over byte ranges of one file. Must be thread safe.
+	 */
+	public interface RangeSource extends Closeable {
+		/**
+		 * Returns a stream over the length bytes of the file from offset.
+		 */
+		InputStream open(long offset, long length) throws IOException;
+	}
+
+	/**
+	 * Reads ranges through a Hadoop FileSystem, one open stream per range.
+	 */
+	public static class FileSystemRangeSource implements RangeSource {
+		private final FileSystem fs;
+		private final Path path;
+
+		public FileSystemRangeSource(FileSystem fs, Path path) {
+			this.fs = fs;
+			this.path = path;
+		}
+
+		@Override
+		public InputStream open(long offset, long length) throws IOException {
+			FSDataInputStream in = fs.open(path);
+			try {
+				in.seek(offset);
+			} catch (IOException ex) {
+				in.close();
+				throw ex;
+			}
+			return new BoundedInputStream(in, length);
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * Reads ranges with HTTP Range requests, as S3 and most web servers support.
+	 */
+	public static class HttpRangeSource implements RangeSource {
+		private static final int TIMEOUT = 30000;
+		private final URL url;
+
+		public HttpRangeSource(URL url) {
+			this.url = url;
+		}
+
+		@Override
+		public InputStream open(long offset, long length) throws IOException {
+			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			connection.setConnectTimeout(TIMEOUT);
+			connection.setReadTimeout(TIMEOUT);
+			connection.setRequestProperty("Range", "bytes=" + offset + "-" + (offset + length - 1));
+			int code = connection.getResponseCode();
+			// A server ignoring the range sends the whole file, which only does from the start
+			if (code == HttpURLConnection.HTTP_PARTIAL || (code == HttpURLConnection.HTTP_OK && offset == 0)) {
+				return new BoundedInputStream(connection.getInputStream(), length);
+			}
+			connection.disconnect();
+			throw new IOException("HTTP " + code + " for bytes " + offset + "-" + (offset + length - 1) + " of " + url);
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	private static class Part {
+		final long offset;
+		final int length;
+		final byte[] buffer;
+		final Future<byte[]> data;
+
+		Part(long offset, int length, byte[] buffer, Future<byte[]> data) {
+			this.offset = offset;
+			this.length = length;
+			this.buffer = buffer;
+			this.data = data;
+		}
+	}
+
+	private final RangeSource source;
+	private final long end;
+	private final int partSize;
+	private final int ahead;
+	private final int retries;
+	private final ExecutorService pool;
+	// Parts fetched or being fetched, in file order, from the read position on
+	private final ArrayDeque<Part> window = new ArrayDeque<Part>();
+	// Buffers of parts that have been read, for reuse
+	private final List<byte[]> free = new ArrayList<byte[]>();
+	// Number of parts the window may hold, growing to ahead while reading straight through
+	private int limit = 1;
+	// Offset of the next part to fetch
+	private long next;
+	// The part being read
+	private byte[] buffer;
+	private long bufferOffset;
+	private int bufferLength;
+	private long pos;
+	private boolean closed;
+
+	/**
+	 * Reads bytes start to end of the file, with the settings from conf and
+	 * 4 parts at a time if {@link #PARTS} is not set.
+	 */
+	public PrefetchingInputStream(RangeSource source, long start, long end, Configuration conf) {
+		this(source, start, end, Math.max(1, conf.getInt(PARTS, 4)), conf.getInt(PART_SIZE, DEFAULT_PART_SIZE),
+				conf.getInt(AHEAD, 2 * Math.max(1, conf.getInt(PARTS, 4))), conf.getInt(RETRIES, 3));
+	}
+
+	public PrefetchingInputStream(RangeSource source, long start, long end, int parts, int partSize, int ahead, int retries) {
+		this.source = source;
+		this.end = end;
+		this.partSize = partSize;
+		this.ahead = Math.max(1, ahead);
+		this.retries = retries;
+		this.pool = Executors.newFixedThreadPool(parts, new DaemonThreadFactory("warc-prefetch"));
+		this.pos = start;
+		this.next = start;
+	}
+
+	public static void setPrefetch(Job job, int parts, int partSize) {
+		job.getConfiguration().setInt(PARTS, parts);
+		job.getConfiguration().setInt(PART_SIZE, partSize);
+	}
+
+	/**
+	 * Returns the source of ranges of the file at path: HTTP from
+	 * {@link #HTTP_BASE} if it is set, else the path's FileSystem.
+	 */
+	public static RangeSource getSource(Path path, Configuration conf) throws IOException {
+		String base = conf.get(HTTP_BASE);
+		if (base == null || base.isEmpty()) {
+			return new FileSystemRangeSource(path.getFileSystem(conf), path);
+		}
+		String authority = path.toUri().getAuthority();
+		return new HttpRangeSource(new URL(base + (authority == null ? "" : "/" + authority) + path.toUri().getRawPath()));
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!fill()) {
+			return -1;
+		}
+		return buffer[(int) (pos++ - bufferOffset)] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!fill()) {
+			return -1;
+		}
+		int n = (int) Math.min(len, bufferOffset + bufferLength - pos);
+		System.arraycopy(buffer, (int) (pos - bufferOffset), b, off, n);
+		pos += n;
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long target = Math.min(end, pos + Math.max(0, n));
+		long skipped = target - pos;
+		seek(target);
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return buffer == null ? 0 : (int) Math.max(0, bufferOffset + bufferLength - pos);
+	}
+
+	/**
+	 * Makes the part holding pos the current buffer. Returns false at the end.
+	 */
+	private boolean fill() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+		if (buffer != null && pos < bufferOffset + bufferLength) {
+			return true;
+		}
+		if (pos >= end) {
+			return false;
+		}
+		if (buffer != null) {
+			free.add(buffer);
+			buffer = null;
+		}
+		if (window.isEmpty()) {
+			next = pos;
+		}
+		schedule();
+		Part part = window.poll();
+		try {
+			buffer = part.data.get();
+		} catch (InterruptedException ex) {
+			part.data.cancel(true);
+			throw new InterruptedIOException("Interrupted waiting for bytes " + part.offset + "-" + (part.offset + part.length));
+		} catch (ExecutionException ex) {
+			throw new IOException("Failed reading bytes " + part.offset + "-" + (part.offset + part.length), ex.getCause());
+		}
+		bufferOffset = part.offset;
+		bufferLength = part.length;
+		// Reading straight through, so fetch further ahead
+		limit = Math.min(ahead, limit * 2);
+		schedule();
+		return true;
+	}
+
+	// Starts fetching parts until the window is full
+	private void schedule() {
+		while (window.size() < limit && next < end) {
+			int length = (int) Math.min(partSize, end - next);
+			byte[] b = free.isEmpty() ? new byte[partSize] : free.remove(free.size() - 1);
+			window.add(new Part(next, length, b, pool.submit(new Fetch(next, length, b))));
+			next += length;
+		}
+	}
+
+	@Override
+	public void seek(long target) throws IOException {
+		if (target < 0 || target > end) {
+			throw new EOFException("Cannot seek to " + target + " in a range ending at " + end);
+		}
+		pos = target;
+		if (buffer != null && target >= bufferOffset && target < bufferOffset + bufferLength) {
+			return;
+		}
+		// Drop the parts before the target, or all of them if it is outside the window
+		if (buffer != null) {
+			free.add(buffer);
+			buffer = null;
+		}
+		while (!window.isEmpty() && window.peek().offset + window.peek().length <= target) {
+			drop(window.poll());
+		}
+		if (window.isEmpty() || window.peek().offset > target) {
+			while (!window.isEmpty()) {
+				drop(window.poll());
+			}
+			limit = 1;
+		}
+	}
+
+	private void drop(Part part) {
+		if (part.data.isDone()) {
+			free.add(part.buffer);
+		} else {
+			// Its buffer may still be written to, so it is left to the collector
+			part.data.cancel(true);
+		}
+	}
+
+	@Override
+	public long getPos() {
+		return pos;
+	}
+
+	@Override
+	public boolean seekToNewSource(long targetPos) {
+		return false;
+	}
+
+	@Override
+	public int read(long position, byte[] b, int off, int len) throws IOException {
+		if (position >= end) {
+			return -1;
+		}
+		int n = (int) Math.min(len, end - position);
+		readFully(position, b, off, n);
+		return n;
+	}
+
+	@Override
+	public void readFully(long position, byte[] b, int off, int len) throws IOException {
+		if (position + len > end) {
+			throw new EOFException("Cannot read " + len + " bytes at " + position + " in a range ending at " + end);
+		}
+		try {
+			new Fetch(position, len, b, off).call();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted reading bytes at " + position);
+		}
+	}
+
+	@Override
+	public void readFully(long position, byte[] b) throws IOException {
+		readFully(position, b, 0, b.length);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		pool.shutdownNow();
+		window.clear();
+		free.clear();
+		buffer = null;
+		source.close();
+	}
+
+	/**
+	 * Reads one range fully into a buffer, resuming after failures.
+	 */
+	private class Fetch implements Callable<byte[]> {
+		private final long offset;
+		private final int length;
+		private final byte[] b;
+		private final int off;
+
+		Fetch(long offset, int length, byte[] b) {
+			this(offset, length, b, 0);
+		}
+
+		Fetch(long offset, int length, byte[] b, int off) {
+			this.offset = offset;
+			this.length = length;
+			this.b = b;
+			this.off = off;
+		}
+
+		@Override
+		public byte[] call() throws IOException, InterruptedException {
+			int done = 0;
+			for (int attempt = 0;; ++attempt) {
+				try {
+					InputStream in = source.open(offset + done, length - done);
+					try {
+						while (done < length) {
+							int n = in.read(b, off + done, length - done);
+							if (n < 0) {
+								throw new EOFException("Range ended after " + done + " of " + length + " bytes");
+							}
+							done += n;
+						}
+					} finally {
+						in.close();
+					}
+					return b;
+				} catch (IOException ex) {
+					if (attempt >= retries || Thread.currentThread().isInterrupted()) {
+						throw ex;
+					}
+					LOG.warn("Retrying bytes " + (offset + done) + "-" + (offset + length) + " after: " + ex);
+					Thread.sleep(RETRY_WAIT << attempt);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package org.commoncrawl.warc;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.log4j.Logger;
+
+/**
+ * Reads the gzip members listed in a {@link WARCRangeSplit} straight from
+ * their offsets. Ranges that sit next to each other in the file are fetched
+ * with a single read. A range that does not hold whole, valid gzip members
+ * (a stale or wrong index entry) is logged and skipped; only failures to read
+ * the file itself are thrown.
+ */
+public class RangeMemberSource implements MemberSource {
+	private static final Logger LOG = Logger.getLogger(RangeMemberSource.class);
+	// Upper bound on the bytes fetched by one read of adjacent ranges
+	private static final long MAX_RUN = 8L * 1024 * 1024;
+
+	private final FSDataInputStream fsin;
+	private final WARCRangeSplit split;
+	private final GzipMemberInflater inflater = new GzipMemberInflater();
+	private byte[] buf = new byte[0];
+	private long bufOffset;
+	private int bufLength;
+	private int next;
+
+	public RangeMemberSource(FSDataInputStream fsin, WARCRangeSplit split) {
+		this.fsin = fsin;
+		this.split = split;
+	}
+
+	@Override
+	public Member next() throws IOException {
+		while (next < split.size()) {
+			int i = next++;
+			long offset = split.getOffset(i);
+			int length = (int) split.getLength(i);
+			if (offset < bufOffset || offset + length > bufOffset + bufLength) {
+				fetchRun(i);
+			}
+			Member member;
+			try {
+				member = inflater.inflate(offset, buf, (int) (offset - bufOffset), length);
+			} catch (IOException ex) {
+				LOG.warn("Skipping bad gzip member at " + split.getPath() + " offset " + offset + " length " + length, ex);
+				continue;
+			}
+			if (member != null) {
+				return member;
+			}
+			LOG.warn("No complete gzip member at " + split.getPath() + " offset " + offset + " length " + length);
+		}
+		return null;
+	}
+
+	/**
+	 * Reads range i and any ranges directly following it into the buffer.
+	 */
+	private void fetchRun(int i) throws IOException {
+		long start = split.getOffset(i);
+		long end = start + split.getLength(i);
+		for (int j = i + 1; j < split.size() && split.getOffset(j) == end
+				&& end + split.getLength(j) - start <= MAX_RUN; ++j) {
+			end += split.getLength(j);
+		}
+		int length = (int) (end - start);
+		if (buf.length < length) {
+			buf = new byte[length];
+		}
+		fsin.readFully(start, buf, 0, length);
+		bufOffset = start;
+		bufLength = length;
+	}
+
+	/**
+	 * Returns the fraction of the split's ranges read so far.
+	 */
+	public float getProgress() {
+		return split.size() == 0 ? 1 : next / (float) split.size();
+	}
+
+	@Override
+	public void close() throws IOException {
+		inflater.end();
+		fsin.close();
+	}
+}
@@ -0,0 +1,170 @@
+package org.commoncrawl.warc;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.compress.zlib.ZlibDecompressor;
+import org.apache.hadoop.io.compress.zlib.ZlibFactory;
+import org.apache.log4j.Logger;
+
+/**
+ * Inflates raw deflate data (gzip member bodies), with the same contract
+ * as {@link Inflater}: input is only set once the previous input has been
+ * used up, and after the end of a stream the unused input is left for the
+ * next member. Instances are not thread safe.
+ *
+ * Backends, selected with {@link WARCFileInputFormat#INFLATER}:
+ * "java" uses java.util.zip.Inflater on heap arrays; "native" uses Hadoop's
+ * native zlib, which inflates through direct buffers, and falls back to
+ * "java" if the native library is not loaded.
+ */
+public abstract class RawInflater {
+	private static final Logger LOG = Logger.getLogger(RawInflater.class);
+	private static volatile boolean warned;
+
+	public abstract void reset();
+
+	public abstract void setInput(byte[] b, int off, int len);
+
+	/**
+	 * Inflates into b, returning the number of bytes written, which is 0
+	 * when more input is needed or the stream has ended.
+	 */
+	public abstract int inflate(byte[] b, int off, int len) throws IOException;
+
+	public abstract boolean finished();
+
+	public abstract boolean needsInput();
+
+	public abstract boolean needsDictionary();
+
+	/**
+	 * Returns the number of input bytes not used, after the end of the stream.
+	 */
+	public abstract int getRemaining();
+
+	/**
+	 * Releases any native resources.
+	 */
+	public abstract void end();
+
+	/**
+	 * Returns a new inflater of the kind named ("java" or "native").
+	 */
+	public static RawInflater create(String kind, Configuration conf) {
+		if ("native".equals(kind)) {
+			if (ZlibFactory.isNativeZlibLoaded(conf)) {
+				return new NativeZlib();
+			}
+			if (!warned) {
+				warned = true;
+				LOG.info("Native zlib is not loaded; inflating with java.util.zip");
+			}
+		} else if (!"java".equals(kind)) {
+			throw new IllegalArgumentException("Unknown inflater " + kind);
+		}
+		return new Java();
+	}
+
+	/**
+	 * java.util.zip.Inflater, reading from and writing to heap arrays.
+	 */
+	public static class Java extends RawInflater {
+		private final Inflater inflater = new Inflater(true);
+
+		@Override
+		public void reset() {
+			inflater.reset();
+		}
+
+		@Override
+		public void setInput(byte[] b, int off, int len) {
+			inflater.setInput(b, off, len);
+		}
+
+		@Override
+		public int inflate(byte[] b, int off, int len) throws IOException {
+			try {
+				return inflater.inflate(b, off, len);
+			} catch (DataFormatException ex) {
+				throw new IOException("Corrupt deflate data", ex);
+			}
+		}
+
+		@Override
+		public boolean finished() {
+			return inflater.finished();
+		}
+
+		@Override
+		public boolean needsInput() {
+			return inflater.needsInput();
+		}
+
+		@Override
+		public boolean needsDictionary() {
+			return inflater.needsDictionary();
+		}
+
+		@Override
+		public int getRemaining() {
+			return inflater.getRemaining();
+		}
+
+		@Override
+		public void end() {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Hadoop's native zlib, which copies input into and output out of
+	 * direct buffers around each native inflate call.
+	 */
+	public static class NativeZlib extends RawInflater {
+		private static final int DIRECT_BUFFER = 256 * 1024;
+		private final ZlibDecompressor zlib = new ZlibDecompressor(ZlibDecompressor.CompressionHeader.NO_HEADER, DIRECT_BUFFER);
+
+		@Override
+		public void reset() {
+			zlib.reset();
+		}
+
+		@Override
+		public void setInput(byte[] b, int off, int len) {
+			zlib.setInput(b, off, len);
+		}
+
+		@Override
+		public int inflate(byte[] b, int off, int len) throws IOException {
+			return zlib.decompress(b, off, len);
+		}
+
+		@Override
+		public boolean finished() {
+			return zlib.finished();
+		}
+
+		@Override
+		public boolean needsInput() {
+			return zlib.needsInput();
+		}
+
+		@Override
+		public boolean needsDictionary() {
+			return zlib.needsDictionary();
+		}
+
+		@Override
+		public int getRemaining() {
+			return zlib.getRemaining();
+		}
+
+		@Override
+		public void end() {
+			zlib.end();
+		}
+	}
+}
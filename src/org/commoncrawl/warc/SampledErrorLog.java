@@ -0,0 +1,65 @@
+package org.commoncrawl.warc;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.log4j.Logger;
+import org.archive.io.ArchiveRecordHeader;
+
+/**
+ * Logs record processing errors without letting a bad file flood the log.
+ *
+ * The first {@link #FULL} errors are logged with their stack traces. After
+ * that at most one error per {@link #INTERVAL} is logged, as a single line
+ * with the number of errors left unlogged since the last one. Every error
+ * is counted. Thread safe, so the threads of a task can share one.
+ */
+public class SampledErrorLog {
+	/** Number of errors logged with stack traces; 10 by default. */
+	public static final String FULL = "warc.errors.full";
+	/** Milliseconds between the errors logged after the first ones; 10000 by default. */
+	public static final String INTERVAL = "warc.errors.interval.ms";
+
+	private final int full;
+	private final long interval;
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong unlogged = new AtomicLong();
+	private final AtomicLong nextSample = new AtomicLong();
+
+	public SampledErrorLog(Configuration conf) {
+		this(conf.getInt(FULL, 10), conf.getLong(INTERVAL, 10000));
+	}
+
+	public SampledErrorLog(int full, long interval) {
+		this.full = full;
+		this.interval = interval;
+	}
+
+	/**
+	 * Counts an error in processing the record, and logs it if it is sampled.
+	 */
+	public void log(Logger log, ArchiveRecordHeader header, Throwable t) {
+		long n = errors.incrementAndGet();
+		String record = header == null ? "record" : header.getUrl() + " at offset " + header.getOffset()
+				+ " of " + header.getReaderIdentifier();
+		if (n <= full) {
+			log.error("Failed processing " + record, t);
+			return;
+		}
+		long now = System.currentTimeMillis();
+		long next = nextSample.get();
+		if (now >= next && nextSample.compareAndSet(next, now + interval)) {
+			log.error("Failed processing " + record + ": " + t + " (" + unlogged.getAndSet(0)
+					+ " errors not logged since the last)");
+		} else {
+			unlogged.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Returns the number of errors counted.
+	 */
+	public long getCount() {
+		return errors.get();
+	}
+}
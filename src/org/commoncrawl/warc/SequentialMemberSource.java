@@ -0,0 +1,129 @@
+package org.commoncrawl.warc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Inflates gzip members one at a time on the reading thread, with a single
+ * {@link RawInflater} reused across members, streaming the raw input
+ * through a fixed buffer. Each member's CRC32 and size are checked
+ * against its trailer.
+ *
+ * The decompressed bytes of each member are written to a buffer that is
+ * reused by the following call to {@link #next()}, so a member must be
+ * consumed before asking for the next one. Member offsets are relative to
+ * the start of the given stream.
+ */
+public class SequentialMemberSource implements MemberSource {
+	private static final int READ_SIZE = 64 * 1024;
+	private static final int INITIAL_OUTPUT = 256 * 1024;
+	// An output buffer grown past this for one large record is not kept for the rest
+	private static final int MAX_RETAINED = 8 * 1024 * 1024;
+	private static final int MAX_HEADER = 64 * 1024;
+	private static final int TRAILER = GzipMembers.TRAILER;
+
+	private final InputStream raw;
+	private final RawInflater inflater;
+	private byte[] in = new byte[READ_SIZE];
+	private int pos;
+	private int limit;
+	// Offset in the input of in[0]
+	private long base;
+	private boolean eof;
+	private byte[] out = new byte[INITIAL_OUTPUT];
+	private final CRC32 crc = new CRC32();
+
+	public SequentialMemberSource(InputStream raw, RawInflater inflater) {
+		this.raw = raw;
+		this.inflater = inflater;
+	}
+
+	@Override
+	public Member next() throws IOException {
+		if (!fill(1)) {
+			return null;
+		}
+		long offset = base + pos;
+		int hlen;
+		while ((hlen = GzipMembers.headerLength(in, pos, limit - pos)) < 0) {
+			if (limit - pos >= MAX_HEADER || !fill(limit - pos + 1)) {
+				throw new IOException("Bad gzip member header at offset " + offset);
+			}
+		}
+		pos += hlen;
+		if (out.length > MAX_RETAINED) {
+			out = new byte[INITIAL_OUTPUT];
+		}
+		int n = 0;
+		inflater.reset();
+		inflater.setInput(in, pos, limit - pos);
+		while (!inflater.finished()) {
+			if (n == out.length) {
+				out = Arrays.copyOf(out, out.length * 2);
+			}
+			int r;
+			try {
+				r = inflater.inflate(out, n, out.length - n);
+			} catch (IOException ex) {
+				throw new IOException("Corrupt gzip member at offset " + offset, ex);
+			}
+			n += r;
+			if (r == 0 && inflater.needsInput()) {
+				// All buffered input was handed to the inflater
+				pos = limit;
+				if (!fill(1)) {
+					throw new IOException("Truncated gzip member at offset " + offset);
+				}
+				inflater.setInput(in, pos, limit - pos);
+			} else if (r == 0 && inflater.needsDictionary()) {
+				throw new IOException("Corrupt gzip member at offset " + offset);
+			}
+		}
+		pos = limit - inflater.getRemaining();
+		if (!fill(TRAILER)) {
+			throw new IOException("Truncated gzip member at offset " + offset);
+		}
+		GzipMembers.checkTrailer(in, pos, out, 0, n, crc, offset);
+		pos += TRAILER;
+		return new Member(offset, out, n);
+	}
+
+	/**
+	 * Reads until at least n unconsumed bytes are buffered, or the input
+	 * ends; returns false if fewer than n are available.
+	 */
+	private boolean fill(int n) throws IOException {
+		if (limit - pos >= n) {
+			return true;
+		}
+		if (pos > 0) {
+			System.arraycopy(in, pos, in, 0, limit - pos);
+			base += pos;
+			limit -= pos;
+			pos = 0;
+		}
+		if (n > in.length) {
+			in = Arrays.copyOf(in, Math.max(n, in.length * 2));
+		}
+		while (limit < n && !eof) {
+			int r = raw.read(in, limit, in.length - limit);
+			if (r < 0) {
+				eof = true;
+			} else {
+				limit += r;
+			}
+		}
+		return limit >= n;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			raw.close();
+		} finally {
+			inflater.end();
+		}
+	}
+}
@@ -0,0 +1,339 @@
+package org.commoncrawl.warc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.log4j.Logger;
+import org.archive.io.ArchiveRecordHeader;
+
+/**
+ * Times the stages of record processing on one thread: histograms of the
+ * time spent per record in each {@link Stage}, and the slowest records.
+ *
+ * Records are timed from {@link #begin} to {@link #record}, and stages
+ * within them with {@link #start} and {@link #stop}. Time spent reading a
+ * stream wrapped by {@link #timed} is counted as the record's
+ * {@link Stage#DECOMPRESS} time and left out of any stage being timed
+ * around the read, so parsing a streamed payload is not charged for
+ * inflating it.
+ *
+ * Histograms have 8 buckets per power of two, so reported percentiles are
+ * within about 12% of the true values. A task's timers are merged and
+ * published at its end by {@link #publish}, as counters in the
+ * {@link #GROUP} group: per stage the number of records, the total time in
+ * milliseconds and the p50 and p99 in microseconds. Job level totals of the
+ * percentile counters are sums over tasks, so read them per task.
+ *
+ * A StageTimer is not thread safe; each thread has its own.
+ */
+public class StageTimer {
+	private static final Logger LOG = Logger.getLogger(StageTimer.class);
+
+	/** Whether record processing is timed; on by default. */
+	public static final String ENABLED = "warc.timing";
+	/** Number of slowest records logged at the end of each task; 10 by default. */
+	public static final String SLOWEST = "warc.timing.slowest";
+	/** Counter group the timings are published in. */
+	public static final String GROUP = "Record stage timings";
+
+	public static enum Stage {
+		/** Inflating the payload. */
+		DECOMPRESS,
+		/** Reading the WARC header, including skipping any unread payload of the previous record. */
+		WARC_HEADER,
+		/** Parsing the HTTP response header. */
+		HTTP_HEADER,
+		/** Parsing the XML, HTML, JSON or text of the body. */
+		PARSE,
+		/** Writing output. */
+		EMIT,
+		/** All the processing of a record, including its decompression. */
+		RECORD
+	}
+
+	private static final Stage[] STAGES = Stage.values();
+	// 8 linear buckets below 8ns, then 8 per power of two
+	private static final int BUCKETS = 62 * 8;
+
+	private final boolean enabled;
+	private final long[][] histograms = new long[STAGES.length][BUCKETS];
+	private final long[] totals = new long[STAGES.length];
+	// Slowest records, unordered; slowUrls[i] is null for unused slots
+	private final long[] slowNanos;
+	private final String[] slowUrls;
+	private final String[] slowFiles;
+	private final long[] slowOffsets;
+	private int fastestSlow;
+	// Time spent in timed reads, left out of the stages around them
+	private long readNanos;
+	// readNanos when the current record began
+	private long readMark;
+	private final TimedInputStream stream = new TimedInputStream();
+
+	public StageTimer(Configuration conf) {
+		this(conf.getBoolean(ENABLED, true), conf.getInt(SLOWEST, 10));
+	}
+
+	public StageTimer(boolean enabled, int slowest) {
+		this.enabled = enabled;
+		slowNanos = new long[slowest];
+		slowUrls = new String[slowest];
+		slowFiles = new String[slowest];
+		slowOffsets = new long[slowest];
+	}
+
+	public static void setEnabled(Job job, boolean enabled) {
+		job.getConfiguration().setBoolean(ENABLED, enabled);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Returns the start time of a stage, to be passed to {@link #stop}.
+	 */
+	public long start() {
+		return enabled ? System.nanoTime() - readNanos : 0;
+	}
+
+	/**
+	 * Records the time since start against the stage, less any time spent
+	 * in timed reads meanwhile, and returns it in nanoseconds.
+	 */
+	public long stop(Stage stage, long start) {
+		if (!enabled) {
+			return 0;
+		}
+		long nanos = System.nanoTime() - readNanos - start;
+		add(stage, nanos);
+		return nanos;
+	}
+
+	/**
+	 * Returns the start time of a record, to be passed to {@link #record}.
+	 * It can also be passed to {@link #stop} like one from {@link #start}.
+	 */
+	public long begin() {
+		readMark = readNanos;
+		return start();
+	}
+
+	/**
+	 * Records the time since begin as the record's total, plus extraNanos
+	 * spent on it elsewhere, and the time spent in timed reads meanwhile as
+	 * its decompression. Keeps the record if it is one of the slowest.
+	 */
+	public void record(ArchiveRecordHeader header, long begin, long extraNanos) {
+		if (!enabled) {
+			return;
+		}
+		long reads = readNanos - readMark;
+		long nanos = System.nanoTime() - readNanos - begin + reads + extraNanos;
+		if (reads > 0) {
+			add(Stage.DECOMPRESS, reads);
+		}
+		add(Stage.RECORD, nanos);
+		if (slowNanos.length > 0 && (slowUrls[fastestSlow] == null || nanos > slowNanos[fastestSlow])) {
+			keepSlow(nanos, String.valueOf(header.getUrl()), header.getReaderIdentifier(), header.getOffset());
+		}
+	}
+
+	// Replaces the fastest of the slowest records
+	private void keepSlow(long nanos, String url, String file, long offset) {
+		slowNanos[fastestSlow] = nanos;
+		slowUrls[fastestSlow] = url;
+		slowFiles[fastestSlow] = file;
+		slowOffsets[fastestSlow] = offset;
+		for (int i = 0; i < slowNanos.length; ++i) {
+			if (slowUrls[i] == null) {
+				fastestSlow = i;
+				return;
+			}
+			if (slowNanos[i] < slowNanos[fastestSlow]) {
+				fastestSlow = i;
+			}
+		}
+	}
+
+	/**
+	 * Wraps in so that the time spent reading from it is counted as the
+	 * current record's {@link Stage#DECOMPRESS} time. The returned stream is
+	 * reused by the next call.
+	 */
+	public InputStream timed(InputStream in) {
+		if (!enabled) {
+			return in;
+		}
+		stream.in = in;
+		return stream;
+	}
+
+	void add(Stage stage, long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		histograms[stage.ordinal()][bucket(nanos)]++;
+		totals[stage.ordinal()] += nanos;
+	}
+
+	/**
+	 * Adds the timings and slowest records of another timer to this one.
+	 */
+	public void merge(StageTimer other) {
+		for (int s = 0; s < STAGES.length; ++s) {
+			for (int b = 0; b < BUCKETS; ++b) {
+				histograms[s][b] += other.histograms[s][b];
+			}
+			totals[s] += other.totals[s];
+		}
+		for (int i = 0; i < other.slowNanos.length; ++i) {
+			if (other.slowUrls[i] != null && slowNanos.length > 0
+					&& (slowUrls[fastestSlow] == null || other.slowNanos[i] > slowNanos[fastestSlow])) {
+				keepSlow(other.slowNanos[i], other.slowUrls[i], other.slowFiles[i], other.slowOffsets[i]);
+			}
+		}
+	}
+
+	public long getCount(Stage stage) {
+		long count = 0;
+		for (long c : histograms[stage.ordinal()]) {
+			count += c;
+		}
+		return count;
+	}
+
+	public long getTotalNanos(Stage stage) {
+		return totals[stage.ordinal()];
+	}
+
+	/**
+	 * Returns the time in nanoseconds that the fraction p of the stage's
+	 * records took at most, or 0 if there were none.
+	 */
+	public long getPercentileNanos(Stage stage, double p) {
+		long[] histogram = histograms[stage.ordinal()];
+		long rank = (long) Math.ceil(p * getCount(stage));
+		long seen = 0;
+		for (int b = 0; b < BUCKETS; ++b) {
+			seen += histogram[b];
+			if (seen >= rank && seen > 0) {
+				return value(b);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Publishes the timings as counters and logs the slowest records.
+	 */
+	public void publish(TaskInputOutputContext<?, ?, ?, ?> context) {
+		if (!enabled) {
+			return;
+		}
+		for (Stage stage : STAGES) {
+			long count = getCount(stage);
+			if (count == 0) {
+				continue;
+			}
+			context.getCounter(GROUP, stage + "_COUNT").increment(count);
+			context.getCounter(GROUP, stage + "_TOTAL_MS").increment(getTotalNanos(stage) / 1000000);
+			context.getCounter(GROUP, stage + "_P50_US").increment(getPercentileNanos(stage, 0.5) / 1000);
+			context.getCounter(GROUP, stage + "_P99_US").increment(getPercentileNanos(stage, 0.99) / 1000);
+		}
+		Integer[] order = new Integer[slowNanos.length];
+		int n = 0;
+		for (int i = 0; i < slowNanos.length; ++i) {
+			if (slowUrls[i] != null) {
+				order[n++] = i;
+			}
+		}
+		if (n == 0) {
+			return;
+		}
+		Arrays.sort(order, 0, n, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return slowNanos[a] > slowNanos[b] ? -1 : slowNanos[a] < slowNanos[b] ? 1 : 0;
+			}
+		});
+		StringBuilder sb = new StringBuilder("Slowest records:");
+		for (int i = 0; i < n; ++i) {
+			int s = order[i];
+			sb.append(String.format(Locale.ROOT, "%n  %.3f ms %s at offset %d of %s",
+					slowNanos[s] / 1e6, slowUrls[s], slowOffsets[s], slowFiles[s]));
+		}
+		LOG.info(sb);
+	}
+
+	private static int bucket(long nanos) {
+		if (nanos < 8) {
+			return (int) nanos;
+		}
+		int msb = 63 - Long.numberOfLeadingZeros(nanos);
+		return Math.min((msb - 2) * 8 + (int) ((nanos >>> (msb - 3)) & 7), BUCKETS - 1);
+	}
+
+	// The middle of a bucket's range
+	private static long value(int bucket) {
+		if (bucket < 8) {
+			return bucket;
+		}
+		int msb = bucket / 8 + 2;
+		long width = 1L << (msb - 3);
+		return (8 + bucket % 8) * width + width / 2;
+	}
+
+	private class TimedInputStream extends InputStream {
+		InputStream in;
+
+		@Override
+		public int read() throws IOException {
+			long start = System.nanoTime();
+			try {
+				return in.read();
+			} finally {
+				timeRead(start);
+			}
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			long start = System.nanoTime();
+			try {
+				return in.read(b, off, len);
+			} finally {
+				timeRead(start);
+			}
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long start = System.nanoTime();
+			try {
+				return in.skip(n);
+			} finally {
+				timeRead(start);
+			}
+		}
+
+		@Override
+		public int available() throws IOException {
+			return in.available();
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+
+		private void timeRead(long start) {
+			readNanos += System.nanoTime() - start;
+		}
+	}
+}
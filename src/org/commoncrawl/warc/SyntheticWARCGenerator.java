@@ -0,0 +1,481 @@
+package org.commoncrawl.warc;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Writes a corpus of synthetic Common Crawl style files for local testing
+ * and benchmarking: for each file index a WARC file with request, response
+ * and metadata records, and the matching WAT and WET files.
+ *
+ * Responses are a mix of HTML pages, RSS, Atom and GeoRSS feeds, JSON,
+ * plain text, images and redirects, with the occasional multi-megabyte
+ * page and a share of malformed payloads: truncated feeds, broken HTTP
+ * headers, invalid UTF-8 and bad dates. The archives themselves are always
+ * well formed, one gzip member per record.
+ *
+ * Output depends only on the seed, the number of captures per file and the
+ * file index, so a corpus can be regenerated byte for byte.
+ *
+ * Usage: SyntheticWARCGenerator output-dir [files [captures-per-file [seed]]]
+ */
+public class SyntheticWARCGenerator {
+	private static final Logger LOG = Logger.getLogger(SyntheticWARCGenerator.class);
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final String[] WORDS = {
+		"the", "of", "and", "to", "in", "crawl", "web", "archive", "record", "page", "feed", "map", "data",
+		"Common", "Hadoop", "location", "news", "city", "river", "weather", "report", "market", "music",
+		"donn\u00e9es", "stra\u00dfe", "M\u00fcnchen", "\u65e5\u672c\u8a9e", "\u0395\u03bb\u03bb\u03b7\u03bd\u03b9\u03ba\u03ac", "caf\u00e9"
+	};
+	private static final String[] SERVERS = {
+		"Apache", "nginx", "Microsoft-IIS/7.5", "Apache/2.2.22 (Debian)", "cloudflare-nginx", "GSE", "LiteSpeed", "lighttpd"
+	};
+	private static final String[] TAGS = {"div", "p", "span", "a", "li", "em", "strong", "h2", "table", "td"};
+
+	// Kinds of response, with their relative weights
+	private static enum Kind {
+		HTML(50), RSS(8), ATOM(4), GEORSS(6), GEOATOM(2), JSON(4), TEXT(5), IMAGE(5), REDIRECT(4),
+		LARGE_HTML(1), TRUNCATED_FEED(3), BAD_HEADER(2), BAD_UTF8(3), BAD_DATES(3);
+
+		final int weight;
+
+		Kind(int weight) {
+			this.weight = weight;
+		}
+	}
+
+	private static final int TOTAL_WEIGHT;
+
+	static {
+		int total = 0;
+		for (Kind kind : Kind.values()) {
+			total += kind.weight;
+		}
+		TOTAL_WEIGHT = total;
+	}
+
+	/**
+	 * What was written, per kind of file. Bytes are compressed file sizes.
+	 */
+	public static class Stats {
+		public long warcRecords;
+		public long warcBytes;
+		public long watRecords;
+		public long watBytes;
+		public long wetRecords;
+		public long wetBytes;
+	}
+
+	private final long seed;
+	private final int captures;
+
+	public SyntheticWARCGenerator(long seed, int capturesPerFile) {
+		this.seed = seed;
+		this.captures = capturesPerFile;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: SyntheticWARCGenerator output-dir [files [captures-per-file [seed]]]");
+			System.exit(1);
+		}
+		int files = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+		int captures = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+		Stats stats = new SyntheticWARCGenerator(seed, captures).generate(new File(args[0]), files);
+		System.out.println("WARC: " + stats.warcRecords + " records, " + stats.warcBytes + " bytes");
+		System.out.println("WAT: " + stats.watRecords + " records, " + stats.watBytes + " bytes");
+		System.out.println("WET: " + stats.wetRecords + " records, " + stats.wetBytes + " bytes");
+	}
+
+	/**
+	 * Writes files 0 to files - 1 into dir, replacing any already there.
+	 */
+	public Stats generate(File dir, int files) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create " + dir);
+		}
+		Stats stats = new Stats();
+		for (int i = 0; i < files; ++i) {
+			generate(dir, i, stats);
+		}
+		return stats;
+	}
+
+	private void generate(File dir, int index, Stats stats) throws IOException {
+		Random random = new Random(seed * 1000003 + index);
+		String base = String.format(Locale.ROOT, "synthetic-%05d", index);
+		ArchiveFile warc = new ArchiveFile(new File(dir, base + ".warc.gz"), random);
+		ArchiveFile wat = new ArchiveFile(new File(dir, base + ".warc.wat.gz"), random);
+		ArchiveFile wet = new ArchiveFile(new File(dir, base + ".warc.wet.gz"), random);
+		try {
+			long time = 1405997884000L + index * 86400000L;
+			byte[] info = utf8("software: SyntheticWARCGenerator\r\nformat: WARC File Format 1.0\r\nseed: " + seed + "\r\n");
+			warc.write("warcinfo", "application/warc-fields", null, time, info);
+			wat.write("warcinfo", "application/warc-fields", null, time, info);
+			wet.write("warcinfo", "application/warc-fields", null, time, info);
+			for (int i = 0; i < captures; ++i) {
+				time += 1000 + random.nextInt(5000);
+				String url = "http://www.example" + random.nextInt(500) + ".com/" + word(random) + "/" + index + "-" + i;
+				Kind kind = pick(random);
+				Response response = response(kind, url, random);
+
+				warc.write("request", "application/http; msgtype=request", url, time,
+						utf8("GET /" + index + "-" + i + " HTTP/1.1\r\nHost: example.com\r\nUser-Agent: CCBot/2.0\r\n\r\n"));
+				warc.write("response", "application/http; msgtype=response", url, time, response.bytes());
+				warc.write("metadata", "application/warc-fields", url, time, utf8("fetchTimeMs: " + random.nextInt(2000) + "\r\n"));
+				wat.write("metadata", "application/json", url, time, watJson(url, response, random));
+				if (response.text != null) {
+					wet.write("conversion", "text/plain", url, time, utf8(response.text));
+				}
+			}
+		} finally {
+			warc.close();
+			wat.close();
+			wet.close();
+		}
+		stats.warcRecords += warc.records;
+		stats.warcBytes += warc.file.length();
+		stats.watRecords += wat.records;
+		stats.watBytes += wat.file.length();
+		stats.wetRecords += wet.records;
+		stats.wetBytes += wet.file.length();
+		LOG.info("Wrote " + base + ": " + warc.records + " WARC, " + wat.records + " WAT, " + wet.records + " WET records");
+	}
+
+	private static Kind pick(Random random) {
+		int n = random.nextInt(TOTAL_WEIGHT);
+		for (Kind kind : Kind.values()) {
+			n -= kind.weight;
+			if (n < 0) {
+				return kind;
+			}
+		}
+		return Kind.HTML;
+	}
+
+	private static class Response {
+		String status = "200 OK";
+		String contentType;
+		String server;
+		byte[] body = new byte[0];
+		// Page text for the WET file, if any
+		String text;
+		int links;
+		boolean badHeader;
+
+		byte[] bytes() {
+			StringBuilder sb = new StringBuilder();
+			sb.append("HTTP/1.1 ").append(status).append("\r\n");
+			if (server != null) {
+				sb.append("Server: ").append(server).append("\r\n");
+			}
+			if (contentType != null) {
+				sb.append("Content-Type: ").append(contentType).append("\r\n");
+			}
+			if (badHeader) {
+				// A header line without a colon, and no blank line before the body
+				sb.append("X-Broken header line\r\n");
+			} else {
+				sb.append("Content-Length: ").append(body.length).append("\r\n\r\n");
+			}
+			byte[] head = utf8(sb.toString());
+			byte[] all = new byte[head.length + body.length];
+			System.arraycopy(head, 0, all, 0, head.length);
+			System.arraycopy(body, 0, all, head.length, body.length);
+			return all;
+		}
+	}
+
+	private static Response response(Kind kind, String url, Random random) {
+		Response r = new Response();
+		r.server = random.nextInt(10) == 0 ? null : SERVERS[random.nextInt(SERVERS.length)];
+		switch (kind) {
+		case HTML:
+		case LARGE_HTML: {
+			int paragraphs = kind == Kind.LARGE_HTML ? 5000 + random.nextInt(10000) : 5 + random.nextInt(60);
+			StringBuilder text = new StringBuilder();
+			r.body = utf8(html(url, paragraphs, random, text, r));
+			r.contentType = "text/html; charset=UTF-8";
+			r.text = text.toString();
+			break;
+		}
+		case RSS:
+			r.body = utf8(rss(random, 5 + random.nextInt(30), false, false));
+			r.contentType = "application/rss+xml";
+			break;
+		case GEORSS:
+			r.body = utf8(rss(random, 5 + random.nextInt(30), true, false));
+			// Feeds are often served with a generic XML type
+			r.contentType = random.nextBoolean() ? "application/rss+xml; charset=UTF-8" : "text/xml";
+			break;
+		case BAD_DATES:
+			r.body = utf8(rss(random, 5 + random.nextInt(10), true, true));
+			r.contentType = "application/rss+xml";
+			break;
+		case ATOM:
+			r.body = utf8(atom(random, 5 + random.nextInt(20), false));
+			r.contentType = "application/atom+xml";
+			break;
+		case GEOATOM:
+			r.body = utf8(atom(random, 5 + random.nextInt(20), true));
+			r.contentType = "application/atom+xml";
+			break;
+		case TRUNCATED_FEED: {
+			byte[] feed = utf8(rss(random, 10 + random.nextInt(10), random.nextBoolean(), false));
+			r.body = Arrays.copyOf(feed, feed.length / 2);
+			r.contentType = "application/rss+xml";
+			break;
+		}
+		case JSON:
+			r.body = utf8("{\"id\":" + random.nextInt(100000) + ",\"name\":\"" + word(random) + "\",\"tags\":[\""
+					+ word(random) + "\",\"" + word(random) + "\"]}");
+			r.contentType = "application/json";
+			break;
+		case TEXT: {
+			String text = sentence(random, 50 + random.nextInt(500));
+			r.body = utf8(text);
+			r.contentType = "text/plain";
+			r.text = text;
+			break;
+		}
+		case IMAGE:
+			r.body = new byte[1000 + random.nextInt(30000)];
+			random.nextBytes(r.body);
+			r.body[0] = (byte) 0xff;
+			r.body[1] = (byte) 0xd8;
+			r.contentType = "image/jpeg";
+			break;
+		case REDIRECT:
+			r.status = "301 Moved Permanently";
+			r.contentType = "text/html";
+			break;
+		case BAD_HEADER:
+			r.badHeader = true;
+			r.body = utf8("<html><body><p>" + sentence(random, 20) + "</p></body></html>");
+			r.contentType = "text/html";
+			break;
+		case BAD_UTF8: {
+			StringBuilder text = new StringBuilder();
+			byte[] page = utf8(html(url, 5 + random.nextInt(20), random, text, r));
+			// Sprinkle stray continuation and lead bytes
+			for (int i = 0; i < 20; ++i) {
+				page[page.length / 2 + random.nextInt(page.length / 2)] = (byte) (0x80 + random.nextInt(0x7f));
+			}
+			r.body = page;
+			r.contentType = "text/html; charset=UTF-8";
+			r.text = text.toString();
+			break;
+		}
+		}
+		return r;
+	}
+
+	private static String html(String url, int paragraphs, Random random, StringBuilder text, Response r) {
+		StringBuilder sb = new StringBuilder(paragraphs * 200);
+		String title = sentence(random, 4);
+		text.append(title).append('\n');
+		sb.append("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"><title>").append(title).append("</title>\n");
+		sb.append("<link rel=\"alternate\" type=\"application/rss+xml\" href=\"").append(url).append("/feed\">\n");
+		sb.append("<style>p > a { color: #333 }</style>\n<script>var n = 1 < 2; document.write('<b>');</script>\n");
+		sb.append("</head><BODY>\n<!-- generated <p> -->\n");
+		for (int i = 0; i < paragraphs; ++i) {
+			String tag = TAGS[random.nextInt(TAGS.length)];
+			String words = sentence(random, 5 + random.nextInt(40));
+			text.append(words).append('\n');
+			sb.append('<').append(tag).append(" class=\"c").append(random.nextInt(10)).append("\"><P>").append(words);
+			if (random.nextInt(3) == 0) {
+				sb.append(" <a href=\"/").append(word(random)).append('/').append(random.nextInt(1000)).append("\">");
+				sb.append(word(random)).append("</a>");
+				r.links++;
+			}
+			sb.append("<br/></p></").append(tag).append(">\n");
+		}
+		sb.append("</body></html>\n");
+		return sb.toString();
+	}
+
+	private static String rss(Random random, int items, boolean geo, boolean badDates) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<rss version=\"2.0\"");
+		if (geo) {
+			sb.append(random.nextBoolean() ? " xmlns:georss=\"http://www.georss.org/georss\""
+					: " xmlns:geo=\"http://www.w3.org/2003/01/geo/wgs84_pos#\"");
+		}
+		sb.append(" xmlns:dc=\"http://purl.org/dc/elements/1.1/\">\n<channel><title>").append(sentence(random, 3));
+		sb.append("</title><link>http://example.com/</link>\n");
+		boolean w3c = sb.indexOf("wgs84_pos") > 0;
+		for (int i = 0; i < items; ++i) {
+			sb.append("<item><title>").append(sentence(random, 5)).append("</title>");
+			sb.append("<description><![CDATA[<p>").append(sentence(random, 25)).append("</p>]]></description>");
+			sb.append("<pubDate>").append(badDates ? badDate(random) : rfc822(random)).append("</pubDate>");
+			if (geo) {
+				String lat = coordinate(random, 90);
+				String lon = coordinate(random, 180);
+				if (w3c) {
+					sb.append("<geo:lat>").append(lat).append("</geo:lat><geo:long>").append(lon).append("</geo:long>");
+				} else {
+					sb.append("<georss:point>").append(lat).append(' ').append(lon).append("</georss:point>");
+				}
+			}
+			sb.append("</item>\n");
+		}
+		sb.append("</channel></rss>\n");
+		return sb.toString();
+	}
+
+	private static String atom(Random random, int entries, boolean geo) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<feed xmlns=\"http://www.w3.org/2005/Atom\"");
+		if (geo) {
+			sb.append(" xmlns:georss=\"http://www.georss.org/georss\" xmlns:gml=\"http://www.opengis.net/gml\"");
+		}
+		sb.append(">\n<title>").append(sentence(random, 3)).append("</title>\n");
+		sb.append("<updated>").append(iso(random)).append("</updated>\n");
+		for (int i = 0; i < entries; ++i) {
+			sb.append("<entry><title>").append(sentence(random, 5)).append("</title>");
+			sb.append("<updated>").append(iso(random)).append("</updated>");
+			if (geo) {
+				sb.append("<georss:where><gml:Point><gml:pos>").append(coordinate(random, 90)).append(' ');
+				sb.append(coordinate(random, 180)).append("</gml:pos></gml:Point></georss:where>");
+			}
+			sb.append("<content type=\"html\">&lt;p&gt;").append(sentence(random, 20)).append("&lt;/p&gt;</content></entry>\n");
+		}
+		sb.append("</feed>\n");
+		return sb.toString();
+	}
+
+	private static byte[] watJson(String url, Response r, Random random) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"Envelope\":{\"Format\":\"WARC\",\"WARC-Header-Metadata\":{\"WARC-Type\":\"response\",");
+		sb.append("\"WARC-Target-URI\":\"").append(url).append("\"},\"Payload-Metadata\":{");
+		sb.append("\"Actual-Content-Type\":\"application/http; msgtype=response\",\"HTTP-Response-Metadata\":{");
+		sb.append("\"Response-Message\":{\"Status\":\"").append(r.status.substring(0, 3)).append("\"},\"Headers\":{");
+		sb.append("\"Date\":\"Tue, 22 Jul 2014 02:58:04 GMT\"");
+		if (r.server != null) {
+			sb.append(",\"Server\":\"").append(r.server).append('"');
+		}
+		if (r.contentType != null) {
+			sb.append(",\"Content-Type\":\"").append(r.contentType).append('"');
+		}
+		sb.append("}");
+		if (r.text != null) {
+			sb.append(",\"HTML-Metadata\":{\"Head\":{\"Title\":\"A \\\"title\\\" caf\\u00e9\"},\"Links\":[");
+			for (int i = 0; i < r.links; ++i) {
+				sb.append(i > 0 ? "," : "").append("{\"path\":\"A@/href\",\"url\":\"/").append(word(random));
+				sb.append('/').append(random.nextInt(1000)).append("\"}");
+			}
+			sb.append("]}");
+		}
+		sb.append("}},\"Container\":{\"Compressed\":true}}}");
+		return utf8(sb.toString());
+	}
+
+	private static String coordinate(Random random, int range) {
+		return String.format(Locale.ROOT, "%.4f", (random.nextDouble() * 2 - 1) * range);
+	}
+
+	private static String rfc822(Random random) {
+		SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss Z", Locale.ROOT);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return format.format(new Date(1200000000000L + (long) random.nextInt(200000000) * 1000));
+	}
+
+	private static String iso(Random random) {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.ROOT);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return format.format(new Date(1200000000000L + (long) random.nextInt(200000000) * 1000));
+	}
+
+	private static String badDate(Random random) {
+		String[] bad = {"yesterday", "32 Foo 2014", "2014-13-45T99:99:99Z", "", "Mon, 25 Aug"};
+		return bad[random.nextInt(bad.length)];
+	}
+
+	private static String word(Random random) {
+		return WORDS[random.nextInt(WORDS.length)];
+	}
+
+	private static String sentence(Random random, int words) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < words; ++i) {
+			if (i > 0) {
+				sb.append(random.nextInt(12) == 0 ? ", " : " ");
+			}
+			sb.append(word(random));
+		}
+		return sb.toString();
+	}
+
+	private static byte[] utf8(String s) {
+		return s.getBytes(UTF8);
+	}
+
+	/**
+	 * A gzipped archive file written one gzip member per record.
+	 */
+	private static class ArchiveFile {
+		final File file;
+		final OutputStream out;
+		final Random random;
+		final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.ROOT);
+		int records;
+
+		ArchiveFile(File file, Random random) throws IOException {
+			this.file = file;
+			this.random = random;
+			this.out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+			dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+		}
+
+		void write(String type, String contentType, String url, long time, byte[] payload) throws IOException {
+			StringBuilder sb = new StringBuilder("WARC/1.0\r\n");
+			sb.append("WARC-Type: ").append(type).append("\r\n");
+			sb.append("WARC-Date: ").append(dateFormat.format(new Date(time))).append("\r\n");
+			sb.append("WARC-Record-ID: <urn:uuid:").append(new UUID(random.nextLong(), random.nextLong())).append(">\r\n");
+			sb.append("Content-Length: ").append(payload.length).append("\r\n");
+			sb.append("Content-Type: ").append(contentType).append("\r\n");
+			if (url != null) {
+				sb.append("WARC-Target-URI: ").append(url).append("\r\n");
+			}
+			sb.append("\r\n");
+			// The member stream is closed for each record, the file is not
+			OutputStream member = new GZIPOutputStream(new FilterOutputStream(out) {
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					out.write(b, off, len);
+				}
+
+				@Override
+				public void close() throws IOException {
+					flush();
+				}
+			});
+			member.write(utf8(sb.toString()));
+			member.write(payload);
+			member.write(utf8("\r\n\r\n"));
+			member.close();
+			++records;
+		}
+
+		void close() throws IOException {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,286 @@
+package org.commoncrawl.warc;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Splits a UTF-8 byte stream into words without decoding it to Strings.
+ *
+ * The stream is read into a buffer that is reused from one document to the
+ * next, and each word is returned as a range of that buffer, ready for
+ * {@code Text.set(byte[], int, int)} or {@link LongCountAggregator#add}.
+ * Case folding rewrites the bytes of a word in place, so a word is only
+ * valid until the next call to {@link #next()}.
+ *
+ * In {@link Mode#WHITESPACE} mode words are separated by the same ASCII
+ * whitespace as StringTokenizer. In {@link Mode#UNICODE} mode a word is a
+ * run of letters, digits and combining marks in any script, and everything
+ * else, including malformed UTF-8, separates words. Case folding maps each
+ * code point with Character.toLowerCase, except for the few whose lower
+ * case form needs more bytes, which are left as they are.
+ *
+ * Words longer than {@link #MAX_WORD} bytes are skipped. Instances are not
+ * thread safe.
+ */
+public class Utf8Tokenizer {
+	public static enum Mode {
+		WHITESPACE,
+		UNICODE
+	}
+
+	/** Longest word returned, in bytes. */
+	public static final int MAX_WORD = 1024;
+
+	private static final int CHUNK = 64 * 1024;
+
+	// Whether an ASCII byte is part of a word, per mode
+	private static final boolean[] WHITESPACE_WORD = new boolean[128];
+	private static final boolean[] UNICODE_WORD = new boolean[128];
+	private static final byte[] ASCII_LOWER = new byte[128];
+
+	static {
+		for (int c = 0; c < 128; ++c) {
+			WHITESPACE_WORD[c] = " \t\n\r\f".indexOf(c) < 0;
+			UNICODE_WORD[c] = Character.isLetterOrDigit(c);
+			ASCII_LOWER[c] = (byte) Character.toLowerCase(c);
+		}
+	}
+
+	private final Mode mode;
+	private final boolean lowercase;
+	private final boolean[] asciiWord;
+
+	private final byte[] buf = new byte[CHUNK];
+	private int pos;
+	private int limit;
+	private InputStream in;
+	// While a word is read: where it starts and where its next byte is written
+	private int wordStart = -1;
+	private int write;
+	private int decoded;
+
+	private int offset;
+	private int length;
+
+	public Utf8Tokenizer(Mode mode, boolean lowercase) {
+		this.mode = mode;
+		this.lowercase = lowercase;
+		this.asciiWord = mode == Mode.UNICODE ? UNICODE_WORD : WHITESPACE_WORD;
+	}
+
+	/**
+	 * Starts tokenizing a new stream. The stream is not closed by the tokenizer.
+	 */
+	public void reset(InputStream in) {
+		this.in = in;
+		pos = 0;
+		limit = 0;
+		wordStart = -1;
+	}
+
+	/**
+	 * Advances to the next word. Returns false at the end of the stream.
+	 */
+	public boolean next() throws IOException {
+		while (true) {
+			wordStart = -1;
+			if (!skipSeparators()) {
+				return false;
+			}
+			wordStart = pos;
+			write = pos;
+			boolean tooLong = false;
+			while (available(1)) {
+				int c = buf[pos];
+				if (c >= 0) {
+					if (!asciiWord[c]) {
+						break;
+					}
+					buf[write++] = lowercase ? ASCII_LOWER[c] : (byte) c;
+					++pos;
+				} else if (mode == Mode.WHITESPACE && !lowercase) {
+					// Any other byte belongs to the word as it is
+					buf[write++] = buf[pos++];
+				} else {
+					int n = decode();
+					if (mode == Mode.UNICODE && !isWordChar(decoded)) {
+						break;
+					}
+					int lower = lowercase && decoded >= 0 ? Character.toLowerCase(decoded) : decoded;
+					if (lower != decoded && utf8Length(lower) <= n) {
+						write = encode(lower, write);
+					} else {
+						// write never passes pos, so the bytes can be moved down in place
+						System.arraycopy(buf, pos, buf, write, n);
+						write += n;
+					}
+					pos += n;
+				}
+				if (write - wordStart > MAX_WORD) {
+					// Keep skipping the word without holding it
+					tooLong = true;
+					wordStart = pos;
+					write = pos;
+				}
+			}
+			if (!tooLong) {
+				offset = wordStart;
+				length = write - wordStart;
+				wordStart = -1;
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Returns the buffer holding the current word.
+	 */
+	public byte[] getBytes() {
+		return buf;
+	}
+
+	public int getOffset() {
+		return offset;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	private boolean skipSeparators() throws IOException {
+		while (available(1)) {
+			int c = buf[pos];
+			if (c >= 0) {
+				if (asciiWord[c]) {
+					return true;
+				}
+				++pos;
+			} else if (mode == Mode.WHITESPACE) {
+				return true;
+			} else {
+				int n = decode();
+				if (isWordChar(decoded)) {
+					return true;
+				}
+				pos += n;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isWordChar(int cp) {
+		if (cp < 0) {
+			return false;
+		}
+		switch (Character.getType(cp)) {
+		case Character.UPPERCASE_LETTER:
+		case Character.LOWERCASE_LETTER:
+		case Character.TITLECASE_LETTER:
+		case Character.MODIFIER_LETTER:
+		case Character.OTHER_LETTER:
+		case Character.DECIMAL_DIGIT_NUMBER:
+		case Character.NON_SPACING_MARK:
+		case Character.COMBINING_SPACING_MARK:
+		case Character.ENCLOSING_MARK:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Decodes the sequence starting with the non-ASCII byte at pos into
+	 * decoded, or -1 if it is malformed, and returns its length in bytes.
+	 */
+	private int decode() throws IOException {
+		int c = buf[pos] & 0xff;
+		int n;
+		int cp;
+		if ((c & 0xe0) == 0xc0) {
+			n = 2;
+			cp = c & 0x1f;
+		} else if ((c & 0xf0) == 0xe0) {
+			n = 3;
+			cp = c & 0x0f;
+		} else if ((c & 0xf8) == 0xf0) {
+			n = 4;
+			cp = c & 0x07;
+		} else {
+			decoded = -1;
+			return 1;
+		}
+		if (!available(n)) {
+			decoded = -1;
+			return 1;
+		}
+		for (int i = 1; i < n; ++i) {
+			int b = buf[pos + i];
+			if ((b & 0xc0) != 0x80) {
+				decoded = -1;
+				return 1;
+			}
+			cp = (cp << 6) | (b & 0x3f);
+		}
+		if (utf8Length(cp) != n || cp > Character.MAX_CODE_POINT
+				|| (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE)) {
+			// Overlong, out of range or a surrogate
+			decoded = -1;
+			return 1;
+		}
+		decoded = cp;
+		return n;
+	}
+
+	private static int utf8Length(int cp) {
+		return cp < 0x80 ? 1 : cp < 0x800 ? 2 : cp < 0x10000 ? 3 : 4;
+	}
+
+	private int encode(int cp, int at) {
+		if (cp < 0x80) {
+			buf[at++] = (byte) cp;
+		} else if (cp < 0x800) {
+			buf[at++] = (byte) (0xc0 | (cp >> 6));
+			buf[at++] = (byte) (0x80 | (cp & 0x3f));
+		} else if (cp < 0x10000) {
+			buf[at++] = (byte) (0xe0 | (cp >> 12));
+			buf[at++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+			buf[at++] = (byte) (0x80 | (cp & 0x3f));
+		} else {
+			buf[at++] = (byte) (0xf0 | (cp >> 18));
+			buf[at++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+			buf[at++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+			buf[at++] = (byte) (0x80 | (cp & 0x3f));
+		}
+		return at;
+	}
+
+	/**
+	 * Makes n bytes from pos available in the buffer, moving the word being
+	 * read to the start of the buffer to make room. Returns false if the
+	 * stream ends first.
+	 */
+	private boolean available(int n) throws IOException {
+		while (limit - pos < n) {
+			if (in == null) {
+				return false;
+			}
+			int keep = wordStart >= 0 ? wordStart : pos;
+			if (keep > 0) {
+				System.arraycopy(buf, keep, buf, 0, limit - keep);
+				pos -= keep;
+				limit -= keep;
+				if (wordStart >= 0) {
+					wordStart = 0;
+					write -= keep;
+				}
+			}
+			int read = in.read(buf, limit, buf.length - limit);
+			if (read <= 0) {
+				in = null;
+				return false;
+			}
+			limit += read;
+		}
+		return true;
+	}
+}
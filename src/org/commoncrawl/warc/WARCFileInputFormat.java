@@ -2,9 +2,13 @@ package org.commoncrawl.warc;
 
 import java.io.IOException;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
@@ -13,21 +17,147 @@ import org.archive.io.ArchiveReader;
 
 /**
  * Minimal implementation of FileInputFormat for WARC files.
- * Hadoop is told that splitting these compressed files is not possible.
+ * By default Hadoop is told that splitting these compressed files is not possible.
+ *
+ * Files are read as gzipped, zstd compressed (.warc.zst, needing zstd-jni
+ * on the classpath) or uncompressed WARC according to their first bytes
+ * (see {@link #detectFormat}), whatever their names.
+ *
+ * When {@link #SPLITTABLE} is enabled, WARC files are split on the usual
+ * Hadoop boundaries and each split is realigned by the record reader to the
+ * gzip members or zstd frames (one per record), or the uncompressed records,
+ * that start inside it.
+ *
+ * When {@link #INFLATE_THREADS} is set, the members of each file are
+ * inflated on a pool of threads (see {@link ParallelMemberSource}).
  *
  * @author Stephen Merity (Smerity)
  */
 public class WARCFileInputFormat extends FileInputFormat<Text, ArchiveReader> {
+	/** Whether WARC files may be split on record boundaries. */
+	public static final String SPLITTABLE = "warc.input.splittable";
+	/** Threads used to inflate the gzip members of each file; 0 inflates on the reading thread. */
+	public static final String INFLATE_THREADS = "warc.input.inflate.threads";
+	/** How many gzip members may be read ahead of the mapper when inflating on several threads. */
+	public static final String INFLATE_QUEUE = "warc.input.inflate.queue";
+	/**
+	 * How gzip members are inflated: "stream" (the default) through the
+	 * archive reader's GZIP stream; "java" one member at a time with a reused
+	 * java.util.zip.Inflater; "native" likewise with Hadoop's native zlib,
+	 * falling back to "java" when it is not loaded.
+	 */
+	public static final String INFLATER = "warc.input.inflater";
+
+	/**
+	 * The layouts of WARC file that can be read.
+	 */
+	public static enum Format {
+		/** Concatenated gzip members. */
+		GZIP,
+		/** Concatenated zstd frames, optionally after a dictionary. */
+		ZSTD,
+		/** Uncompressed records. */
+		PLAIN
+	}
+
+	/**
+	 * Enables or disables splitting WARC files on record boundaries.
+	 */
+	public static void setSplittable(Job job, boolean splittable) {
+		job.getConfiguration().setBoolean(SPLITTABLE, splittable);
+	}
+
+	/**
+	 * Inflates the gzip members of each file on the given number of threads,
+	 * still handing records to the mapper in file order.
+	 */
+	public static void setInflateThreads(Job job, int threads) {
+		job.getConfiguration().setInt(INFLATE_THREADS, threads);
+	}
+
+	/**
+	 * Selects how gzip members are inflated; see {@link #INFLATER}.
+	 */
+	public static void setInflater(Job job, String inflater) {
+		job.getConfiguration().set(INFLATER, inflater);
+	}
+
+	/**
+	 * Returns the format of a file starting with the given bytes, or null if
+	 * it is not recognised. At least 8 bytes should be given when the file
+	 * is that long.
+	 */
+	public static Format detectFormat(byte[] b, int len) {
+		if (GzipMembers.isHeader(b, 0, len)) {
+			return Format.GZIP;
+		}
+		if (ZstdFrames.isFrame(b, 0, len) || ZstdFrames.isSkippableFrame(b, 0, len)) {
+			return Format.ZSTD;
+		}
+		if (PlainWARCRecords.isRecord(b, 0, len)) {
+			return Format.PLAIN;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the format of an open file, read without moving its position,
+	 * or null if it is not recognised.
+	 */
+	public static Format detectFormat(FSDataInputStream in) throws IOException {
+		byte[] b = new byte[16];
+		int n = 0;
+		while (n < b.length) {
+			int r = in.read(n, b, n, b.length - n);
+			if (r < 0) {
+				break;
+			}
+			n += r;
+		}
+		return detectFormat(b, n);
+	}
+
+	/**
+	 * Returns true if the given file may be split under the given configuration.
+	 * Only files made of per-record gzip members or zstd frames, or of
+	 * uncompressed records, can be realigned to a record.
+	 *
+	 * Files named .gz, .zst or .warc are taken to be splittable without
+	 * being opened, as this runs for every input file when the job is
+	 * submitted; the record reader detects their actual format. Only files
+	 * with other names are sniffed here.
+	 */
+	public static boolean isSplittable(Configuration conf, Path filename) {
+		if (!conf.getBoolean(SPLITTABLE, false)) {
+			return false;
+		}
+		String name = filename.getName();
+		if (name.endsWith(".gz") || name.endsWith(".zst") || name.endsWith(".warc")) {
+			return true;
+		}
+		try {
+			FileSystem fs = filename.getFileSystem(conf);
+			FSDataInputStream in = fs.open(filename);
+			try {
+				return detectFormat(in) != null;
+			} finally {
+				in.close();
+			}
+		} catch (IOException ex) {
+			// The record reader will report it
+			return false;
+		}
+	}
 
 	@Override
 	public RecordReader<Text, ArchiveReader> createRecordReader(InputSplit split, TaskAttemptContext context)
 			throws IOException, InterruptedException {
 		return new WARCFileRecordReader();
 	}
-	
+
 	@Override
 	protected boolean isSplitable(JobContext context, Path filename) {
-		// As these are compressed files, they cannot be (sanely) split
-		return false;
+		// As these are mostly compressed files, they cannot be split without realigning to records
+		return isSplittable(context.getConfiguration(), filename);
 	}
 }
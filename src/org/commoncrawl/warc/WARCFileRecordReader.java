@@ -2,47 +2,51 @@ package org.commoncrawl.warc;
 
 import java.io.IOException;
 
-import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.FileSystem;
-import org.apache.hadoop.fs.FSDataInputStream;
-import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 import org.archive.io.ArchiveReader;
-import org.archive.io.warc.WARCReaderFactory;
 
 /**
  * The WARC File Record Reader processes a single compressed input.
  * The Record Reader returns a single WARC ArchiveReader that can contain
  * numerous individual documents, each document handled in a single mapper.
  *
+ * If the input is only part of a file, the ArchiveReader only covers the
+ * records owned by the split (see {@link WARCSplitInput}), and the record
+ * offsets it reports are relative to the aligned split start.
+ *
  * @author Stephen Merity (Smerity)
  */
 public class WARCFileRecordReader extends RecordReader<Text, ArchiveReader> {
 	private String arPath;
 	private ArchiveReader ar;
-	private FSDataInputStream fsin;
+	private WARCSplitInput input;
 	private boolean hasBeenRead = false;
 
 	@Override
 	public void initialize(InputSplit inputSplit, TaskAttemptContext context)
 			throws IOException, InterruptedException {
-		FileSplit split = (FileSplit) inputSplit;
-		Configuration conf = context.getConfiguration();
-		Path path = split.getPath();
-		FileSystem fs = path.getFileSystem(conf);
-		fsin = fs.open(path);
-		arPath = path.getName();
-		ar = WARCReaderFactory.get(path.getName(), fsin, true);
+		input = new WARCSplitInput((FileSplit) inputSplit, context.getConfiguration(), context);
+		arPath = input.getPath().getName();
+		if (input.isEmpty()) {
+			// No record starts within this split
+			hasBeenRead = true;
+			return;
+		}
+		ar = WARCRecordFilter.apply(input.openArchiveReader(), context.getConfiguration(), context);
 	}
 
 	@Override
 	public void close() throws IOException {
-		fsin.close();
-		ar.close();
+		if (input != null) {
+			input.close();
+		}
+		if (ar != null) {
+			ar.close();
+		}
 	}
 
 	@Override
@@ -0,0 +1,60 @@
+package org.commoncrawl.warc;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.archive.io.ArchiveReader;
+
+/**
+ * Returns a single ArchiveReader over the records of a {@link WARCRangeSplit},
+ * seeking straight to each record's gzip member.
+ */
+public class WARCRangeRecordReader extends RecordReader<Text, ArchiveReader> {
+	private String arPath;
+	private ArchiveReader ar;
+	private RangeMemberSource source;
+	private boolean hasBeenRead = false;
+
+	@Override
+	public void initialize(InputSplit inputSplit, TaskAttemptContext context)
+			throws IOException, InterruptedException {
+		WARCRangeSplit split = (WARCRangeSplit) inputSplit;
+		Path path = new Path(split.getPath());
+		arPath = path.getName();
+		source = new RangeMemberSource(path.getFileSystem(context.getConfiguration()).open(path), split);
+		ar = WARCRecordFilter.apply(new MemberArchiveReader(arPath, source), context.getConfiguration(), context);
+	}
+
+	@Override
+	public void close() throws IOException {
+		ar.close();
+	}
+
+	@Override
+	public Text getCurrentKey() throws IOException, InterruptedException {
+		return new Text(arPath);
+	}
+
+	@Override
+	public ArchiveReader getCurrentValue() throws IOException, InterruptedException {
+		return ar;
+	}
+
+	@Override
+	public float getProgress() throws IOException, InterruptedException {
+		return hasBeenRead ? source.getProgress() : 0;
+	}
+
+	@Override
+	public boolean nextKeyValue() throws IOException, InterruptedException {
+		if (hasBeenRead) {
+			return false;
+		}
+		hasBeenRead = true;
+		return true;
+	}
+}
@@ -0,0 +1,91 @@
+package org.commoncrawl.warc;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.InputSplit;
+
+/**
+ * A split made of individual gzip members of one WARC file, given as
+ * (offset, length) ranges in ascending offset order.
+ */
+public class WARCRangeSplit extends InputSplit implements Writable {
+	private String path;
+	private long[] offsets;
+	private long[] lengths;
+
+	public WARCRangeSplit() {
+	}
+
+	public WARCRangeSplit(String path, long[] offsets, long[] lengths) {
+		this.path = path;
+		this.offsets = offsets;
+		this.lengths = lengths;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public int size() {
+		return offsets.length;
+	}
+
+	public long getOffset(int i) {
+		return offsets[i];
+	}
+
+	public long getLength(int i) {
+		return lengths[i];
+	}
+
+	@Override
+	public long getLength() {
+		long total = 0;
+		for (long l : lengths) {
+			total += l;
+		}
+		return total;
+	}
+
+	@Override
+	public String[] getLocations() {
+		return new String[0];
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		Text.writeString(out, path);
+		WritableUtils.writeVInt(out, offsets.length);
+		long last = 0;
+		for (int i = 0; i < offsets.length; ++i) {
+			// Offsets ascend, so store the gaps
+			WritableUtils.writeVLong(out, offsets[i] - last);
+			WritableUtils.writeVLong(out, lengths[i]);
+			last = offsets[i];
+		}
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		path = Text.readString(in);
+		int n = WritableUtils.readVInt(in);
+		offsets = new long[n];
+		lengths = new long[n];
+		long last = 0;
+		for (int i = 0; i < n; ++i) {
+			last += WritableUtils.readVLong(in);
+			offsets[i] = last;
+			lengths[i] = WritableUtils.readVLong(in);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return path + " (" + offsets.length + " records)";
+	}
+}
@@ -0,0 +1,162 @@
+package org.commoncrawl.warc;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.archive.io.ArchiveReader;
+import org.archive.io.ArchiveRecordHeader;
+
+/**
+ * A declarative filter on WARC record headers, read from the job configuration.
+ *
+ * The record readers apply it before records reach the mapper, so records
+ * that fail it are skipped without their content being read and without the
+ * mapper (or its counters) ever seeing them. Every configured condition must
+ * hold; within a condition any of the listed values may match.
+ *
+ * Instances are not thread safe.
+ */
+public class WARCRecordFilter {
+	/** Comma separated WARC-Type values to keep, e.g. "response". */
+	public static final String TYPES = "warc.filter.type";
+	/** Comma separated WARC Content-Type values to keep, e.g. "application/json". */
+	public static final String MIME_TYPES = "warc.filter.mimetype";
+	/** Regular expression that must be found in the WARC-Target-URI. */
+	public static final String URL_PATTERN = "warc.filter.url.regex";
+	/** Comma separated hosts to keep; subdomains of a listed host are kept too. */
+	public static final String HOSTS = "warc.filter.host";
+	/** Smallest WARC Content-Length to keep. */
+	public static final String MIN_LENGTH = "warc.filter.length.min";
+	/** Largest WARC Content-Length to keep. */
+	public static final String MAX_LENGTH = "warc.filter.length.max";
+
+	public static enum FILTERCOUNTER {
+		RECORDS_ACCEPTED,
+		RECORDS_SKIPPED
+	}
+
+	private final Set<String> types;
+	private final Set<String> mimeTypes;
+	private final Matcher urlMatcher;
+	private final String[] hosts;
+	private final long minLength;
+	private final long maxLength;
+
+	public WARCRecordFilter(Configuration conf) {
+		types = toSet(conf.getStrings(TYPES));
+		mimeTypes = toSet(conf.getStrings(MIME_TYPES));
+		String pattern = conf.get(URL_PATTERN);
+		urlMatcher = pattern == null ? null : Pattern.compile(pattern).matcher("");
+		hosts = conf.getStrings(HOSTS);
+		minLength = conf.getLong(MIN_LENGTH, Long.MIN_VALUE);
+		maxLength = conf.getLong(MAX_LENGTH, Long.MAX_VALUE);
+	}
+
+	public static void setTypes(Job job, String... types) {
+		job.getConfiguration().setStrings(TYPES, types);
+	}
+
+	public static void setMimeTypes(Job job, String... mimeTypes) {
+		job.getConfiguration().setStrings(MIME_TYPES, mimeTypes);
+	}
+
+	public static void setUrlPattern(Job job, String regex) {
+		job.getConfiguration().set(URL_PATTERN, regex);
+	}
+
+	public static void setHosts(Job job, String... hosts) {
+		job.getConfiguration().setStrings(HOSTS, hosts);
+	}
+
+	public static void setLengthRange(Job job, long min, long max) {
+		job.getConfiguration().setLong(MIN_LENGTH, min);
+		job.getConfiguration().setLong(MAX_LENGTH, max);
+	}
+
+	/**
+	 * Returns true if any filter condition is set in the configuration.
+	 */
+	public static boolean isConfigured(Configuration conf) {
+		return conf.get(TYPES) != null || conf.get(MIME_TYPES) != null || conf.get(URL_PATTERN) != null
+				|| conf.get(HOSTS) != null || conf.get(MIN_LENGTH) != null || conf.get(MAX_LENGTH) != null;
+	}
+
+	/**
+	 * Wraps the reader so only records passing the configured filter are
+	 * returned, or returns it unchanged if no filter is configured. The
+	 * skipped and accepted counts are added to the task counters on close.
+	 */
+	public static ArchiveReader apply(ArchiveReader ar, Configuration conf, TaskAttemptContext context) {
+		if (!isConfigured(conf)) {
+			return ar;
+		}
+		return new FilteringArchiveReader(ar, new WARCRecordFilter(conf), context);
+	}
+
+	/**
+	 * Returns true if a record with the given header passes the filter.
+	 */
+	public boolean accept(ArchiveRecordHeader header) {
+		if (types != null && !types.contains(header.getHeaderValue("WARC-Type"))) {
+			return false;
+		}
+		if (mimeTypes != null && !mimeTypes.contains(header.getMimetype())) {
+			return false;
+		}
+		long length = header.getContentLength();
+		if (length < minLength || length > maxLength) {
+			return false;
+		}
+		if (hosts != null || urlMatcher != null) {
+			String url = header.getUrl();
+			if (url == null) {
+				return false;
+			}
+			if (hosts != null && !matchesHost(url)) {
+				return false;
+			}
+			if (urlMatcher != null && !urlMatcher.reset(url).find()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean matchesHost(String url) {
+		int start = url.indexOf("://");
+		start = start < 0 ? 0 : start + 3;
+		int end = start;
+		while (end < url.length()) {
+			char c = url.charAt(end);
+			if (c == '/' || c == ':' || c == '?' || c == '#') {
+				break;
+			}
+			if (c == '@') {
+				// Skip user info
+				start = end + 1;
+			}
+			++end;
+		}
+		int length = end - start;
+		for (String host : hosts) {
+			int n = host.length();
+			if (length == n && url.regionMatches(true, start, host, 0, n)) {
+				return true;
+			}
+			if (length > n && url.charAt(end - n - 1) == '.' && url.regionMatches(true, end - n, host, 0, n)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static Set<String> toSet(String[] values) {
+		return values == null ? null : new HashSet<String>(Arrays.asList(values));
+	}
+}
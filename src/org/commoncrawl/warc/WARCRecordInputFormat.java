@@ -0,0 +1,34 @@
+package org.commoncrawl.warc;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.archive.io.ArchiveRecord;
+
+/**
+ * FileInputFormat for WARC files that hands each record to the mapper
+ * individually, keyed by the record's offset in the file.
+ *
+ * Unlike {@link WARCFileInputFormat}, Hadoop sees how far through the file a
+ * task has got, which keeps speculative execution and task timeouts sane on
+ * large inputs. Splitting follows the same {@link WARCFileInputFormat#SPLITTABLE} setting.
+ */
+public class WARCRecordInputFormat extends FileInputFormat<LongWritable, ArchiveRecord> {
+
+	@Override
+	public RecordReader<LongWritable, ArchiveRecord> createRecordReader(InputSplit split, TaskAttemptContext context)
+			throws IOException, InterruptedException {
+		return new WARCRecordReader();
+	}
+
+	@Override
+	protected boolean isSplitable(JobContext context, Path filename) {
+		return WARCFileInputFormat.isSplittable(context.getConfiguration(), filename);
+	}
+}
@@ -0,0 +1,76 @@
+package org.commoncrawl.warc;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.archive.io.ArchiveReader;
+import org.archive.io.ArchiveRecord;
+
+/**
+ * Reads a WARC file split one record at a time. The key is the offset of
+ * the record's gzip member in the file, the value the record itself.
+ *
+ * A record is only readable until the next call to {@link #nextKeyValue()}.
+ * Progress is the fraction of the split's compressed bytes consumed.
+ */
+public class WARCRecordReader extends RecordReader<LongWritable, ArchiveRecord> {
+	private final LongWritable key = new LongWritable();
+	private WARCSplitInput input;
+	private ArchiveReader ar;
+	private Iterator<ArchiveRecord> records;
+	private ArchiveRecord value;
+	private boolean done;
+
+	@Override
+	public void initialize(InputSplit inputSplit, TaskAttemptContext context)
+			throws IOException, InterruptedException {
+		input = new WARCSplitInput((FileSplit) inputSplit, context.getConfiguration(), context);
+		if (!input.isEmpty()) {
+			ar = WARCRecordFilter.apply(input.openArchiveReader(), context.getConfiguration(), context);
+			records = ar.iterator();
+		}
+	}
+
+	@Override
+	public boolean nextKeyValue() throws IOException, InterruptedException {
+		if (records == null || !records.hasNext()) {
+			value = null;
+			done = true;
+			return false;
+		}
+		value = records.next();
+		key.set(input.getStart() + value.getHeader().getOffset());
+		return true;
+	}
+
+	@Override
+	public LongWritable getCurrentKey() throws IOException, InterruptedException {
+		return key;
+	}
+
+	@Override
+	public ArchiveRecord getCurrentValue() throws IOException, InterruptedException {
+		return value;
+	}
+
+	@Override
+	public float getProgress() throws IOException, InterruptedException {
+		// Checking the iterator here would read ahead and invalidate the current record
+		return done ? 1 : input.getProgress();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (input != null) {
+			input.close();
+		}
+		if (ar != null) {
+			ar.close();
+		}
+	}
+}
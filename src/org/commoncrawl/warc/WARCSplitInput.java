@@ -0,0 +1,179 @@
+package org.commoncrawl.warc;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.util.Progressable;
+import org.archive.io.ArchiveReader;
+import org.archive.io.warc.WARCReaderFactory;
+
+/**
+ * An open WARC file split, aligned to the records it owns.
+ *
+ * If the split is only part of a file, it starts at the first gzip member,
+ * zstd frame or uncompressed record at or after the split start and stops
+ * at the first one at or after the split end, so every record is read by
+ * exactly one split. The file's format is detected from its first bytes.
+ *
+ * With {@link LocalFileCache#DIR} set, the file is read from a copy in
+ * the node's cache, fetched whole on first use. Otherwise, with
+ * {@link PrefetchingInputStream#PARTS} set, the records are read through a
+ * {@link PrefetchingInputStream}, several ranges at a time.
+ */
+public class WARCSplitInput implements Closeable {
+	private final Configuration conf;
+	private final Path path;
+	private final FSDataInputStream fsin;
+	private PrefetchingInputStream prefetch;
+	private boolean cached;
+	private final WARCFileInputFormat.Format format;
+	private final byte[] dictionary;
+	private final long start;
+	private final long end;
+
+	public WARCSplitInput(FileSplit split, Configuration conf) throws IOException {
+		this(split, conf, null);
+	}
+
+	/**
+	 * Opens the split; progress, if not null, is told of progress while a
+	 * file is fetched into the cache.
+	 */
+	public WARCSplitInput(FileSplit split, Configuration conf, Progressable progress) throws IOException {
+		this.conf = conf;
+		path = split.getPath();
+		FileSystem fs = path.getFileSystem(conf);
+		FileStatus status = fs.getFileStatus(path);
+		LocalFileCache cache = LocalFileCache.get(conf);
+		FSDataInputStream in = cache == null ? null : cache.open(status, conf, progress);
+		cached = in != null;
+		fsin = cached ? in : fs.open(path);
+
+		long fileLength = status.getLen();
+		format = WARCFileInputFormat.detectFormat(fsin);
+		// Every split of a zstd file needs the dictionary from its start
+		dictionary = format == WARCFileInputFormat.Format.ZSTD ? ZstdFrames.readDictionary(fsin, fileLength) : null;
+		long s = split.getStart();
+		long e = s + split.getLength();
+		if (s > 0) {
+			s = nextRecordStart(s, fileLength);
+		}
+		if (e < fileLength) {
+			e = nextRecordStart(e, fileLength);
+		}
+		start = s;
+		end = Math.max(s, e);
+	}
+
+	private long nextRecordStart(long from, long fileLength) throws IOException {
+		if (format == WARCFileInputFormat.Format.ZSTD) {
+			return ZstdFrames.nextFrameStart(fsin, from, fileLength, fileLength);
+		}
+		if (format == WARCFileInputFormat.Format.PLAIN) {
+			return PlainWARCRecords.nextRecordStart(fsin, from, fileLength, fileLength);
+		}
+		return GzipMembers.nextMemberStart(fsin, from, fileLength);
+	}
+
+	/**
+	 * Returns the format of the file, or null if it was not recognised, in
+	 * which case it is read according to its name.
+	 */
+	public WARCFileInputFormat.Format getFormat() {
+		return format;
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * Returns the file offset of the first record owned by this split.
+	 */
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * Returns the file offset just past the last record owned by this split.
+	 */
+	public long getEnd() {
+		return end;
+	}
+
+	/**
+	 * Returns true if no record starts within this split.
+	 */
+	public boolean isEmpty() {
+		return start >= end;
+	}
+
+	/**
+	 * Opens an ArchiveReader over the records of this split. Record offsets
+	 * reported by the reader are relative to {@link #getStart()}.
+	 */
+	public ArchiveReader openArchiveReader() throws IOException {
+		InputStream in;
+		if (!cached && conf.getInt(PrefetchingInputStream.PARTS, 0) > 0) {
+			prefetch = new PrefetchingInputStream(PrefetchingInputStream.getSource(path, conf), start, end, conf);
+			in = prefetch;
+		} else {
+			fsin.seek(start);
+			in = new BoundedInputStream(fsin, end - start);
+		}
+		String name = path.getName();
+		if (format == WARCFileInputFormat.Format.ZSTD) {
+			return new MemberArchiveReader(name, new ZstdMemberSource(in, new ZstdDecompressor(dictionary)));
+		}
+		if (format == WARCFileInputFormat.Format.PLAIN) {
+			// The reader is chosen by name, and only a .gz name is decompressed; it probes for records with mark()
+			in = new BufferedInputStream(in, 64 * 1024);
+			return WARCReaderFactory.get(name.endsWith(".gz") ? name.substring(0, name.length() - 3) : name, in, true);
+		}
+		boolean gzip = format == WARCFileInputFormat.Format.GZIP || (format == null && name.endsWith(".gz"));
+		int threads = conf.getInt(WARCFileInputFormat.INFLATE_THREADS, 0);
+		String inflater = conf.get(WARCFileInputFormat.INFLATER, "stream");
+		if (threads > 0 && gzip) {
+			int queueSize = conf.getInt(WARCFileInputFormat.INFLATE_QUEUE, threads * 4);
+			String kind = "stream".equals(inflater) ? "java" : inflater;
+			return new MemberArchiveReader(name, new ParallelMemberSource(in, threads, queueSize, kind, conf));
+		}
+		if (!"stream".equals(inflater) && gzip) {
+			return new MemberArchiveReader(name, new SequentialMemberSource(in, RawInflater.create(inflater, conf)));
+		}
+		if (gzip && !name.endsWith(".gz")) {
+			name += ".gz";
+		}
+		// The file name identifies the ArchiveReader and indicates if it should be decompressed
+		return WARCReaderFactory.get(name, in, true);
+	}
+
+	/**
+	 * Returns the fraction of this split's compressed bytes consumed so far.
+	 */
+	public float getProgress() throws IOException {
+		if (isEmpty()) {
+			return 1;
+		}
+		long pos = prefetch != null ? prefetch.getPos() : fsin.getPos();
+		pos = Math.min(end, Math.max(start, pos));
+		return (pos - start) / (float) (end - start);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (prefetch != null) {
+			prefetch.close();
+		}
+		fsin.close();
+	}
+}
@@ -0,0 +1,112 @@
+package org.commoncrawl.warc;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Decompresses whole zstd frames with zstd-jni, which is an optional
+ * dependency: it is looked up at runtime, so only jobs reading .warc.zst
+ * files need it on the classpath. One decompression context is reused
+ * across frames. Instances are not thread safe.
+ */
+public class ZstdDecompressor {
+	private static final String CONTEXT = "com.github.luben.zstd.ZstdDecompressCtx";
+
+	private static Constructor<?> newContext;
+	private static Method loadDict;
+	private static Method decompress;
+	private static Method close;
+	private static Throwable missing;
+
+	static {
+		try {
+			Class<?> ctx = Class.forName(CONTEXT);
+			newContext = ctx.getConstructor();
+			loadDict = ctx.getMethod("loadDict", byte[].class);
+			decompress = ctx.getMethod("decompressByteArray", byte[].class, int.class, int.class, byte[].class, int.class, int.class);
+			close = ctx.getMethod("close");
+		} catch (Throwable t) {
+			missing = t;
+		}
+	}
+
+	private final Object context;
+
+	/**
+	 * Creates a decompressor using the given dictionary, or none if null.
+	 * The dictionary may itself be a zstd frame, as stored in .warc.zst files.
+	 */
+	public ZstdDecompressor(byte[] dictionary) throws IOException {
+		if (missing != null) {
+			throw new IOException("Reading zstd compressed WARC files needs zstd-jni (" + CONTEXT + ") on the classpath", missing);
+		}
+		try {
+			context = newContext.newInstance();
+		} catch (InvocationTargetException ex) {
+			throw new IOException("Cannot create zstd decompression context", ex.getCause());
+		} catch (Exception ex) {
+			throw new IOException("Cannot create zstd decompression context", ex);
+		}
+		if (dictionary != null) {
+			if (ZstdFrames.isFrame(dictionary, 0, dictionary.length)) {
+				dictionary = decompressDictionary(dictionary);
+			}
+			invoke(loadDict, dictionary);
+		}
+	}
+
+	private static byte[] decompressDictionary(byte[] frame) throws IOException {
+		ZstdDecompressor plain = new ZstdDecompressor(null);
+		try {
+			long size = ZstdFrames.headerLength(frame, 0, frame.length) > 0 ? ZstdFrames.contentSize(frame, 0) : -1;
+			byte[] out = new byte[size >= 0 ? (int) size : frame.length * 4];
+			int n = plain.decompress(frame, 0, frame.length, out);
+			while (n < 0) {
+				out = new byte[out.length * 2];
+				n = plain.decompress(frame, 0, frame.length, out);
+			}
+			byte[] dictionary = new byte[n];
+			System.arraycopy(out, 0, dictionary, 0, n);
+			return dictionary;
+		} finally {
+			plain.close();
+		}
+	}
+
+	/**
+	 * Decompresses one frame into out, returning the decompressed length,
+	 * or -1 if out is too small to hold it.
+	 */
+	public int decompress(byte[] src, int off, int len, byte[] out) throws IOException {
+		try {
+			return ((Integer) decompress.invoke(context, out, 0, out.length, src, off, len)).intValue();
+		} catch (InvocationTargetException ex) {
+			String message = String.valueOf(ex.getCause().getMessage());
+			if (message.contains("too small")) {
+				return -1;
+			}
+			throw new IOException("Corrupt zstd frame: " + message, ex.getCause());
+		} catch (IllegalAccessException ex) {
+			throw new IOException(ex);
+		}
+	}
+
+	private void invoke(Method method, Object... args) throws IOException {
+		try {
+			method.invoke(context, args);
+		} catch (InvocationTargetException ex) {
+			throw new IOException("zstd " + method.getName() + " failed", ex.getCause());
+		} catch (IllegalAccessException ex) {
+			throw new IOException(ex);
+		}
+	}
+
+	/**
+	 * Releases the native decompression context.
+	 */
+	public void close() throws IOException {
+		invoke(close);
+	}
+}
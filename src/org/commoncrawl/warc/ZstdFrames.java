@@ -0,0 +1,245 @@
+package org.commoncrawl.warc;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+
+/**
+ * Helpers for locating Zstandard frame boundaries in a .warc.zst file,
+ * which is a concatenation of zstd frames, one per record. The file may
+ * start with a skippable frame holding the dictionary the records were
+ * compressed with, itself possibly zstd compressed.
+ *
+ * Frames are measured by walking their block headers, so no decompressor
+ * is needed to find them. A candidate frame start is only accepted if the
+ * frame is well formed and is followed by another frame or the end of the
+ * file, which makes it (practically) impossible for compressed data that
+ * happens to contain the frame magic to be mistaken for a boundary.
+ */
+public class ZstdFrames {
+	/** Returned by {@link #frameLength} when the frame does not fit in the bytes given. */
+	public static final int INCOMPLETE = -1;
+	/** Returned by {@link #frameLength} when the bytes are not a well formed frame. */
+	public static final int MALFORMED = -2;
+
+	private static final int MAGIC = 0xFD2FB528;
+	private static final int SKIPPABLE_MAGIC = 0x184D2A50;
+	private static final int DICTIONARY_MAGIC = 0x184D2A5D;
+	private static final int MAX_BLOCK = 128 * 1024;
+	private static final int WINDOW = 64 * 1024;
+	// Longest frame header: magic, descriptor, window, dictionary id and content size
+	private static final int MAX_HEADER = 4 + 1 + 1 + 4 + 8;
+
+	private ZstdFrames() {
+	}
+
+	private static int intLE(byte[] b, int off) {
+		return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8) | ((b[off + 2] & 0xff) << 16) | ((b[off + 3] & 0xff) << 24);
+	}
+
+	/**
+	 * Returns true if a zstd frame (not a skippable frame) starts at the given offset.
+	 */
+	public static boolean isFrame(byte[] b, int off, int len) {
+		return len >= 4 && intLE(b, off) == MAGIC;
+	}
+
+	/**
+	 * Returns true if a skippable frame starts at the given offset.
+	 */
+	public static boolean isSkippableFrame(byte[] b, int off, int len) {
+		return len >= 4 && (intLE(b, off) & 0xfffffff0) == SKIPPABLE_MAGIC;
+	}
+
+	/**
+	 * Returns the length of the frame header starting at the given offset,
+	 * {@link #INCOMPLETE} or {@link #MALFORMED}.
+	 */
+	public static int headerLength(byte[] b, int off, int len) {
+		if (len < 5) {
+			return INCOMPLETE;
+		}
+		if (!isFrame(b, off, len)) {
+			return MALFORMED;
+		}
+		int descriptor = b[off + 4] & 0xff;
+		if ((descriptor & 0x08) != 0) {
+			// Reserved bit
+			return MALFORMED;
+		}
+		boolean singleSegment = (descriptor & 0x20) != 0;
+		int fcsFlag = descriptor >>> 6;
+		int hlen = 5 + (singleSegment ? 0 : 1) + dictionaryIdSize(descriptor) + contentSizeSize(fcsFlag, singleSegment);
+		return hlen > len ? INCOMPLETE : hlen;
+	}
+
+	private static int dictionaryIdSize(int descriptor) {
+		int flag = descriptor & 3;
+		return flag == 3 ? 4 : flag;
+	}
+
+	private static int contentSizeSize(int fcsFlag, boolean singleSegment) {
+		switch (fcsFlag) {
+		case 0:
+			return singleSegment ? 1 : 0;
+		case 1:
+			return 2;
+		case 2:
+			return 4;
+		default:
+			return 8;
+		}
+	}
+
+	/**
+	 * Returns the decompressed size declared in the header of the frame
+	 * starting at the given offset, or -1 if it is not declared. The header
+	 * must be complete (see {@link #headerLength}).
+	 */
+	public static long contentSize(byte[] b, int off) {
+		int descriptor = b[off + 4] & 0xff;
+		boolean singleSegment = (descriptor & 0x20) != 0;
+		int fcsFlag = descriptor >>> 6;
+		int size = contentSizeSize(fcsFlag, singleSegment);
+		if (size == 0) {
+			return -1;
+		}
+		int pos = off + 5 + (singleSegment ? 0 : 1) + dictionaryIdSize(descriptor);
+		long value = 0;
+		for (int i = size - 1; i >= 0; --i) {
+			value = (value << 8) | (b[pos + i] & 0xff);
+		}
+		return size == 2 ? value + 256 : value;
+	}
+
+	/**
+	 * Returns the length of the frame or skippable frame starting at the
+	 * given offset, including its checksum, {@link #INCOMPLETE} or
+	 * {@link #MALFORMED}.
+	 */
+	public static long frameLength(byte[] b, int off, int len) {
+		if (isSkippableFrame(b, off, len)) {
+			return len < 8 ? INCOMPLETE : 8 + (intLE(b, off + 4) & 0xffffffffL);
+		}
+		int hlen = headerLength(b, off, len);
+		if (hlen < 0) {
+			return hlen;
+		}
+		boolean checksum = (b[off + 4] & 0x04) != 0;
+		long pos = hlen;
+		while (true) {
+			if (pos + 3 > len) {
+				return INCOMPLETE;
+			}
+			int p = off + (int) pos;
+			int block = (b[p] & 0xff) | ((b[p + 1] & 0xff) << 8) | ((b[p + 2] & 0xff) << 16);
+			int type = (block >>> 1) & 3;
+			int size = block >>> 3;
+			if (type == 3 || size > MAX_BLOCK) {
+				return MALFORMED;
+			}
+			pos += 3 + (type == 1 ? 1 : size);
+			if ((block & 1) != 0) {
+				return pos + (checksum ? 4 : 0);
+			}
+		}
+	}
+
+	/**
+	 * Scans forward from the given position for the start of the next zstd
+	 * frame, using positioned reads so the stream position is left untouched.
+	 * Returns the offset of the frame, or the limit if none starts before it.
+	 */
+	public static long nextFrameStart(FSDataInputStream in, long from, long limit, long fileLength) throws IOException {
+		byte[] buf = new byte[WINDOW + 3];
+		long pos = from;
+		while (pos < limit) {
+			int n = readFully(in, pos, buf, (int) Math.min(buf.length, fileLength - pos));
+			if (n < 4) {
+				break;
+			}
+			int scan = Math.min(n - 3, WINDOW);
+			for (int i = 0; i < scan && pos + i < limit; ++i) {
+				if (buf[i] == (byte) 0x28 && isFrame(buf, i, n - i)) {
+					long candidate = pos + i;
+					long next = frameEnd(in, candidate, fileLength);
+					if (next == fileLength || (next > 0 && frameEnd(in, next, fileLength) > 0)) {
+						return candidate;
+					}
+				}
+			}
+			pos += scan;
+		}
+		return limit;
+	}
+
+	/**
+	 * Returns the offset just past the frame or skippable frame starting at
+	 * the given offset, or -1 if there is no well formed frame there.
+	 */
+	private static long frameEnd(FSDataInputStream in, long offset, long fileLength) throws IOException {
+		byte[] header = new byte[MAX_HEADER];
+		int n = readFully(in, offset, header, (int) Math.min(header.length, fileLength - offset));
+		if (isSkippableFrame(header, 0, n)) {
+			long length = frameLength(header, 0, n);
+			return length < 0 || offset + length > fileLength ? -1 : offset + length;
+		}
+		int hlen = headerLength(header, 0, n);
+		if (hlen < 0) {
+			return -1;
+		}
+		boolean checksum = (header[4] & 0x04) != 0;
+		// Hop from block header to block header
+		byte[] block = new byte[3];
+		long pos = offset + hlen;
+		while (true) {
+			if (pos + 3 > fileLength || readFully(in, pos, block, 3) < 3) {
+				return -1;
+			}
+			int value = (block[0] & 0xff) | ((block[1] & 0xff) << 8) | ((block[2] & 0xff) << 16);
+			int type = (value >>> 1) & 3;
+			int size = value >>> 3;
+			if (type == 3 || size > MAX_BLOCK) {
+				return -1;
+			}
+			pos += 3 + (type == 1 ? 1 : size);
+			if ((value & 1) != 0) {
+				pos += checksum ? 4 : 0;
+				return pos > fileLength ? -1 : pos;
+			}
+		}
+	}
+
+	/**
+	 * Returns the dictionary stored in a skippable frame at the start of the
+	 * file, or null if there is none. A dictionary that is itself zstd
+	 * compressed is returned compressed; see {@link #isFrame}.
+	 */
+	public static byte[] readDictionary(FSDataInputStream in, long fileLength) throws IOException {
+		byte[] header = new byte[8];
+		if (readFully(in, 0, header, (int) Math.min(8, fileLength)) < 8 || intLE(header, 0) != DICTIONARY_MAGIC) {
+			return null;
+		}
+		long length = intLE(header, 4) & 0xffffffffL;
+		if (8 + length > fileLength || length > Integer.MAX_VALUE) {
+			throw new IOException("Truncated zstd dictionary frame");
+		}
+		byte[] dictionary = new byte[(int) length];
+		if (readFully(in, 8, dictionary, dictionary.length) < dictionary.length) {
+			throw new IOException("Truncated zstd dictionary frame");
+		}
+		return dictionary;
+	}
+
+	private static int readFully(FSDataInputStream in, long pos, byte[] buf, int len) throws IOException {
+		int n = 0;
+		while (n < len) {
+			int r = in.read(pos + n, buf, n, len - n);
+			if (r < 0) {
+				break;
+			}
+			n += r;
+		}
+		return n;
+	}
+}
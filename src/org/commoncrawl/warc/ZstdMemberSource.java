@@ -0,0 +1,131 @@
+package org.commoncrawl.warc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Decompresses the zstd frames of a .warc.zst file one at a time on the
+ * reading thread, with a single {@link ZstdDecompressor}. Skippable frames,
+ * such as the dictionary at the start of the file, are passed over.
+ *
+ * As with {@link SequentialMemberSource}, the decompressed bytes of each
+ * member are written to a buffer that is reused by the following call to
+ * {@link #next()}. Member offsets are relative to the start of the given
+ * stream.
+ */
+public class ZstdMemberSource implements MemberSource {
+	private static final int READ_SIZE = 64 * 1024;
+	private static final int INITIAL_OUTPUT = 256 * 1024;
+	// A buffer grown past this for one large record is not kept for the rest
+	private static final int MAX_RETAINED = 8 * 1024 * 1024;
+
+	private final InputStream raw;
+	private final ZstdDecompressor decompressor;
+	private byte[] in = new byte[READ_SIZE];
+	private int pos;
+	private int limit;
+	// Offset in the input of in[0]
+	private long base;
+	private boolean eof;
+	private byte[] out = new byte[INITIAL_OUTPUT];
+
+	public ZstdMemberSource(InputStream raw, ZstdDecompressor decompressor) {
+		this.raw = raw;
+		this.decompressor = decompressor;
+	}
+
+	@Override
+	public Member next() throws IOException {
+		while (fill(1)) {
+			long offset = base + pos;
+			long length;
+			while ((length = ZstdFrames.frameLength(in, pos, limit - pos)) == ZstdFrames.INCOMPLETE) {
+				if (!fill(limit - pos + 1)) {
+					throw new IOException("Truncated zstd frame at offset " + offset);
+				}
+			}
+			if (length < 0) {
+				throw new IOException("Bad zstd frame at offset " + offset);
+			}
+			if (ZstdFrames.isSkippableFrame(in, pos, limit - pos)) {
+				skip(length, offset);
+				continue;
+			}
+			if (length > Integer.MAX_VALUE - READ_SIZE || !fill((int) length)) {
+				throw new IOException("Truncated zstd frame at offset " + offset);
+			}
+			int n = decompress((int) length);
+			pos += length;
+			return new Member(offset, out, n);
+		}
+		return null;
+	}
+
+	private int decompress(int length) throws IOException {
+		long size = ZstdFrames.contentSize(in, pos);
+		if (size > Integer.MAX_VALUE - 8) {
+			throw new IOException("zstd frame at offset " + (base + pos) + " is too large");
+		}
+		if (size >= 0) {
+			if (out.length > MAX_RETAINED || out.length < size) {
+				out = new byte[Math.max(INITIAL_OUTPUT, (int) size)];
+			}
+		} else if (out.length > MAX_RETAINED) {
+			out = new byte[INITIAL_OUTPUT];
+		}
+		int n;
+		while ((n = decompressor.decompress(in, pos, length, out)) < 0) {
+			out = Arrays.copyOf(out, out.length * 2);
+		}
+		return n;
+	}
+
+	private void skip(long length, long offset) throws IOException {
+		while (length > limit - pos) {
+			length -= limit - pos;
+			pos = limit;
+			if (!fill(1)) {
+				throw new IOException("Truncated skippable frame at offset " + offset);
+			}
+		}
+		pos += length;
+	}
+
+	/**
+	 * Reads until at least n unconsumed bytes are buffered, or the input
+	 * ends; returns false if fewer than n are available.
+	 */
+	private boolean fill(int n) throws IOException {
+		if (limit - pos >= n) {
+			return true;
+		}
+		if (pos > 0) {
+			System.arraycopy(in, pos, in, 0, limit - pos);
+			base += pos;
+			limit -= pos;
+			pos = 0;
+		}
+		if (n > in.length) {
+			in = Arrays.copyOf(in, Math.max(n, in.length * 2));
+		}
+		while (limit < n && !eof) {
+			int r = raw.read(in, limit, in.length - limit);
+			if (r < 0) {
+				eof = true;
+			} else {
+				limit += r;
+			}
+		}
+		return limit >= n;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			raw.close();
+		} finally {
+			decompressor.close();
+		}
+	}
+}